@@ -0,0 +1,271 @@
+package ec.graph;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Services that can be appended to a graph, as GraphAppendPipeline does,
+ * found from the concepts of the graph instead of by trying every unused
+ * service in turn.
+ *
+ * A service can be appended by its inputs if the graph produces all its inputs,
+ * that is, if every input subsumes an output of a service in the graph. The
+ * concepts produced by the graph are found by walking up the taxonomy from the
+ * outputs of its services, and each service waits on the number of its inputs
+ * not produced yet. A service can be appended by its outputs if it is a
+ * producer of an input of a service in the graph.
+ *
+ * Each set is built only when it is first drawn from, and only for the graph
+ * being mutated, so drawing costs a walk over the concepts the graph produces
+ * and the services using them, or over the producers of the inputs of its
+ * services, rather than a check of every unused service against the graph.
+ * Services that have been used since the set was built are dropped when they
+ * are drawn.
+ *
+ * There is one instance per breeding thread (GraphInitializer.appendIndex),
+ * which indexes one graph at a time. The per-service and per-concept state is
+ * marked with the number of the current graph, so that it does not need to be
+ * cleared between graphs. Services and concepts are handled by id in flat
+ * arrays, as the index is built anew for every graph appended to.
+ */
+public class AppendIndex {
+	private final GraphInitializer init;
+
+	// For each concept, the ids of the pruned services that have it as an input
+	private final int[] userStart;
+	private final int[] users;
+	// For each service, its number of inputs
+	private final int[] numInputs;
+	// The ids of the pruned services without inputs
+	private final int[] noInputs;
+	// For each concept, the ids of its parents in the taxonomy
+	private final int[] parentStart;
+	private final int[] parents;
+
+	private GraphIndividual graph;
+	private int mark;
+	// Whether each set has been built for the current graph
+	private boolean inputsBuilt;
+	private boolean outputsBuilt;
+	private final int[] reached;
+	private final int[] queue;
+	private final int[] counted;
+	private final int[] remaining;
+	private final int[] listed;
+	private int[] byInputs;
+	private int numByInputs;
+	private int[] byOutputs;
+	private int numByOutputs;
+
+	private AppendIndex(GraphInitializer init, int[] userStart, int[] users, int[] numInputs, int[] noInputs,
+			int[] parentStart, int[] parents) {
+		this.init = init;
+		this.userStart = userStart;
+		this.users = users;
+		this.numInputs = numInputs;
+		this.noInputs = noInputs;
+		this.parentStart = parentStart;
+		this.parents = parents;
+		int numConcepts = init.taxonomyNodes.length;
+		int numServices = init.serviceIndex.getNumServices();
+		reached = new int[numConcepts];
+		queue = new int[numConcepts];
+		counted = new int[numServices];
+		remaining = new int[numServices];
+		listed = new int[numServices];
+		byInputs = new int[64];
+		byOutputs = new int[64];
+	}
+
+	/**
+	 * Creates the indices of the breeding threads, which share the lists of
+	 * services using each concept as an input.
+	 *
+	 * @param init
+	 * @param numThreads
+	 * @return one index per thread
+	 */
+	public static AppendIndex[] create(GraphInitializer init, int numThreads) {
+		int numConcepts = init.taxonomyNodes.length;
+		int numServices = init.serviceIndex.getNumServices();
+
+		int[] userStart = new int[numConcepts + 1];
+		int[] numInputs = new int[numServices];
+		int numNoInputs = 0;
+		for (Node s : init.prunedPool) {
+			IntSet inputs = s.getInputs();
+			numInputs[s.getId()] = inputs.size();
+			if (inputs.isEmpty())
+				numNoInputs++;
+			for (int i = 0; i < inputs.size(); i++)
+				userStart[inputs.get(i) + 1]++;
+		}
+		for (int c = 0; c < numConcepts; c++)
+			userStart[c + 1] += userStart[c];
+		int[] users = new int[userStart[numConcepts]];
+		int[] noInputs = new int[numNoInputs];
+		int[] next = new int[numConcepts];
+		numNoInputs = 0;
+		for (Node s : init.prunedPool) {
+			IntSet inputs = s.getInputs();
+			if (inputs.isEmpty())
+				noInputs[numNoInputs++] = s.getId();
+			for (int i = 0; i < inputs.size(); i++) {
+				int input = inputs.get(i);
+				users[userStart[input] + next[input]++] = s.getId();
+			}
+		}
+
+		int[] parentStart = new int[numConcepts + 1];
+		for (int c = 0; c < numConcepts; c++)
+			parentStart[c + 1] = parentStart[c] + (init.taxonomyNodes[c] == null ? 0 : init.taxonomyNodes[c].parents.size());
+		int[] parents = new int[parentStart[numConcepts]];
+		for (int c = 0; c < numConcepts; c++) {
+			if (init.taxonomyNodes[c] != null) {
+				int k = parentStart[c];
+				for (TaxonomyNode parent : init.taxonomyNodes[c].parents)
+					parents[k++] = parent.id;
+			}
+		}
+
+		AppendIndex[] indices = new AppendIndex[numThreads];
+		for (int i = 0; i < numThreads; i++)
+			indices[i] = new AppendIndex(init, userStart, users, numInputs, noInputs, parentStart, parents);
+		return indices;
+	}
+
+	/**
+	 * Indexes a graph, in either form, replacing the previous one. Each set is
+	 * only built when it is first drawn from, so the graph must not change in
+	 * between.
+	 *
+	 * @param graph
+	 */
+	public void reset(GraphIndividual graph) {
+		this.graph = graph;
+		mark++;
+		inputsBuilt = false;
+		outputsBuilt = false;
+		numByInputs = 0;
+		numByOutputs = 0;
+	}
+
+	// The services producing an input of the node can be appended by their outputs
+	private void addProducers(Node n) {
+		IntSet inputs = n.getInputs();
+		for (int i = 0; i < inputs.size(); i++) {
+			int input = inputs.get(i);
+			for (int entry = init.serviceIndex.producersStart(input); entry < init.serviceIndex.producersEnd(input); entry++) {
+				int id = init.serviceIndex.getProducerId(entry);
+				if (listed[id] != mark) {
+					listed[id] = mark;
+					if (numByOutputs == byOutputs.length)
+						byOutputs = Arrays.copyOf(byOutputs, numByOutputs * 2);
+					byOutputs[numByOutputs++] = id;
+				}
+			}
+		}
+	}
+
+	// The concepts newly produced by the graph satisfy the inputs using them
+	private void addProduced(Node n) {
+		int head = 0, tail = 0;
+		IntSet outputs = n.getOutputs();
+		for (int i = 0; i < outputs.size(); i++) {
+			int output = outputs.get(i);
+			if (init.taxonomyNodes[output] != null && reached[output] != mark) {
+				reached[output] = mark;
+				queue[tail++] = output;
+			}
+		}
+		while (head < tail) {
+			int concept = queue[head++];
+			for (int u = userStart[concept]; u < userStart[concept + 1]; u++) {
+				int id = users[u];
+				if (counted[id] != mark) {
+					counted[id] = mark;
+					remaining[id] = numInputs[id];
+				}
+				if (--remaining[id] == 0)
+					addByInputs(id);
+			}
+			for (int p = parentStart[concept]; p < parentStart[concept + 1]; p++) {
+				int parent = parents[p];
+				if (reached[parent] != mark) {
+					reached[parent] = mark;
+					queue[tail++] = parent;
+				}
+			}
+		}
+	}
+
+	private void addByInputs(int id) {
+		if (numByInputs == byInputs.length)
+			byInputs = Arrays.copyOf(byInputs, numByInputs * 2);
+		byInputs[numByInputs++] = id;
+	}
+
+	/**
+	 * @return a random unused service whose inputs are all produced by the
+	 * graph, or null if there is none
+	 */
+	public Node drawByInputs(Random random) {
+		if (!inputsBuilt) {
+			inputsBuilt = true;
+			for (int id : noInputs)
+				addByInputs(id);
+			if (graph.indexed != null) {
+				IndexedGraph g = graph.indexed;
+				for (int slot = 0; slot < g.getNodeSlots(); slot++) {
+					if (g.isNode(slot) && g.getService(slot) >= 0)
+						addProduced(init.serviceIndex.getService(g.getService(slot)));
+				}
+			}
+			else {
+				for (Node n : graph.nodeMap.values()) {
+					if (n.getId() >= 0)
+						addProduced(n);
+				}
+			}
+		}
+		while (numByInputs > 0) {
+			int index = random.nextInt(numByInputs);
+			int id = byInputs[index];
+			if (graph.unused.contains(id))
+				return init.serviceIndex.getService(id);
+			byInputs[index] = byInputs[--numByInputs];
+		}
+		return null;
+	}
+
+	/**
+	 * @return a random unused service producing an input of a service in the
+	 * graph, or null if there is none
+	 */
+	public Node drawByOutputs(Random random) {
+		if (!outputsBuilt) {
+			outputsBuilt = true;
+			if (graph.indexed != null) {
+				IndexedGraph g = graph.indexed;
+				for (int slot = 0; slot < g.getNodeSlots(); slot++) {
+					if (g.isNode(slot) && g.getService(slot) >= 0)
+						addProducers(init.serviceIndex.getService(g.getService(slot)));
+				}
+			}
+			else {
+				for (Node n : graph.nodeMap.values()) {
+					if (n.getId() >= 0)
+						addProducers(n);
+				}
+			}
+		}
+		while (numByOutputs > 0) {
+			int index = random.nextInt(numByOutputs);
+			int id = byOutputs[index];
+			if (graph.unused.contains(id))
+				return init.serviceIndex.getService(id);
+			byOutputs[index] = byOutputs[--numByOutputs];
+		}
+		return null;
+	}
+}
@@ -0,0 +1,232 @@
+package ec.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Candidate services for a graph under construction, used by
+ * GraphSpecies.finishConstructingGraph. Each candidate keeps the set of its
+ * inputs that no node in the graph satisfies yet, and waits on each of those
+ * concepts. Connecting a node to the graph satisfies the concepts its outputs
+ * are subsumed by, so the candidates waiting on them cross them off, and a
+ * candidate with nothing left to wait for is moved to the ready list, from
+ * which a uniformly random candidate is drawn in constant time. The inputs of
+ * the end node are tracked the same way.
+ *
+ * Drawing uniformly from the ready candidates is what shuffling the candidate
+ * list and taking the first candidate that can be connected did, so graphs are
+ * built with the same distribution as before.
+ *
+ * There is one instance per breeding thread (GraphInitializer.candidateQueue),
+ * which tracks the candidates of one graph at a time. The per-service and
+ * per-concept state is marked with the number of the current graph or node,
+ * so that it does not need to be cleared between graphs, and the candidates
+ * waiting on each concept are linked in flat arrays, so that tracking them
+ * does not allocate once the arrays have grown to fit.
+ */
+public class CandidateQueue {
+	private final GraphInitializer init;
+	private GraphIndividual graph;
+	private Node start;
+	private int graphMark;
+
+	// Tracked candidates by number, with the number of their inputs not
+	// satisfied yet. The end node is number 0.
+	private Node[] candidates = new Node[64];
+	private int[] remaining = new int[64];
+	private int numCandidates;
+	// Slots of the candidates tracked, marked with the number of the graph
+	private final int[] tracked;
+	private final List<Node> ready = new ArrayList<Node>();
+
+	// Candidates waiting on each concept, in the order they started waiting,
+	// valid if marked with the number of the graph
+	private final int[] waitMark;
+	private final int[] waitHead;
+	private final int[] waitTail;
+	private int[] entryCandidate = new int[128];
+	private int[] entryNext = new int[128];
+	private int numEntries;
+
+	// Inputs of the candidate being tracked not satisfied yet
+	private final IntSet unsatisfied = new IntSet(16);
+
+	// Concepts reached while satisfying the outputs of a node, marked with the
+	// number of the node
+	private final int[] reached;
+	private final int[] queue;
+	private int nodeMark;
+
+	/**
+	 * @param init
+	 */
+	public CandidateQueue(GraphInitializer init) {
+		this.init = init;
+		int numConcepts = init.taxonomyNodes.length;
+		tracked = new int[init.serviceIndex.getNumServices() + 2];
+		waitMark = new int[numConcepts];
+		waitHead = new int[numConcepts];
+		waitTail = new int[numConcepts];
+		reached = new int[numConcepts];
+		queue = new int[numConcepts];
+	}
+
+	/**
+	 * Starts tracking the candidates of a graph, replacing the previous one.
+	 *
+	 * @param graph the graph under construction, in either form, which must
+	 * contain the start node
+	 * @param endNode
+	 */
+	public void reset(GraphIndividual graph, Node endNode) {
+		this.graph = graph;
+		start = graph.indexed != null ? init.startNode : graph.nodeMap.get("start");
+		graphMark++;
+		numCandidates = 0;
+		numEntries = 0;
+		ready.clear();
+		track(endNode);
+	}
+
+	/**
+	 * Starts tracking a candidate against the nodes currently in the graph.
+	 *
+	 * @param candidate
+	 */
+	public void add(Node candidate) {
+		int slot = GraphTraversal.slot(candidate);
+		if (tracked[slot] == graphMark)
+			return;
+		tracked[slot] = graphMark;
+		int c = track(candidate);
+		if (remaining[c] == 0)
+			ready.add(candidate);
+	}
+
+	/**
+	 * Finds the inputs of a node that the graph does not satisfy yet, in the
+	 * same way as GraphSpecies.checkCandidateNodeSatisfied.
+	 *
+	 * @return the number of the candidate
+	 */
+	private int track(Node candidate) {
+		unsatisfied.clear();
+		unsatisfied.addAll(candidate.getInputs());
+
+		IntSet startOutputs = start.getOutputs();
+		for (int i = 0; i < startOutputs.size() && !unsatisfied.isEmpty(); i++) {
+			int entry = init.serviceIndex.findConsumer(startOutputs.get(i), candidate);
+			if (entry != -1) {
+				for (int j = init.serviceIndex.inputsStart(entry); j < init.serviceIndex.inputsEnd(entry); j++)
+					unsatisfied.remove(init.serviceIndex.getInput(j));
+			}
+		}
+
+		for (int i = unsatisfied.size() - 1; i >= 0; i--) {
+			int input = unsatisfied.get(i);
+			for (int entry = init.serviceIndex.producersStart(input); entry < init.serviceIndex.producersEnd(input); entry++) {
+				if (contains(init.serviceIndex.getProducer(entry))) {
+					unsatisfied.remove(input);
+					break;
+				}
+			}
+		}
+
+		if (numCandidates == candidates.length) {
+			candidates = Arrays.copyOf(candidates, numCandidates * 2);
+			remaining = Arrays.copyOf(remaining, numCandidates * 2);
+		}
+		int c = numCandidates++;
+		candidates[c] = candidate;
+		remaining[c] = unsatisfied.size();
+		for (int i = 0; i < unsatisfied.size(); i++)
+			addWaiting(unsatisfied.get(i), c);
+		return c;
+	}
+
+	private boolean contains(Node n) {
+		if (graph.indexed != null)
+			return graph.indexed.findNode(n.getId()) != -1;
+		return graph.nodeMap.containsKey(n.getName());
+	}
+
+	private void addWaiting(int concept, int c) {
+		if (numEntries == entryCandidate.length) {
+			entryCandidate = Arrays.copyOf(entryCandidate, numEntries * 2);
+			entryNext = Arrays.copyOf(entryNext, numEntries * 2);
+		}
+		int entry = numEntries++;
+		entryCandidate[entry] = c;
+		entryNext[entry] = -1;
+		if (waitMark[concept] != graphMark) {
+			waitMark[concept] = graphMark;
+			waitHead[concept] = -1;
+		}
+		if (waitHead[concept] == -1)
+			waitHead[concept] = entry;
+		else
+			entryNext[waitTail[concept]] = entry;
+		waitTail[concept] = entry;
+	}
+
+	/**
+	 * Updates the candidates and the end node with the outputs of a service
+	 * that was just connected to the graph. The service produces every concept
+	 * its outputs are subsumed by (see ServiceIndex).
+	 *
+	 * @param n
+	 */
+	public void connected(Node n) {
+		int mark = ++nodeMark;
+		int head = 0, tail = 0;
+		IntSet outputs = n.getOutputs();
+		for (int i = 0; i < outputs.size(); i++) {
+			int output = outputs.get(i);
+			if (init.taxonomyNodes[output] != null && reached[output] != mark) {
+				reached[output] = mark;
+				queue[tail++] = output;
+			}
+		}
+		while (head < tail) {
+			int concept = queue[head++];
+			if (waitMark[concept] == graphMark) {
+				for (int entry = waitHead[concept]; entry != -1; entry = entryNext[entry]) {
+					int c = entryCandidate[entry];
+					if (--remaining[c] == 0 && c != 0)
+						ready.add(candidates[c]);
+				}
+				waitHead[concept] = -1;
+			}
+			for (TaxonomyNode parent : init.taxonomyNodes[concept].parents) {
+				if (reached[parent.id] != mark) {
+					reached[parent.id] = mark;
+					queue[tail++] = parent.id;
+				}
+			}
+		}
+	}
+
+	public boolean isEndSatisfied() {
+		return remaining[0] == 0;
+	}
+
+	/**
+	 * Removes a uniformly random candidate from those whose inputs are all
+	 * satisfied.
+	 *
+	 * @param random
+	 * @return the candidate, or null if none is ready
+	 */
+	public Node draw(Random random) {
+		int size = ready.size();
+		if (size == 0)
+			return null;
+		int index = random.nextInt(size);
+		Node candidate = ready.get(index);
+		ready.set(index, ready.get(size - 1));
+		ready.remove(size - 1);
+		return candidate;
+	}
+}
@@ -0,0 +1,69 @@
+package ec.graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps each taxonomy concept (or instance) name to a dense int id. The ids are
+ * handed out at load time, so that the rest of the system can work with ints
+ * and resolve the names only for output.
+ *
+ * Interning is synchronised, since the problem files are parsed concurrently.
+ */
+public class ConceptDictionary {
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	private final List<String> names = new ArrayList<String>();
+
+	/**
+	 * @return the id of the given name, assigning a new one if it was not seen before
+	 */
+	public synchronized int intern(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = names.size();
+			ids.put(name, id);
+			names.add(name);
+		}
+		return id;
+	}
+
+	/**
+	 * @return the id of the given name, or -1 if it is unknown
+	 */
+	public synchronized int getId(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	public synchronized String getName(int id) {
+		return names.get(id);
+	}
+
+	/**
+	 * Renumbers the concepts in name order. Ids are handed out in whatever order
+	 * the parsing threads reach each name, so this makes them (and the iteration
+	 * order of every IntSet) the same from one run to the next.
+	 *
+	 * @return mapping from each old id to its new id
+	 */
+	public synchronized int[] sortByName() {
+		List<String> sorted = new ArrayList<String>(names);
+		Collections.sort(sorted);
+		int[] mapping = new int[names.size()];
+		for (int newId = 0; newId < sorted.size(); newId++)
+			mapping[ids.get(sorted.get(newId))] = newId;
+		names.clear();
+		for (String name : sorted) {
+			ids.put(name, names.size());
+			names.add(name);
+		}
+		return mapping;
+	}
+
+	public synchronized int size() {
+		return names.size();
+	}
+}
@@ -0,0 +1,72 @@
+package ec.graph;
+
+import java.util.Arrays;
+
+/**
+ * Working space for checking whether a node can be connected to a graph, so
+ * that candidates that cannot be connected are rejected without allocating
+ * anything. The inputs still to be satisfied and the producer chosen for each
+ * input are recorded here first, and the edges are only created once every
+ * input has been satisfied (see GraphSpecies.checkCandidateNodeSatisfied).
+ *
+ * There is one instance per breeding thread (GraphInitializer.scratch), and
+ * it is reused for every check made by that thread.
+ */
+public class ConstructionScratch {
+	// Inputs of the node not satisfied by the start node
+	public final IntSet inputs = new IntSet(16);
+	// Inputs of the node satisfied by the start node
+	public final IntSet startIntersect = new IntSet(16);
+
+	// The graph node chosen to satisfy each remaining input, as a node of the
+	// object form or as a slot of the compact form
+	private Node[] sources = new Node[16];
+	private int[] sourceSlots = new int[16];
+	private int[] sourceInputs = new int[16];
+	private int numSources;
+
+	public void clear() {
+		inputs.clear();
+		startIntersect.clear();
+		Arrays.fill(sources, 0, numSources, null);
+		numSources = 0;
+	}
+
+	public void addSource(Node source, int input) {
+		grow();
+		sources[numSources] = source;
+		sourceInputs[numSources] = input;
+		numSources++;
+	}
+
+	public void addSource(int slot, int input) {
+		grow();
+		sourceSlots[numSources] = slot;
+		sourceInputs[numSources] = input;
+		numSources++;
+	}
+
+	private void grow() {
+		if (numSources == sources.length) {
+			sources = Arrays.copyOf(sources, numSources * 2);
+			sourceSlots = Arrays.copyOf(sourceSlots, numSources * 2);
+			sourceInputs = Arrays.copyOf(sourceInputs, numSources * 2);
+		}
+	}
+
+	public int numSources() {
+		return numSources;
+	}
+
+	public Node getSource(int index) {
+		return sources[index];
+	}
+
+	public int getSourceSlot(int index) {
+		return sourceSlots[index];
+	}
+
+	public int getSourceInput(int index) {
+		return sourceInputs[index];
+	}
+}
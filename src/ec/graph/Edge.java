@@ -1,14 +1,12 @@
 package ec.graph;
 
-import java.util.Set;
-
 public class Edge {
 	private Node fromNode;
 	private Node toNode;
-	private Set<String> intersect;
+	private IntSet intersect;
 	private boolean consider = true;
 
-	public Edge(Set<String> intersect) {
+	public Edge(IntSet intersect) {
 		this.intersect = intersect;
 	}
 
@@ -28,7 +26,7 @@ public class Edge {
 		this.toNode = toNode;
 	}
 
-	public Set<String> getIntersect() {
+	public IntSet getIntersect() {
 		return intersect;
 	}
 
@@ -0,0 +1,178 @@
+package ec.graph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+
+/**
+ * Compares the topological evaluation of QosEvaluator with the Bellman-Ford
+ * evaluation GraphEvol used before, on randomly constructed candidates for the
+ * problem described by the usual ECJ arguments (e.g. "-file graph-evol.params").
+ * The number of candidates and of timed rounds are set with the parameters
+ * benchmark-candidates and benchmark-rounds.
+ */
+public class EvaluationBenchmark {
+
+	public static void main(String[] args) {
+		ParameterDatabase parameters = Evolve.loadParameterDatabase(args);
+		EvolutionState state = Evolve.initialize(parameters, 0);
+		GraphInitializer init = new GraphInitializer();
+		init.setup(state, null);
+		state.initializer = init;
+		int numCandidates = parameters.getIntWithDefault(new Parameter("benchmark-candidates"), null, 200);
+		int numRounds = parameters.getIntWithDefault(new Parameter("benchmark-rounds"), null, 5);
+
+		GraphSpecies species = new GraphSpecies();
+		List<GraphIndividual> candidates = new ArrayList<GraphIndividual>();
+		List<IndexedGraph> compacted = new ArrayList<IndexedGraph>();
+		int numNodes = 0, numEdges = 0;
+		for (int i = 0; i < numCandidates; i++) {
+			GraphIndividual candidate = species.createNewGraph(null, state, init.startNode.clone(), init.endNode.clone(), init.prunedPool, 0);
+			candidates.add(candidate);
+			compacted.add(IndexedGraph.compact(candidate, init.serviceIndex));
+			numNodes += candidate.nodeMap.size();
+			numEdges += candidate.edgeList.size();
+		}
+		System.out.println(String.format("%d candidates, %.1f nodes and %.1f edges on average", numCandidates,
+				(double) numNodes / numCandidates, (double) numEdges / numCandidates));
+
+		// Both evaluations must agree before their times mean anything
+		QosEvaluator evaluator = new QosEvaluator();
+		for (int i = 0; i < numCandidates; i++) {
+			GraphIndividual candidate = candidates.get(i);
+			evaluator.evaluate(compacted.get(i), init);
+			double time = findLongestPath(candidate);
+			int pathLength = findLongestPath2(candidate);
+			if (Math.abs(time - evaluator.time) > 1e-9 * Math.max(1.0, time) || pathLength != evaluator.pathLength)
+				System.out.println(String.format("Candidate %d: Bellman-Ford gives %f and %d, topological pass gives %f and %d",
+						i, time, pathLength, evaluator.time, evaluator.pathLength));
+		}
+
+		double sink = 0.0;
+		for (int round = 0; round < numRounds; round++) {
+			long start = System.nanoTime();
+			for (GraphIndividual candidate : candidates) {
+				double a = 1.0, r = 1.0, c = 0.0;
+				for (Node n : candidate.nodeMap.values()) {
+					double[] qos = n.getQos();
+					a *= qos[GraphInitializer.AVAILABILITY];
+					r *= qos[GraphInitializer.RELIABILITY];
+					c += qos[GraphInitializer.COST];
+				}
+				sink += a + r + c + findLongestPath(candidate) + findLongestPath2(candidate);
+			}
+			long bellmanFord = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (GraphIndividual candidate : candidates) {
+				evaluator.evaluate(IndexedGraph.compact(candidate, init.serviceIndex), init);
+				sink += evaluator.availability + evaluator.reliability + evaluator.cost + evaluator.time + evaluator.pathLength;
+			}
+			long compactAndPass = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (IndexedGraph g : compacted) {
+				evaluator.evaluate(g, init);
+				sink += evaluator.availability + evaluator.reliability + evaluator.cost + evaluator.time + evaluator.pathLength;
+			}
+			long pass = System.nanoTime() - start;
+
+			System.out.println(String.format("Round %d: Bellman-Ford %.2f ms, object graphs %.2f ms (%.1fx), indexed graphs %.2f ms (%.1fx)",
+					round, bellmanFord / 1e6, compactAndPass / 1e6, (double) bellmanFord / compactAndPass, pass / 1e6, (double) bellmanFord / pass));
+		}
+		if (sink == 42.0)
+			System.out.println();
+		Evolve.cleanup(state);
+	}
+
+	/**
+	 * Uses the Bellman-Ford algorithm with negative weights to find the longest
+	 * path in an acyclic directed graph.
+	 *
+	 * @param g
+	 * @return total time of the longest path
+	 */
+	static double findLongestPath(GraphIndividual g) {
+		Map<String, Double> distance = new HashMap<String, Double>();
+		Map<String, Node> predecessor = new HashMap<String, Node>();
+
+		// Step 1: initialize graph
+		for (Node node : g.considerableNodeMap.values()) {
+			if (node.getName().equals("start"))
+				distance.put(node.getName(), 0.0);
+			else
+				distance.put(node.getName(), Double.POSITIVE_INFINITY);
+		}
+
+		// Step 2: relax edges repeatedly
+		for (int i = 1; i < g.considerableNodeMap.size(); i++) {
+			for (Edge e : g.considerableEdgeList) {
+				if ((distance.get(e.getFromNode().getName()) -
+				        e.getToNode().getQos()[GraphInitializer.TIME])
+				        < distance.get(e.getToNode().getName())) {
+					distance.put(e.getToNode().getName(), (distance.get(e.getFromNode().getName()) - e.getToNode().getQos()[GraphInitializer.TIME]));
+					predecessor.put(e.getToNode().getName(), e.getFromNode());
+				}
+			}
+		}
+
+		// Now retrieve total cost
+		Node pre = predecessor.get("end");
+		double totalTime = 0.0;
+
+		while (pre != null) {
+			totalTime += pre.getQos()[GraphInitializer.TIME];
+			pre = predecessor.get(pre.getName());
+		}
+
+		return totalTime;
+	}
+
+	/**
+	 * Uses the Bellman-Ford algorithm with negative weights to find the longest
+	 * path in an acyclic directed graph.
+	 *
+	 * @param g
+	 * @return number of edges on the longest path
+	 */
+	static int findLongestPath2(GraphIndividual g) {
+		Map<String, Integer> distance = new HashMap<String, Integer>();
+		Map<String, Node> predecessor = new HashMap<String, Node>();
+
+		// Step 1: initialize graph
+		for (Node node : g.considerableNodeMap.values()) {
+			if (node.getName().equals("start"))
+				distance.put(node.getName(), 0);
+			else
+				distance.put(node.getName(), Integer.MAX_VALUE);
+		}
+
+		// Step 2: relax edges repeatedly
+		for (int i = 1; i < g.considerableNodeMap.size(); i++) {
+			for (Edge e : g.considerableEdgeList) {
+				if ((distance.get(e.getFromNode().getName()) - 1)
+				        < distance.get(e.getToNode().getName())) {
+					distance.put(e.getToNode().getName(), (distance.get(e.getFromNode().getName()) - 1));
+					predecessor.put(e.getToNode().getName(), e.getFromNode());
+				}
+			}
+		}
+
+		// Now retrieve total cost
+		Node pre = predecessor.get("end");
+		int totalTime = 0;
+
+		while (pre != null) {
+			totalTime += 1;
+			pre = predecessor.get(pre.getName());
+		}
+
+		return totalTime;
+	}
+}
@@ -0,0 +1,105 @@
+package ec.graph;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of evaluation results, keyed by the structural hash of the
+ * evaluated graph (see IndexedGraph.getHash). When the cache is full, the least
+ * recently used entry is evicted. The raw QoS values are cached rather than the
+ * fitness, so that cached results remain valid when the normalisation bounds
+ * change. A hit is confirmed against the check sum and the node and edge counts
+ * of the graph, and an entry for another graph with the same hash is a miss.
+ *
+ * The cache is shared by all evaluation threads, so its methods are
+ * synchronized.
+ */
+public class FitnessCache {
+	private final Map<Long, Entry> entries;
+	private long hits;
+	private long lookups;
+
+	/**
+	 * Results of evaluating one graph structure.
+	 */
+	public static class Entry {
+		public final double availability;
+		public final double reliability;
+		public final double time;
+		public final double cost;
+		public final int longestPathLength;
+		public final int numAtomicServices;
+		// Confirm that a hit is for the same graph, rather than a hash collision
+		private final long check;
+		private final int numNodes;
+		private final int numEdges;
+
+		public Entry(GraphIndividual ind, IndexedGraph g) {
+			availability = ind.availability;
+			reliability = ind.reliability;
+			time = ind.time;
+			cost = ind.cost;
+			longestPathLength = ind.longestPathLength;
+			numAtomicServices = ind.numAtomicServices;
+			check = g.getCheck();
+			numNodes = g.getNumNodes();
+			numEdges = g.getNumEdges();
+		}
+
+		boolean matches(IndexedGraph g) {
+			return check == g.getCheck() && numNodes == g.getNumNodes() && numEdges == g.getNumEdges();
+		}
+
+		/**
+		 * Copies the cached results into an individual with the same structure.
+		 */
+		public void copyTo(GraphIndividual ind) {
+			ind.availability = availability;
+			ind.reliability = reliability;
+			ind.time = time;
+			ind.cost = cost;
+			ind.longestPathLength = longestPathLength;
+			ind.numAtomicServices = numAtomicServices;
+		}
+	}
+
+	public FitnessCache(final int capacity) {
+		entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * @return the cached results for the structure of the given graph, or null
+	 * if there are none, or if the entry with the same hash is for another
+	 * graph
+	 */
+	public synchronized Entry get(IndexedGraph g) {
+		lookups++;
+		Entry entry = entries.get(g.getHash());
+		if (entry == null || !entry.matches(g))
+			return null;
+		hits++;
+		return entry;
+	}
+
+	public synchronized void put(IndexedGraph g, Entry entry) {
+		entries.put(g.getHash(), entry);
+	}
+
+	/**
+	 * @return the fraction of lookups that were hits since the last call, and
+	 * starts counting anew
+	 */
+	public synchronized double takeHitRate() {
+		double rate = lookups == 0 ? 0.0 : (double) hits / lookups;
+		hits = 0;
+		lookups = 0;
+		return rate;
+	}
+}
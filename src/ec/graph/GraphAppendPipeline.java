@@ -1,9 +1,7 @@
 package ec.graph;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
 import ec.BreedingPipeline;
 import ec.EvolutionState;
@@ -40,96 +38,96 @@ public class GraphAppendPipeline extends BreedingPipeline {
             state.output.fatal("GraphAppendPipeline didn't get a GraphIndividual. The offending individual is in subpopulation "
             + subpopulation + " and it's:" + inds[start]);
 
+        // Give compact individuals their own copy of their compact form to edit,
+        // recording the edits made to them from now on
+        for(int q=start;q<n+start;q++) {
+            GraphIndividual graph = (GraphIndividual)inds[q];
+            GraphChange change = GraphChange.start(graph);
+            if (graph.indexed != null)
+                graph.edit();
+            graph.change = change;
+        }
+
         // Perform mutation
         for(int q=start;q<n+start;q++) {
             GraphIndividual graph = (GraphIndividual)inds[q];
 
 
+            // Clones share the set of unused services
+            graph.unused = new ServicePool(graph.unused);
+            AppendIndex index = init.appendIndex[thread];
+            index.reset(graph);
+
             // Determine whether you want to append a node by the inputs or by the output(s)
-            if (init.random.nextBoolean()) {
+            if (init.random[thread].nextBoolean()) {
             	// From the inputs
-            	Map<String, Edge> connections = new HashMap<String, Edge>();
-
-				candidateLoop: for (Node candidate : graph.unused) {
-					candidate = candidate.clone();
-					candidate.setConsidered(false);
-					connections.clear();
-					for (String i : candidate.getInputs()) {
-						boolean found = false;
-
-						for (Node service : init.taxonomyMap.get(i).servicesWithOutput) {
-							if (graph.nodeMap.containsKey(service.getName())) {
-								Set<String> intersect = new HashSet<String>();
-								intersect.add(i);
-								Edge mapEdge = connections.get(graph.nodeMap
-										.get(service.getName()));
-								if (mapEdge == null) {
-									Edge e = new Edge(intersect);
-									e.setConsidered(false);
-									e.setFromNode(graph.nodeMap.get(service
-											.getName()));
-									e.setToNode(candidate);
-									connections.put(e.getFromNode().getName(),
-											e);
-								} else
-									mapEdge.getIntersect().addAll(intersect);
-
-								found = true;
-								break;
-							}
-
-						}
-						// If that input cannot be satisfied, move on to another
-						// candidate node to connect
-						if (!found) {
-							// Move on to another candidate
-							continue candidateLoop;
-						}
-					}
-					// Connect candidate to graph
-					((GraphSpecies)graph.species).appendCandidateToGraphByInputs(candidate, connections, graph);
-					break;
-				}
-			}
+            	Node candidate = index.drawByInputs(init.random[thread]);
+            	if (candidate != null && graph.indexed != null)
+            		((GraphSpecies)graph.species).appendCandidateSlotByInputs(init, graph, candidate, thread);
+            	else if (candidate != null) {
+            		candidate = candidate.clone();
+            		candidate.setConsidered(false);
+            		Map<String, Edge> connections = new HashMap<String, Edge>();
+            		IntSet inputs = candidate.getInputs();
+            		for (int k = 0; k < inputs.size(); k++) {
+            			int i = inputs.get(k);
+            			for (int entry = init.serviceIndex.producersStart(i); entry < init.serviceIndex.producersEnd(i); entry++) {
+            				Node service = init.serviceIndex.getProducer(entry);
+            				if (graph.nodeMap.containsKey(service.getName())) {
+            					Edge mapEdge = connections.get(service.getName());
+            					if (mapEdge == null) {
+            						IntSet intersect = new IntSet();
+            						intersect.add(i);
+            						Edge e = new Edge(intersect);
+            						e.setConsidered(false);
+            						e.setFromNode(graph.nodeMap.get(service.getName()));
+            						e.setToNode(candidate);
+            						connections.put(e.getFromNode().getName(), e);
+            					} else
+            						mapEdge.getIntersect().add(i);
+            					break;
+            				}
+            			}
+            		}
+            		// Connect candidate to graph
+            		((GraphSpecies)graph.species).appendCandidateToGraphByInputs(candidate, connections, graph);
+            	}
+            }
             else {
             	// By the output(s)
-            	Map<String, Edge> connections = new HashMap<String, Edge>();
-
-            	Node candidate = null;
-            	for (Node c : graph.unused) {
-            		candidate = c.clone();
+            	Node candidate = index.drawByOutputs(init.random[thread]);
+            	if (candidate != null && graph.indexed != null)
+            		((GraphSpecies)graph.species).appendCandidateSlotByOutputs(init, graph, candidate);
+            	else if (candidate != null) {
+            		candidate = candidate.clone();
             		candidate.setConsidered(false);
-            		for (String o: candidate.getOutputs()) {
-						for (Node service : init.taxonomyMap.get(o).servicesWithInput.keySet()) {
-
-							if (graph.nodeMap.containsKey(service.getName()) && !connections.containsKey(service.getName())) {
-								Set<String> intersect = new HashSet<String>();
-								intersect.add(o);
-
-								Edge e = new Edge(intersect);
-								e.setConsidered(false);
-								e.setFromNode(candidate);
-								e.setToNode(graph.nodeMap.get(service.getName()));
-								connections.put(e.getToNode().getName(), e);
-								// Move on to the next output
-								break;
-							}
-						}
+            		Map<String, Edge> connections = new HashMap<String, Edge>();
+            		IntSet outputs = candidate.getOutputs();
+            		for (int k = 0; k < outputs.size(); k++) {
+            			int o = outputs.get(k);
+            			for (int entry = init.serviceIndex.consumersStart(o); entry < init.serviceIndex.consumersEnd(o); entry++) {
+            				Node service = init.serviceIndex.getConsumer(entry);
+            				if (graph.nodeMap.containsKey(service.getName()) && !connections.containsKey(service.getName())) {
+            					IntSet intersect = new IntSet();
+            					intersect.add(o);
+
+            					Edge e = new Edge(intersect);
+            					e.setConsidered(false);
+            					e.setFromNode(candidate);
+            					e.setToNode(graph.nodeMap.get(service.getName()));
+            					connections.put(e.getToNode().getName(), e);
+            					// Move on to the next output
+            					break;
+            				}
+            			}
             		}
-            		// If at least one node output got connected, stop
-            		if (!connections.isEmpty()) {
-            			break;
-            		}
-            	}
-
-				// Connect candidate to graph
-            	if (candidate != null)
+            		// Connect candidate to graph
             		((GraphSpecies)graph.species).appendCandidateToGraphByOutputs(candidate, connections, graph);
+            	}
             }
 
-
-
             graph.evaluated=false;
+            graph.compact( init );
         }
         return n;
 	}
@@ -0,0 +1,52 @@
+package ec.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Record of the edits made to an evaluated individual by an operator, which
+ * lets QosEvaluator evaluate the offspring from its parent's results. Nodes
+ * whose considered inputs were reconnected, without being added themselves,
+ * must be recorded as rewired.
+ *
+ * A change can only be started on an individual whose compact form was
+ * evaluated, and is discarded as soon as the individual is evaluated or
+ * expanded again. Operators edit a copy of the compact form (see
+ * GraphIndividual.edit) in which every node and edge keeps its slot.
+ */
+public class GraphChange {
+	final IndexedGraph parent;
+	final List<Node> addedNodes = new ArrayList<Node>();
+	final List<Node> removedNodes = new ArrayList<Node>();
+	final List<Node> rewiredNodes = new ArrayList<Node>();
+
+	private GraphChange(GraphIndividual graph) {
+		parent = graph.indexed;
+	}
+
+	/**
+	 * Starts recording the changes to an individual, which must not have been
+	 * expanded or edited yet.
+	 *
+	 * @param graph
+	 * @return the new record, or null if the individual's evaluation cannot be
+	 * reused
+	 */
+	public static GraphChange start(GraphIndividual graph) {
+		if (graph.indexed == null || graph.indexed.getTrace() == null)
+			return null;
+		return new GraphChange(graph);
+	}
+
+	public void addNode(Node n) {
+		addedNodes.add(n);
+	}
+
+	public void removeNode(Node n) {
+		removedNodes.add(n);
+	}
+
+	public void rewireNode(Node n) {
+		rewiredNodes.add(n);
+	}
+}
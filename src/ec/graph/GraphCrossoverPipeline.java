@@ -1,13 +1,13 @@
 package ec.graph;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ec.BreedingPipeline;
 import ec.EvolutionState;
@@ -19,7 +19,7 @@ import ec.util.Parameter;
  * @author Alex
  */
 public class GraphCrossoverPipeline extends BreedingPipeline {
-    public static int counter = 0;
+    public static final AtomicInteger counter = new AtomicInteger();
 
     @Override
     public Parameter defaultBase() {
@@ -34,7 +34,7 @@ public class GraphCrossoverPipeline extends BreedingPipeline {
     @Override
     public int produce(int min, int max, int start, int subpopulation,
             Individual[] inds, EvolutionState state, int thread) {
-        counter++;
+        counter.incrementAndGet();
 
 		GraphInitializer init = (GraphInitializer) state.initializer;
 		GraphSpecies species = null;
@@ -80,28 +80,29 @@ public class GraphCrossoverPipeline extends BreedingPipeline {
 
         		// Identify the half of each graph, and sever each graph into two
         		GraphIndividual g1Beginning = new GraphIndividual(), g1End = new GraphIndividual(), g2Beginning = new GraphIndividual(), g2End = new GraphIndividual();
-        		Map<Node, Set<String>> endLayer1 = severGraph(g1, g1Beginning, g1End, disconnectedInput1, species);
-        		Map<Node, Set<String>> endLayer2 = severGraph(g2, g2Beginning, g2End, disconnectedInput2, species);
-        		if (!species.structureValidator3( g1Beginning ))
-        		    System.out.println();
-        		if (!species.structureValidator3( g1End ))
-        		    System.out.println();
-        		if (!species.structureValidator3( g2Beginning ))
-        		    System.out.println();
-        		if (!species.structureValidator3( g2End ))
-        		    System.out.println();
-
-        		GraphIndividual child1 = connectGraphHalves(state, init, species, g1Beginning, g2End, endLayer2); // Create first child
-        		GraphIndividual child2 = connectGraphHalves(state, init, species, g2Beginning, g1End, endLayer1); // Create second child
+        		Map<Node, IntSet> endLayer1 = severGraph(init, g1, g1Beginning, g1End, disconnectedInput1, species);
+        		Map<Node, IntSet> endLayer2 = severGraph(init, g2, g2Beginning, g2End, disconnectedInput2, species);
+        		boolean checking = init.invariantChecker != null && init.invariantChecker.sample();
+        		if (checking) {
+        		    init.invariantChecker.checkPart( g1Beginning );
+        		    init.invariantChecker.checkPart( g1End );
+        		    init.invariantChecker.checkPart( g2Beginning );
+        		    init.invariantChecker.checkPart( g2End );
+        		}
+
+        		GraphIndividual child1 = connectGraphHalves(state, init, species, g1Beginning, g2End, endLayer2, thread); // Create first child
+        		GraphIndividual child2 = connectGraphHalves(state, init, species, g2Beginning, g1End, endLayer1, thread); // Create second child
 
         		// Incorporate children into population, after having removed any dangling nodes
         		init.removeDanglingNodes( child1 );
         		init.removeDanglingNodes( child2 );
         		
-        		if(!species.structureValidator1( child1 ) || !species.structureValidator3( child1 ) || !species.structureValidator4( child1 ) || !species.structureValidator5( child1 ) || !species.structureValidator6( child1 ))
-        		    System.out.println("Bah");
-                if(!species.structureValidator1( child2 ) || !species.structureValidator3( child2 ) || !species.structureValidator4( child2 ) || !species.structureValidator5( child2 ) || !species.structureValidator6( child2 ))
-                    System.out.println("Bah");
+        		if (checking) {
+        		    init.invariantChecker.check( init, child1 );
+        		    init.invariantChecker.check( init, child2 );
+        		}
+        		child1.compact( init );
+        		child2.compact( init );
         		inds[q] = child1;
         		inds[q++].evaluated = false;
         		if (q < nMin + start) {
@@ -112,8 +113,11 @@ public class GraphCrossoverPipeline extends BreedingPipeline {
         return nMin;
     }
 
-    private Map<Node, Set<String>> severGraph(GraphIndividual graph, GraphIndividual graphBeginning, GraphIndividual graphEnd, Set<Node> disconnectedInput, GraphSpecies species) {
-    	Map<Node, Set<String>> firstLayerEnd = new HashMap<Node, Set<String>>();
+    private Map<Node, IntSet> severGraph(GraphInitializer init, GraphIndividual graph, GraphIndividual graphBeginning, GraphIndividual graphEnd, Set<Node> disconnectedInput, GraphSpecies species) {
+    	if (graph.indexed != null)
+    	    return severGraph(init, graph.indexed, graphBeginning, graphEnd);
+
+    	Map<Node, IntSet> firstLayerEnd = new HashMap<Node, IntSet>();
     	
     	// Copy graph to graphEnd
     	graph.copyTo(graphEnd);
@@ -121,74 +125,110 @@ public class GraphCrossoverPipeline extends BreedingPipeline {
         // Find first half of the graph
     	int numNodes = graphEnd.nodeMap.size() / 2;
 
-        Queue<Node> queue = new LinkedList<Node>();
-        queue.offer( graphEnd.nodeMap.get("start") );
-
-        for (int i = 0; i < numNodes; i++) {
-             Node current = queue.poll();
-
-             if(current == null || current.getName().equals( "end" )){
-                 break;
-             }
-             else {
-	             // Add current node and associated edges to graphBeginning
-	             graphBeginning.nodeMap.put(current.getName(),current);
-	             graphBeginning.considerableNodeMap.put(current.getName(), current);
-	             graphBeginning.edgeList.addAll(current.getOutgoingEdgeList());
-	             graphBeginning.considerableEdgeList.addAll(current.getOutgoingEdgeList());
-
-	             // Remove current node and associated edges from graphEnd
-	             graphEnd.nodeMap.remove(current.getName());
-	             graphEnd.considerableNodeMap.remove(current.getName());
-	             graphEnd.edgeList.removeAll(current.getOutgoingEdgeList());
-	             graphEnd.considerableEdgeList.removeAll(current.getOutgoingEdgeList());
-
-	             // Add next nodes to the queue
-	             for(Edge e : current.getOutgoingEdgeList()){
-
-	            	// Check that node is entirely fulfilled by nodes already selected
-	            	 boolean isInternal = true;
-	            	 for (Edge incomingList : e.getToNode().getIncomingEdgeList()) {
-	            		 if (!graphBeginning.nodeMap.containsKey(incomingList.getFromNode().getName())) {
-	            			isInternal = false;
-	            			break;
-	            		 }
-	            	 }
-	            	 if (isInternal)
-	            		 queue.offer( e.getToNode() );
-	             }
-             }
-        }
+        GraphTraversal.Visit firstHalf = GraphTraversal.topologicalOrder(graphEnd.nodeMap.get("start"), numNodes);
 
-        Iterator<Edge> it = graphBeginning.edgeList.iterator();
+        for (Node current : firstHalf) {
+             // Add current node and associated edges to graphBeginning
+             graphBeginning.nodeMap.put(current.getName(),current);
+             graphBeginning.considerableNodeMap.put(current.getName(), current);
+             graphBeginning.edgeList.addAll(current.getOutgoingEdgeList());
+             graphBeginning.considerableEdgeList.addAll(current.getOutgoingEdgeList());
+
+             // Remove current node and associated edges from graphEnd
+             graphEnd.nodeMap.remove(current.getName());
+             graphEnd.considerableNodeMap.remove(current.getName());
+             graphEnd.edgeList.removeAll(current.getOutgoingEdgeList());
+             graphEnd.considerableEdgeList.removeAll(current.getOutgoingEdgeList());
+        }
 
         // Sever edges connecting the first half to the second
-        while (it.hasNext()) {
-        	Edge current = it.next();
-        	// If edge leads to a node not in graph beginning, delete it from graph
-        	if (!graphBeginning.nodeMap.containsKey(current.getToNode().getName())){
-        		it.remove();
-        		graphBeginning.considerableEdgeList.remove(current);
-
-        		// Remove it from the origin node
-        		current.getFromNode().getOutgoingEdgeList().remove(current);
-
-        		// Also remove this edge from the node in the second graph
-        		Node toNode = current.getToNode();
-        		toNode.getIncomingEdgeList().remove( current );
-        		
-        		Set<String> inputs = firstLayerEnd.get( toNode );
-        		if (inputs == null) {
-        		    inputs = new HashSet<String>();
-        		    firstLayerEnd.put( toNode, inputs );
-        		}
-        		inputs.addAll( current.getIntersect() );
+        List<Edge> severed = new ArrayList<Edge>();
+        GraphTraversal.frontier(firstHalf, null, severed);
+        for (Edge current : severed) {
+        	// Remove it from the origin node
+        	current.getFromNode().getOutgoingEdgeList().remove(current);
+
+        	// Also remove this edge from the node in the second graph
+        	Node toNode = current.getToNode();
+        	toNode.getIncomingEdgeList().remove( current );
+
+        	IntSet inputs = firstLayerEnd.get( toNode );
+        	if (inputs == null) {
+        	    inputs = new IntSet();
+        	    firstLayerEnd.put( toNode, inputs );
         	}
+        	inputs.addAll( current.getIntersect() );
+        }
+        Set<Edge> severedSet = new HashSet<Edge>(severed);
+        graphBeginning.edgeList.removeAll(severedSet);
+        graphBeginning.considerableEdgeList.removeAll(severedSet);
+        return firstLayerEnd;
+    }
+
+    /**
+     * Severs the compact form of a graph into the object forms of its two
+     * halves, as severGraph does for the object form, reading the parent in
+     * place. The halves get their own copies of the intersects, which
+     * connectGraphHalves may extend.
+     */
+    private Map<Node, IntSet> severGraph(GraphInitializer init, IndexedGraph g, GraphIndividual graphBeginning, GraphIndividual graphEnd) {
+        Map<Node, IntSet> firstLayerEnd = new HashMap<Node, IntSet>();
+
+        // Find first half of the graph
+        int numNodes = g.getNumNodes() / 2;
+        GraphTraversal.Slots firstHalf = GraphTraversal.topologicalOrder(g, g.findNode(IndexedGraph.START), numNodes);
+
+        // Create the nodes of each half
+        Node[] nodes = new Node[g.getNodeSlots()];
+        for (int slot = 0; slot < g.getNodeSlots(); slot++) {
+            if (!g.isNode(slot))
+                continue;
+            Node n = g.getNode(slot, init).clone();
+            nodes[slot] = n;
+            GraphIndividual half = firstHalf.contains(slot) ? graphBeginning : graphEnd;
+            half.nodeMap.put(n.getName(), n);
+            half.considerableNodeMap.put(n.getName(), n);
+        }
+
+        // Create the edges within each half, in the order of the adjacency lists
+        Edge[] edges = new Edge[g.getEdgeSlots()];
+        for (int e = g.firstEdge(); e != -1; e = g.nextEdge(e)) {
+            int from = g.getFrom(e), to = g.getTo(e);
+            boolean fromFirst = firstHalf.contains(from);
+            if (fromFirst && !firstHalf.contains(to)) {
+                // Sever edges connecting the first half to the second
+                IntSet inputs = firstLayerEnd.get(nodes[to]);
+                if (inputs == null) {
+                    inputs = new IntSet();
+                    firstLayerEnd.put(nodes[to], inputs);
+                }
+                inputs.addAll(g.getIntersect(e));
+                continue;
+            }
+            Edge edge = new Edge(new IntSet(g.getIntersect(e)));
+            edge.setFromNode(nodes[from]);
+            edge.setToNode(nodes[to]);
+            edges[e] = edge;
+            GraphIndividual half = fromFirst ? graphBeginning : graphEnd;
+            half.edgeList.add(edge);
+            half.considerableEdgeList.add(edge);
+        }
+        for (int slot = 0; slot < g.getNodeSlots(); slot++) {
+            if (!g.isNode(slot))
+                continue;
+            for (int e = g.firstOut(slot); e != -1; e = g.nextOut(e)) {
+                if (edges[e] != null)
+                    nodes[slot].getOutgoingEdgeList().add(edges[e]);
+            }
+            for (int e = g.firstIn(slot); e != -1; e = g.nextIn(e)) {
+                if (edges[e] != null)
+                    nodes[slot].getIncomingEdgeList().add(edges[e]);
+            }
         }
         return firstLayerEnd;
     }
 
-    private GraphIndividual connectGraphHalves(EvolutionState state, GraphInitializer init, GraphSpecies species, GraphIndividual firstHalf, GraphIndividual secondHalf, Map<Node,Set<String>> secondHalfLayer){
+    private GraphIndividual connectGraphHalves(EvolutionState state, GraphInitializer init, GraphSpecies species, GraphIndividual firstHalf, GraphIndividual secondHalf, Map<Node,IntSet> secondHalfLayer, int thread){
 
     	// Add both halves to the final graph
         GraphIndividual finalGraph = new GraphIndividual();
@@ -225,20 +265,22 @@ public class GraphCrossoverPipeline extends BreedingPipeline {
 
     	// Attempt to satisfy each node from the second half with nodes from the first half
     	Map<String,Edge> connections = new HashMap<String,Edge>();
-    	Map<Node,Set<String>> inputsNotSatisfied = new HashMap<Node, Set<String>>();
+    	Map<Node,IntSet> inputsNotSatisfied = new HashMap<Node, IntSet>();
 
     	Set<Node> firstHalfNodes = new HashSet<Node>(firstHalf.nodeMap.values());
-    	for (Entry<Node,Set<String>> entry : secondHalfLayer.entrySet()) {
+    	for (Entry<Node,IntSet> entry : secondHalfLayer.entrySet()) {
     		connections.clear();
-    		for (String input : entry.getValue()) {
-    			boolean satisfied = species.checkNewGraphNode(init, finalGraph, entry.getKey(), input, connections, firstHalfNodes);
+    		IntSet inputs = entry.getValue();
+    		for (int i = 0; i < inputs.size(); i++) {
+    			int input = inputs.get(i);
+    			boolean satisfied = species.checkNewGraphNode(init, finalGraph, entry.getKey(), input, connections, firstHalfNodes, thread);
     			if (!satisfied) {
-    				Set<String> inputs = inputsNotSatisfied.get(entry.getKey());
-    				if (inputs == null) {
-    					inputs = new HashSet<String>();
-    					inputsNotSatisfied.put(entry.getKey(), inputs);
+    				IntSet notSatisfied = inputsNotSatisfied.get(entry.getKey());
+    				if (notSatisfied == null) {
+    					notSatisfied = new IntSet();
+    					inputsNotSatisfied.put(entry.getKey(), notSatisfied);
     				}
-    				inputs.add(input);
+    				notSatisfied.add(input);
     			}
     		}
     		
@@ -265,12 +307,12 @@ public class GraphCrossoverPipeline extends BreedingPipeline {
 
     	// If not completely satisfied, create a subproblem that we solve in order to create the remaining connections
     	 if (!inputsNotSatisfied.isEmpty()) {
-    		 addSubgraph(state, init, species, finalGraph, firstHalfNodes, inputsNotSatisfied);
+    		 addSubgraph(state, init, species, finalGraph, firstHalfNodes, inputsNotSatisfied, thread);
     	}
     	return finalGraph;
     }
 
-    private void addSubgraph(EvolutionState state, GraphInitializer init, GraphSpecies species, GraphIndividual graph, Set<Node> firstHalfNodes, Map<Node, Set<String>> inputsNotSatisfied) {
+    private void addSubgraph(EvolutionState state, GraphInitializer init, GraphSpecies species, GraphIndividual graph, Set<Node> firstHalfNodes, Map<Node, IntSet> inputsNotSatisfied, int thread) {
     	double[] mockQos = new double[4];
         mockQos[GraphInitializer.TIME] = 0;
         mockQos[GraphInitializer.COST] = 0;
@@ -278,26 +320,25 @@ public class GraphCrossoverPipeline extends BreedingPipeline {
         mockQos[GraphInitializer.RELIABILITY] = 1;
 
         // The task input is the output of all nodes in the first half
-        Set<String> taskInput = new HashSet<String>();
+        IntSet taskInput = new IntSet();
         for (Node n : firstHalfNodes) {
        	 taskInput.addAll(n.getOutputs());
         }
 
         // The task output is made up of the inputs no satisfied yet
-        Set<String> taskOutput = new HashSet<String>();
-        for (Set<String> set: inputsNotSatisfied.values()) {
+        IntSet taskOutput = new IntSet();
+        for (IntSet set: inputsNotSatisfied.values()) {
        	 taskOutput.addAll(set);
         }
 
-       Node localStartNode = new Node("start", mockQos, new HashSet<String>(), taskInput);
-       Node localEndNode = new Node("end", mockQos, taskOutput ,new HashSet<String>());
+       Node localStartNode = new Node("start", mockQos, new IntSet(), taskInput);
+       Node localEndNode = new Node("end", mockQos, taskOutput ,new IntSet());
 
    		// Generate the new subgraph
-       Set<Node> nodesToConsider = new HashSet<Node>(init.relevant);
-       nodesToConsider.removeAll(graph.nodeMap.values());
-       GraphIndividual subgraph = species.createNewGraph( null, state, localStartNode, localEndNode, nodesToConsider );
+       ServicePool nodesToConsider = init.prunedPool.without(graph.nodeMap.values());
+       GraphIndividual subgraph = species.createSubgraph( state, localStartNode, localEndNode, nodesToConsider, thread );
 
        // Fit subgraph into main graph
-       species.fitMutatedSubgraph(init, graph, subgraph, inputsNotSatisfied, firstHalfNodes);
+       species.fitMutatedSubgraph(init, graph, subgraph, inputsNotSatisfied, firstHalfNodes, thread);
     }
 }
@@ -1,6 +1,9 @@
 package ec.graph;
-import java.util.HashMap;
-import java.util.Map;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import ec.EvolutionState;
 import ec.Individual;
@@ -11,6 +14,18 @@ import ec.simple.SimpleProblemForm;
 
 public class GraphEvol extends Problem implements SimpleProblemForm {
 	private static final long serialVersionUID = 1L;
+	private QosEvaluator evaluator = new QosEvaluator();
+	// QoS of the individuals evaluated by this thread in the current generation
+	private QosSummary accumulator = new QosSummary();
+
+	@Override
+	public Object clone() {
+		// Each evaluation thread gets its own scratch arrays and accumulator
+		GraphEvol clone = (GraphEvol) super.clone();
+		clone.evaluator = new QosEvaluator();
+		clone.accumulator = new QosSummary();
+		return clone;
+	}
 
 	@Override
 	public void evaluate(final EvolutionState state, final Individual ind, final int subpopulation, final int threadnum) {
@@ -20,9 +35,11 @@ public class GraphEvol extends Problem implements SimpleProblemForm {
 	    }
 	    else {
 	        calculateQoS(init, state, ind, subpopulation, threadnum);
-	        if (!GraphInitializer.dynamicNormalisation)
+	        // Otherwise the fitness depends on the rest of the population
+	        if (!init.dynamicNormalisation && !init.multiObjective)
 	        	calculateFitness((GraphIndividual)ind, init, state);
 	    }
+	    accumulator.add((GraphIndividual) ind);
 	}
 
     public void calculateQoS(final GraphInitializer init, final EvolutionState state, final Individual ind, final int subpopulation, final int threadnum) {
@@ -31,26 +48,44 @@ public class GraphEvol extends Problem implements SimpleProblemForm {
             state.output.fatal("Whoa!  It's not a GraphIndividual!!!",null);
         GraphIndividual ind2 = (GraphIndividual)ind;
 
-        double a = 1.0;
-        double r = 1.0;
-        double t = 0.0;
-        double c = 0.0;
+        evaluateGraph(init, ind2);
+	}
 
-        for (Node n : ind2.nodeMap.values()) {
-        	double[] qos = n.getQos();
-        	a *= qos[GraphInitializer.AVAILABILITY];
-        	r *= qos[GraphInitializer.RELIABILITY];
-        	c += qos[GraphInitializer.COST];
+    /**
+     * Aggregates the QoS of the graph and finds its longest path in one
+     * topological pass, unless the results for the same graph structure are
+     * already in the fitness cache. If the operator recorded its edits, the
+     * graph is evaluated from its parent's results first, which costs in
+     * proportion to the edits and leaves results for the graph's own
+     * offspring to be evaluated from, which a cache hit would not.
+     *
+     * @param init
+     * @param ind
+     */
+    private void evaluateGraph(GraphInitializer init, GraphIndividual ind) {
+        IndexedGraph g = ind.indexed != null ? ind.indexed : IndexedGraph.compact(ind, init.serviceIndex);
+        if (ind.change == null || !evaluator.evaluate(g, ind.change, init)) {
+            if (init.fitnessCache != null) {
+                FitnessCache.Entry cached = init.fitnessCache.get(g);
+                if (cached != null) {
+                    cached.copyTo(ind);
+                    ind.change = null;
+                    return;
+                }
+            }
+            evaluator.evaluate(g, init);
         }
-
-        // Calculate longest time
-        t = findLongestPath(ind2);
-
-        ind2.availability = a;
-        ind2.reliability = r;
-        ind2.time = t;
-        ind2.cost = c;
-	}
+        ind.change = null;
+        ind.availability = evaluator.availability;
+        ind.reliability = evaluator.reliability;
+        ind.time = evaluator.time;
+        ind.cost = evaluator.cost;
+        ind.longestPathLength = evaluator.pathLength - 1;
+        ind.numAtomicServices = g.getNumConsideredNodes() - 2;
+
+        if (init.fitnessCache != null)
+            init.fitnessCache.put(g, new FitnessCache.Entry(ind, g));
+    }
     
     public void calculateFitness(GraphIndividual ind, GraphInitializer init, EvolutionState state) {
     	double a = normaliseAvailability(ind.availability, init);
@@ -76,10 +111,9 @@ public class GraphEvol extends Problem implements SimpleProblemForm {
             state.output.fatal("Whoa!  It's not a GraphIndividual!!!",null);
         GraphIndividual ind2 = (GraphIndividual)ind;
 
-        // Calculate longest time
-        int runPath = findLongestPath2(ind2) - 1;
-        ind2.longestPathLength = runPath;
-        ind2.numAtomicServices = (ind2.considerableNodeMap.size() - 2);
+        // Calculate longest path
+        evaluateGraph(init, ind2);
+        int runPath = ind2.longestPathLength;
         boolean isIdeal = runPath == init.idealPathLength && ind2.numAtomicServices == init.idealNumAtomic;
 
         double fitness = 0.5 * (1.0 / runPath) + 0.5 * (1.0/ ind2.numAtomicServices);
@@ -124,167 +158,115 @@ public class GraphEvol extends Problem implements SimpleProblemForm {
 			return (init.maxCost - cost)/(init.maxCost - init.minCost);
 	}
 
-	/**
-	 * Uses the Bellman-Ford algorithm with negative weights to find the longest
-	 * path in an acyclic directed graph.
-	 *
-	 * @param g
-	 * @return list of edges composing longest path
-	 */
-	private double findLongestPath(GraphIndividual g) {
-		Map<String, Double> distance = new HashMap<String, Double>();
-		Map<String, Node> predecessor = new HashMap<String, Node>();
-
-		// Step 1: initialize graph
-		for (Node node : g.considerableNodeMap.values()) {
-			if (node.getName().equals("start"))
-				distance.put(node.getName(), 0.0);
-			else
-				distance.put(node.getName(), Double.POSITIVE_INFINITY);
-		}
+	@Override
+	public void finishEvaluating(EvolutionState state, int threadnum) {
+		GraphInitializer init = (GraphInitializer) state.initializer;
 
-		// Step 2: relax edges repeatedly
-		for (int i = 1; i < g.considerableNodeMap.size(); i++) {
-			for (Edge e : g.considerableEdgeList) {
-				if ((distance.get(e.getFromNode().getName()) -
-				        e.getToNode().getQos()[GraphInitializer.TIME])
-				        < distance.get(e.getToNode().getName())) {
-					distance.put(e.getToNode().getName(), (distance.get(e.getFromNode().getName()) - e.getToNode().getQos()[GraphInitializer.TIME]));
-					predecessor.put(e.getToNode().getName(), e.getFromNode());
-				}
-			}
-		}
+		// Get population
+		Subpopulation pop = state.population.subpops[0];
+
+		// Only the thread that completes the generation goes on
+		QosSummary qos = init.mergeEvaluation(accumulator, pop.individuals.length);
+		accumulator = new QosSummary();
+		if (qos == null)
+			return;
 
-		// Now retrieve total cost
-		Node pre = predecessor.get("end");
-		double totalTime = 0.0;
+		if (init.dynamicNormalisation) {
+			// Update the normalisation bounds with the newly found values
+			init.minAvailability = qos.minAvailability;
+			init.maxAvailability = qos.maxAvailability;
+			init.minReliability = qos.minReliability;
+			init.maxReliability = qos.maxReliability;
+			init.minCost = qos.minCost;
+			init.maxCost = qos.maxCost;
+			init.minTime = qos.minTime;
+			init.maxTime = qos.maxTime;
 
-		while (pre != null) {
-			totalTime += pre.getQos()[GraphInitializer.TIME];
-			pre = predecessor.get(pre.getName());
+			// Finish calculating the fitness of each candidate
+			if (!init.multiObjective)
+				finishFitness(pop.individuals, init, state);
 		}
 
-		return totalTime;
+		if (init.multiObjective)
+			calculateParetoFitness(pop.individuals, init, state);
 	}
 
 	/**
-	 * Uses the Bellman-Ford algorithm with negative weights to find the longest
-	 * path in an acyclic directed graph.
+	 * Calculates the fitness of every individual with the normalisation bounds
+	 * of the generation, splitting the population between the normalisation
+	 * threads if there are several.
 	 *
-	 * @param g
-	 * @return list of edges composing longest path
+	 * @param individuals
+	 * @param init
+	 * @param state
 	 */
-	private int findLongestPath2(GraphIndividual g) {
-		Map<String, Integer> distance = new HashMap<String, Integer>();
-		Map<String, Node> predecessor = new HashMap<String, Node>();
-
-		// Step 1: initialize graph
-		for (Node node : g.considerableNodeMap.values()) {
-			if (node.getName().equals("start"))
-				distance.put(node.getName(), 0);
-			else
-				distance.put(node.getName(), Integer.MAX_VALUE);
+	private void finishFitness(final Individual[] individuals, final GraphInitializer init, final EvolutionState state) {
+		if (init.normalisationPool == null) {
+			for (Individual ind : individuals) {
+				calculateFitness((GraphIndividual) ind, init, state);
+			}
+			return;
 		}
 
-		// Step 2: relax edges repeatedly
-		for (int i = 1; i < g.considerableNodeMap.size(); i++) {
-			for (Edge e : g.considerableEdgeList) {
-				if ((distance.get(e.getFromNode().getName()) - 1)
-				        < distance.get(e.getToNode().getName())) {
-					distance.put(e.getToNode().getName(), (distance.get(e.getFromNode().getName()) - 1));
-					predecessor.put(e.getToNode().getName(), e.getFromNode());
+		int numChunks = init.normalisationThreads;
+		List<Future<?>> chunks = new ArrayList<Future<?>>(numChunks);
+		for (int t = 0; t < numChunks; t++) {
+			final int from = (int) ((long) individuals.length * t / numChunks);
+			final int to = (int) ((long) individuals.length * (t + 1) / numChunks);
+			chunks.add(init.normalisationPool.submit(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = from; i < to; i++)
+						calculateFitness((GraphIndividual) individuals[i], init, state);
 				}
-			}
+			}));
 		}
-
-		// Now retrieve total cost
-		Node pre = predecessor.get("end");
-		int totalTime = 0;
-
-		while (pre != null) {
-			totalTime += 1;
-			pre = predecessor.get(pre.getName());
+		try {
+			for (Future<?> chunk : chunks)
+				chunk.get();
 		}
-
-		return totalTime;
-	}
-	
-	@Override
-	public void finishEvaluating(EvolutionState state, int threadnum) {
-		GraphInitializer init = (GraphInitializer) state.initializer;
-
-		// Get population
-		Subpopulation pop = state.population.subpops[0];
-
-		double minAvailability = 2.0;
-		double maxAvailability = -1.0;
-		double minReliability = 2.0;
-		double maxReliability = -1.0;
-		double minTime = Double.MAX_VALUE;
-		double maxTime = -1.0;
-		double minCost = Double.MAX_VALUE;
-		double maxCost = -1.0;
-
-		// Keep track of means
-		double meanAvailability = 0.0;
-		double meanReliability = 0.0;
-		double meanTime = 0.0;
-		double meanCost = 0.0;
-
-		// Find the normalisation bounds
-		for (Individual ind : pop.individuals) {
-			GraphIndividual wscInd = (GraphIndividual) ind;
-			double a = wscInd.availability;
-			double r = wscInd.reliability;
-			double t = wscInd.time;
-			double c = wscInd.cost;
-
-			meanAvailability += a;
-			meanReliability += r;
-			meanTime += t;
-			meanCost += c;
-
-			if (GraphInitializer.dynamicNormalisation) {
-				if (a < minAvailability)
-					minAvailability = a;
-				if (a > maxAvailability)
-					maxAvailability = a;
-				if (r < minReliability)
-					minReliability = r;
-				if (r > maxReliability)
-					maxReliability = r;
-				if (t < minTime)
-					minTime = t;
-				if (t > maxTime)
-					maxTime = t;
-				if (c < minCost)
-					minCost = c;
-				if (c > maxCost)
-					maxCost = c;
-			}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Fitness normalisation was interrupted.", e);
 		}
+		catch (ExecutionException e) {
+			throw new RuntimeException("Fitness normalisation failed.", e.getCause());
+		}
+	}
 
-		GraphInitializer.meanAvailPerGen[GraphInitializer.availIdx++] = meanAvailability / pop.individuals.length;
-		GraphInitializer.meanReliaPerGen[GraphInitializer.reliaIdx++] = meanReliability / pop.individuals.length;
-		GraphInitializer.meanTimePerGen[GraphInitializer.timeIdx++] = meanTime / pop.individuals.length;
-		GraphInitializer.meanCostPerGen[GraphInitializer.costIdx++] = meanCost / pop.individuals.length;
-
-		if (GraphInitializer.dynamicNormalisation) {
-			// Update the normalisation bounds with the newly found values
-			init.minAvailability = minAvailability;
-			init.maxAvailability = maxAvailability;
-			init.minReliability = minReliability;
-			init.maxReliability = maxReliability;
-			init.minCost = minCost;
-			init.maxCost = maxCost;
-			init.minTime = minTime;
-			init.maxTime = maxTime;
-
-			// Finish calculating the fitness of each candidate
-			for (Individual ind : pop.individuals) {
-				calculateFitness((GraphIndividual) ind, init, state);
+	/**
+	 * Ranks the population by non-domination over the raw QoS attributes, and
+	 * adds its first front to the Pareto archive. The fitness encodes the rank
+	 * and the crowding distance as NSGA-II compares them: any candidate is
+	 * fitter than all candidates in later fronts, and within a front the less
+	 * crowded candidates are fitter. This lets the single-objective selection
+	 * and elitism drive the search towards a spread-out front.
+	 *
+	 * @param individuals
+	 * @param init
+	 * @param state
+	 */
+	private void calculateParetoFitness(Individual[] individuals, GraphInitializer init, EvolutionState state) {
+		double[][] objectives = new double[individuals.length][];
+		for (int i = 0; i < individuals.length; i++)
+			objectives[i] = ParetoArchive.objectives((GraphIndividual) individuals[i]);
+
+		List<int[]> fronts = NonDominatedSort.sort(objectives);
+		for (int rank = 0; rank < fronts.size(); rank++) {
+			int[] front = fronts.get(rank);
+			double[] distances = NonDominatedSort.crowdingDistances(objectives, front);
+
+			// Front number rank is mapped to the upper half of (1/(rank+2), 1/(rank+1)]
+			double lower = 1.0 / (rank + 2);
+			double width = 1.0 / (rank + 1) - lower;
+			for (int i = 0; i < front.length; i++) {
+				double spread = Double.isInfinite(distances[i]) ? 1.0 : distances[i] / (1.0 + distances[i]);
+				GraphIndividual ind = (GraphIndividual) individuals[front[i]];
+				((SimpleFitness)ind.fitness).setFitness(state, lower + width * (0.5 + 0.5 * spread), false);
+				ind.evaluated = true;
+				if (rank == 0)
+					init.paretoArchive.offer(ind, objectives[front[i]]);
 			}
 		}
-
 	}
 }
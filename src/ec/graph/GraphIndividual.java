@@ -1,10 +1,11 @@
 package ec.graph;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import ec.Individual;
 import ec.simple.SimpleFitness;
@@ -16,13 +17,20 @@ public class GraphIndividual extends Individual {
 	public Map<String, Node> considerableNodeMap= new HashMap<String, Node>();
 	public List<Edge> edgeList = new ArrayList<Edge>();
 	public List<Edge> considerableEdgeList = new ArrayList<Edge>();
-	public Set<Node> unused;
+	public ServicePool unused;
 	public int longestPathLength;
 	public int numAtomicServices;
 	public double availability;
 	public double reliability;
 	public double time;
 	public double cost;
+	// Compact form of the graph, used instead of the maps and lists above when set
+	public IndexedGraph indexed;
+	// Edits made since this individual was last evaluated, if they are being recorded
+	public GraphChange change;
+	// Structural hash of the object form, once computed
+	private long hash;
+	private boolean hashed;
 
 	public GraphIndividual(){
 		super();
@@ -30,7 +38,7 @@ public class GraphIndividual extends Individual {
 		super.species = new GraphSpecies();
 	}
 
-	public GraphIndividual(Set<Node> unused) {
+	public GraphIndividual(ServicePool unused) {
 		super();
 		super.fitness = new SimpleFitness();
 		super.species = new GraphSpecies();
@@ -42,17 +50,110 @@ public class GraphIndividual extends Individual {
 		return new Parameter("graphindividual");
 	}
 
+	/**
+	 * Operators modify the object form of their offspring in place, so a clone
+	 * gets its own copy of it. The compact form is never modified, and is
+	 * shared. The set of unused services is shared too, and must be copied
+	 * before it is modified.
+	 */
+	@Override
+	public Object clone() {
+		GraphIndividual clone = (GraphIndividual) super.clone();
+		if (indexed == null) {
+			clone.nodeMap = new HashMap<String, Node>();
+			clone.considerableNodeMap = new HashMap<String, Node>();
+			clone.edgeList = new ArrayList<Edge>();
+			clone.considerableEdgeList = new ArrayList<Edge>();
+			copyGraphTo(clone);
+		}
+		return clone;
+	}
+
+	/**
+	 * Copies this graph structure to another GraphIndividual object, keeping
+	 * which nodes and edges are considered and the order of the adjacency lists.
+	 *
+	 * @param other
+	 */
+	private void copyGraphTo(GraphIndividual other) {
+		Map<Node, Node> nodes = new IdentityHashMap<Node, Node>();
+		for (Node n : nodeMap.values()) {
+			Node newN = n.clone();
+			newN.setConsidered(n.isConsidered());
+			nodes.put(n, newN);
+			other.nodeMap.put(newN.getName(), newN);
+		}
+		for (Node n : considerableNodeMap.values()) {
+			Node newN = other.nodeMap.get(n.getName());
+			if (newN != null)
+				other.considerableNodeMap.put(newN.getName(), newN);
+		}
+
+		Map<Edge, Edge> edges = new IdentityHashMap<Edge, Edge>();
+		for (Edge e : edgeList) {
+			Edge newE = new Edge(new IntSet(e.getIntersect()));
+			newE.setConsidered(e.isConsidered());
+			newE.setFromNode(other.nodeMap.get(e.getFromNode().getName()));
+			newE.setToNode(other.nodeMap.get(e.getToNode().getName()));
+			edges.put(e, newE);
+			other.edgeList.add(newE);
+		}
+		for (Edge e : considerableEdgeList) {
+			Edge newE = edges.get(e);
+			if (newE != null)
+				other.considerableEdgeList.add(newE);
+		}
+
+		for (Map.Entry<Node, Node> entry : nodes.entrySet()) {
+			for (Edge e : entry.getKey().getOutgoingEdgeList()) {
+				Edge newE = edges.get(e);
+				if (newE != null)
+					entry.getValue().getOutgoingEdgeList().add(newE);
+			}
+			for (Edge e : entry.getKey().getIncomingEdgeList()) {
+				Edge newE = edges.get(e);
+				if (newE != null)
+					entry.getValue().getIncomingEdgeList().add(newE);
+			}
+		}
+	}
+
 	@Override
 	public boolean equals(Object other) {
 		if (other instanceof GraphIndividual) {
-			return toString().equals(other.toString());
+			GraphIndividual o = (GraphIndividual) other;
+			return structuralHash() == o.structuralHash() && Arrays.equals(structure(), o.structure());
 		}
 		return false;
 	}
 
 	@Override
 	public int hashCode() {
-		return toString().hashCode();
+		long hash = structuralHash();
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	/**
+	 * The hash of the object form is computed once, and forgotten when the
+	 * graph is expanded for an operator to modify it, and when the operator
+	 * compacts it again.
+	 *
+	 * @return the structural hash of this graph (see IndexedGraph.getHash)
+	 */
+	public long structuralHash() {
+		if (indexed != null)
+			return indexed.getHash();
+		if (!hashed) {
+			hash = IndexedGraph.hashOf(this);
+			hashed = true;
+		}
+		return hash;
+	}
+
+	private long[] structure() {
+		if (indexed != null)
+			return indexed.getStructure();
+		return IndexedGraph.compact(this, null).getStructure();
 	}
 
 	@Override
@@ -61,6 +162,8 @@ public class GraphIndividual extends Individual {
 	 * running the command "dot -Tpng filename.dot -o filename.png"
 	 */
 	public String toString() {
+		if (indexed != null)
+			return indexed.toString();
 		StringBuilder builder = new StringBuilder();
 		builder.append("digraph g {");
 		for(Edge e: edgeList) {
@@ -71,6 +174,58 @@ public class GraphIndividual extends Individual {
 		return builder.toString();
 	}
 
+	/**
+	 * Replaces the maps and lists of this graph with its compact form, if the
+	 * indexed graph representation is selected.
+	 *
+	 * @param init
+	 */
+	public void compact(GraphInitializer init) {
+		hashed = false;
+		if (!init.indexedGraphs || indexed != null)
+			return;
+		indexed = IndexedGraph.compact(this, init.serviceIndex);
+		nodeMap = new HashMap<String, Node>();
+		considerableNodeMap = new HashMap<String, Node>();
+		edgeList = new ArrayList<Edge>();
+		considerableEdgeList = new ArrayList<Edge>();
+	}
+
+	/**
+	 * Rebuilds the maps and lists of this graph from its compact form, so that
+	 * the graph can be modified. Clones share the compact form but not the
+	 * rebuilt structures.
+	 *
+	 * @param init
+	 */
+	public void expand(GraphInitializer init) {
+		change = null;
+		hashed = false;
+		if (indexed == null)
+			return;
+		IndexedGraph graph = indexed;
+		indexed = null;
+		nodeMap = new HashMap<String, Node>();
+		considerableNodeMap = new HashMap<String, Node>();
+		edgeList = new ArrayList<Edge>();
+		considerableEdgeList = new ArrayList<Edge>();
+		graph.expandInto(this, init);
+	}
+
+	/**
+	 * Gives this individual its own copy of its compact form, for an operator
+	 * to edit in place instead of expanding it. The compact form it shared with
+	 * its clones is left untouched.
+	 *
+	 * @return the copy to edit
+	 */
+	public IndexedGraph edit() {
+		change = null;
+		hashed = false;
+		indexed = indexed.copy();
+		return indexed;
+	}
+
 	/**
 	 * Copies this graph structure to another GraphIndividual object.
 	 *
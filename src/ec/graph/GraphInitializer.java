@@ -1,9 +1,21 @@
 package ec.graph;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -11,10 +23,22 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -35,12 +59,32 @@ public class GraphInitializer extends SimpleInitializer {
 
 	public Map<String, Node> serviceMap = new HashMap<String, Node>();
 	public Set<Node> relevant;
+	public Map<Node, Integer> serviceLayers;
+	// Relevant services that also lie on a path to the task outputs
+	public Set<Node> pruned;
+	// The pruned services as a bitset, from which graphs are built
+	public ServicePool prunedPool;
+	// Services that can be appended to a graph, one index per breeding thread
+	public AppendIndex[] appendIndex;
+	// Candidates of the graph being built, one queue per breeding thread
+	public CandidateQueue[] candidateQueue;
+	// Names of the equivalent services removed in favour of each kept service
+	public Map<String, List<String>> equivalentServices = new HashMap<String, List<String>>();
 	public Map<String, TaxonomyNode> taxonomyMap = new HashMap<String, TaxonomyNode>();
-	public Set<String> taskInput;
-	public Set<String> taskOutput;
+	public ConceptDictionary concepts = new ConceptDictionary();
+	public TaxonomyNode[] taxonomyNodes;
+	public SubsumptionIndex subsumption;
+	public ServiceIndex serviceIndex;
+	public IntSet taskInput;
+	public IntSet taskOutput;
 	public Node startNode;
 	public Node endNode;
-	public GraphRandom random;
+	// One generator per breeding thread, backed by state.random[thread]
+	public GraphRandom[] random;
+	// Working space for graph construction, one per breeding thread
+	public ConstructionScratch[] scratch;
+	// Union of the parents of a merge, one per breeding thread
+	public GraphUnion[] graphUnion;
 
 	public double minAvailability = 0.0;
 	public double maxAvailability = -1.0;
@@ -54,29 +98,36 @@ public class GraphInitializer extends SimpleInitializer {
 	public double w2;
 	public double w3;
 	public double w4;
-	public static boolean dynamicNormalisation;
-	
-	public static double[] meanAvailPerGen;
-	public static double[] meanReliaPerGen;
-	public static double[] meanTimePerGen;
-	public static double[] meanCostPerGen;
-	public static int availIdx = 0;
-	public static int reliaIdx = 0;
-	public static int timeIdx = 0;
-	public static int costIdx = 0;
-	
+	public boolean dynamicNormalisation;
+	// Threads that finish the fitness of each generation under dynamic normalisation
+	public ExecutorService normalisationPool;
+	public int normalisationThreads;
+	public boolean multiObjective;
+	public ParetoArchive paretoArchive;
+	public WeightSweep weightSweep;
+
+	// QoS of the last evaluated generation, merged from the evaluation threads
+	public QosSummary generationQos;
+	private QosSummary pendingQos = new QosSummary();
+
 	public boolean overlapEnabled;
 	public boolean runningOwls;
 	public boolean findConcepts;
+	public boolean streamingIngest;
+	public boolean reduceRepository;
+	public boolean indexedGraphs;
+	public FitnessCache fitnessCache;
+	public SubgraphCache subgraphCache;
+	public InvariantChecker invariantChecker;
 	public double overlapPercentage;
 	public int idealPathLength;
 	public int idealNumAtomic;
 	public int numNodesMutation;
-	public static File histogramLogFile;
+	public File histogramLogFile;
 
 	// Statistics tracking
-    public static Map<String, Integer> nodeCount = new HashMap<String, Integer>();
-    public static Map<String, Integer> edgeCount = new HashMap<String, Integer>();
+    public ConcurrentMap<String, Integer> nodeCount = new ConcurrentHashMap<String, Integer>();
+    public ConcurrentMap<String, Integer> edgeCount = new ConcurrentHashMap<String, Integer>();
 
 	@Override
 	public void setup(EvolutionState state, Parameter base) {
@@ -97,52 +148,195 @@ public class GraphInitializer extends SimpleInitializer {
 		Parameter numNodesMutationParam = new Parameter("num-nodes-mutation");
 		Parameter histogramLogNameParam = new Parameter("stat.histogram");
 		Parameter dynamicNormalisationParam = new Parameter("dynamic-normalisation");
+		Parameter streamingIngestParam = new Parameter("streaming-ingest");
+		Parameter snapshotParam = new Parameter("composition-snapshot");
+		Parameter reduceRepositoryParam = new Parameter("reduce-repository");
+		Parameter graphRepresentationParam = new Parameter("graph-representation");
+		Parameter fitnessCacheSizeParam = new Parameter("fitness-cache-size");
+		Parameter subgraphCacheSizeParam = new Parameter("subgraph-cache-size");
+		Parameter subgraphCacheVariantsParam = new Parameter("subgraph-cache-variants");
+		Parameter subgraphCacheFreshParam = new Parameter("subgraph-cache-fresh");
+		Parameter invariantChecksParam = new Parameter("invariant-checks");
+		Parameter invariantCheckIntervalParam = new Parameter("invariant-check-interval");
+		Parameter multiObjectiveParam = new Parameter("multi-objective");
+		Parameter paretoArchiveSizeParam = new Parameter("pareto-archive-size");
+		Parameter weightSweepParam = new Parameter("weight-sweep");
 
 		w1 = state.parameters.getDouble(weight1Param, null);
 		w2 = state.parameters.getDouble(weight2Param, null);
 		w3 = state.parameters.getDouble(weight3Param, null);
 		w4 = state.parameters.getDouble(weight4Param, null);
 		dynamicNormalisation = state.parameters.getBoolean(dynamicNormalisationParam, null, false);
+		if (dynamicNormalisation && state.evalthreads > 1) {
+			normalisationThreads = state.evalthreads;
+			normalisationPool = Executors.newFixedThreadPool(normalisationThreads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					// Must not keep the JVM alive at the end of the run
+					Thread thread = new Thread(r, "normalisation");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
 	    overlapEnabled = state.parameters.getBoolean( overlapEnabledParam, null, false );
 	    runningOwls = state.parameters.getBoolean( runningOwlsParam, null, false );
 	    overlapPercentage = state.parameters.getDouble( overlapPercentageParam, null );
 		idealPathLength = state.parameters.getInt(idealPathLengthParam, null);
 		idealNumAtomic = state.parameters.getInt(idealNumAtomicParam, null);
 		findConcepts = state.parameters.getBoolean( findConceptsParam, null, false );
+		streamingIngest = state.parameters.getBoolean( streamingIngestParam, null, true );
+		reduceRepository = state.parameters.getBoolean( reduceRepositoryParam, null, false );
+		String graphRepresentation = state.parameters.getStringWithDefault( graphRepresentationParam, null, "object" );
+		if (graphRepresentation.equals("indexed"))
+			indexedGraphs = true;
+		else if (!graphRepresentation.equals("object"))
+			state.output.fatal("Unknown graph representation: " + graphRepresentation, graphRepresentationParam);
+		int fitnessCacheSize = state.parameters.getIntWithDefault( fitnessCacheSizeParam, null, 0 );
+		if (fitnessCacheSize > 0)
+			fitnessCache = new FitnessCache(fitnessCacheSize);
+		int subgraphCacheSize = state.parameters.getIntWithDefault( subgraphCacheSizeParam, null, 0 );
+		if (subgraphCacheSize > 0)
+			subgraphCache = new SubgraphCache(subgraphCacheSize, state.parameters.getIntWithDefault( subgraphCacheVariantsParam, null, 4 ),
+					state.parameters.getDoubleWithDefault( subgraphCacheFreshParam, null, 0.25 ));
+		String invariantChecks = state.parameters.getStringWithDefault( invariantChecksParam, null, "off" );
+		if (invariantChecks.equals("sampled"))
+			invariantChecker = new InvariantChecker(InvariantChecker.SAMPLED, state.parameters.getIntWithDefault( invariantCheckIntervalParam, null, 100 ));
+		else if (invariantChecks.equals("full"))
+			invariantChecker = new InvariantChecker(InvariantChecker.FULL, 1);
+		else if (!invariantChecks.equals("off"))
+			state.output.fatal("Unknown invariant checking level: " + invariantChecks, invariantChecksParam);
+		multiObjective = state.parameters.getBoolean( multiObjectiveParam, null, false );
+		if (multiObjective) {
+			if (runningOwls)
+				state.output.fatal("The multi-objective mode requires QoS-based fitness", multiObjectiveParam);
+			paretoArchive = new ParetoArchive(state.parameters.getIntWithDefault( paretoArchiveSizeParam, null, 100 ));
+		}
+		if (!runningOwls) {
+			weightSweep = new WeightSweep(state, weightSweepParam);
+			if (weightSweep.size() == 0 && weightSweep.dumpFile == null)
+				weightSweep = null;
+		}
 		numNodesMutation = state.parameters.getInt( numNodesMutationParam, null );
 		histogramLogFile = state.parameters.getFile( histogramLogNameParam, null );
-		
-		int numGens = state.parameters.getInt(new Parameter("generations"), null);
-		meanAvailPerGen = new double[numGens];
-		meanReliaPerGen = new double[numGens];
-		meanTimePerGen = new double[numGens];
-		meanCostPerGen = new double[numGens];
-
-		parseWSCServiceFile(state.parameters.getString(servicesParam, null));
-		parseWSCTaskFile(state.parameters.getString(taskParam, null));
-		parseWSCTaxonomyFile(state.parameters.getString(taxonomyParam, null));
-		if (findConcepts)
-		    findConceptsForInstances();
 
-		random = new GraphRandom(state.random[0]);
+		String servicesFile = state.parameters.getString(servicesParam, null);
+		String taskFile = state.parameters.getString(taskParam, null);
+		String taxonomyFile = state.parameters.getString(taxonomyParam, null);
+		File snapshotFile = state.parameters.getFile(snapshotParam, null);
+		byte[] fingerprint = null;
+		if (snapshotFile != null)
+			fingerprint = ProblemSnapshot.fingerprint(this, servicesFile, taskFile, taxonomyFile);
+
+		if (snapshotFile == null || !loadSnapshot(snapshotFile, fingerprint)) {
+			loadProblemFiles(servicesFile, taskFile, taxonomyFile);
+			renumberConcepts();
+			indexTaxonomyNodes();
+			if (findConcepts)
+			    findConceptsForInstances();
+			populateTaxonomyTree();
+			relevant = getRelevantServices(serviceMap, taskInput, taskOutput);
+			if (snapshotFile != null)
+				saveSnapshot(snapshotFile, fingerprint);
+		}
+		Set<Node> pool = relevant;
+		if (reduceRepository) {
+			pool = collapseEquivalentServices(relevant);
+			System.out.println(String.format("Reduced repository from %d to %d relevant services (%d kept services stand for removed equivalents)",
+					relevant.size(), pool.size(), equivalentServices.size()));
+		}
+		pruned = pruneServices(pool, taskOutput);
+		System.out.println(String.format("Pruned service pool from %d to %d services (%.1f%% removed)", pool.size(), pruned.size(),
+				pool.isEmpty() ? 0.0 : 100.0 * (pool.size() - pruned.size()) / pool.size()));
+		prunedPool = new ServicePool(serviceIndex, pruned);
+
+		random = new GraphRandom[state.random.length];
+		for (int i = 0; i < random.length; i++)
+			random[i] = new GraphRandom(state.random[i]);
+		scratch = new ConstructionScratch[state.random.length];
+		for (int i = 0; i < scratch.length; i++)
+			scratch[i] = new ConstructionScratch();
+		graphUnion = new GraphUnion[state.random.length];
+		for (int i = 0; i < graphUnion.length; i++)
+			graphUnion[i] = new GraphUnion(serviceIndex.getNumServices());
+		appendIndex = AppendIndex.create(this, state.random.length);
+		candidateQueue = new CandidateQueue[state.random.length];
+		for (int i = 0; i < candidateQueue.length; i++)
+			candidateQueue[i] = new CandidateQueue(this);
 
 		double[] mockQos = new double[4];
 		mockQos[TIME] = 0;
 		mockQos[COST] = 0;
 		mockQos[AVAILABILITY] = 1;
 		mockQos[RELIABILITY] = 1;
-		Set<String> startOutput = new HashSet<String>();
-		startOutput.addAll(taskInput);
-		startNode = new Node("start", mockQos, new HashSet<String>(), taskInput);
-		endNode = new Node("end", mockQos, taskOutput ,new HashSet<String>());
-
-		populateTaxonomyTree();
+		startNode = new Node("start", mockQos, new IntSet(), taskInput);
+		endNode = new Node("end", mockQos, taskOutput ,new IntSet());
 
-		relevant = getRelevantServices(serviceMap, taskInput, taskOutput);
 		if(!runningOwls && !dynamicNormalisation)
 		    calculateNormalisationBounds(relevant);
 	}
 
+	/**
+	 * Loads the problem from a snapshot file, provided it was compiled from the
+	 * current source files and settings.
+	 *
+	 * @param snapshotFile
+	 * @param fingerprint
+	 * @return true if the snapshot was loaded, false if the problem must be parsed
+	 */
+	private boolean loadSnapshot(File snapshotFile, byte[] fingerprint) {
+		long startTime = System.nanoTime();
+		try {
+			if (ProblemSnapshot.read(this, snapshotFile, fingerprint)) {
+				System.out.println(String.format("Loaded problem snapshot %s in %d ms", snapshotFile, (System.nanoTime() - startTime) / 1000000));
+				return true;
+			}
+			if (snapshotFile.exists())
+				System.out.println(String.format("Problem snapshot %s is stale, rebuilding it...", snapshotFile));
+		}
+		catch (IOException e) {
+			System.out.println(String.format("Problem snapshot %s could not be read, rebuilding it...", snapshotFile));
+		}
+		return false;
+	}
+
+	private void saveSnapshot(File snapshotFile, byte[] fingerprint) {
+		try {
+			ProblemSnapshot.write(this, snapshotFile, fingerprint);
+			System.out.println(String.format("Wrote problem snapshot %s", snapshotFile));
+		}
+		catch (IOException e) {
+			System.out.println(String.format("Problem snapshot %s could not be written...", snapshotFile));
+		}
+	}
+
+	/**
+	 * Gives the parsed concepts their final ids, in name order, and updates the
+	 * concept sets of the taxonomy, services and task to match.
+	 */
+	private void renumberConcepts() {
+		int[] mapping = concepts.sortByName();
+		for (TaxonomyNode t : taxonomyMap.values())
+			t.id = mapping[t.id];
+		for (Node s : serviceMap.values()) {
+			s.getInputs().remap(mapping);
+			s.getOutputs().remap(mapping);
+		}
+		taskInput.remap(mapping);
+		taskOutput.remap(mapping);
+	}
+
+	/**
+	 * Builds the array giving the taxonomy node of each concept id, and the
+	 * subsumption index over the taxonomy.
+	 */
+	void indexTaxonomyNodes() {
+		taxonomyNodes = new TaxonomyNode[concepts.size()];
+		for (TaxonomyNode t : taxonomyMap.values())
+			taxonomyNodes[t.id] = t;
+		subsumption = new SubsumptionIndex(taxonomyNodes);
+	}
+
 	/**
 	 * Checks whether set of inputs can be completely satisfied by the search
 	 * set, making sure to check descendants of input concepts for the subsumption.
@@ -151,108 +345,61 @@ public class GraphInitializer extends SimpleInitializer {
 	 * @param searchSet
 	 * @return true if search set subsumed by input set, false otherwise.
 	 */
-	public boolean isSubsumed(Set<String> inputs, Set<String> searchSet) {
-		boolean satisfied = true;
-		for (String input : inputs) {
-			Set<String> subsumed = taxonomyMap.get(input).getSubsumedConcepts();
-			if (!isIntersection( searchSet, subsumed )) {
-				satisfied = false;
-				break;
-			}
+	public boolean isSubsumed(IntSet inputs, IntSet searchSet) {
+		for (int i = 0; i < inputs.size(); i++) {
+			int input = inputs.get(i);
+			boolean found = false;
+			for (int j = 0; j < searchSet.size() && !found; j++)
+				found = subsumption.subsumes(input, searchSet.get(j));
+			if (!found)
+				return false;
 		}
-		return satisfied;
+		return true;
 	}
 
-    private static boolean isIntersection( Set<String> a, Set<String> b ) {
-        for ( String v1 : a ) {
-            if ( b.contains( v1 ) ) {
-                return true;
-            }
-        }
-        return false;
-    }
+	/**
+	 * Checks whether set of inputs can be completely satisfied by the available
+	 * concepts, given as a bitset over the ranks of the subsumption index.
+	 *
+	 * @param inputs
+	 * @param available
+	 * @return true if every input subsumes an available concept, false otherwise.
+	 */
+	public boolean isSubsumed(IntSet inputs, BitSet available) {
+		for (int i = 0; i < inputs.size(); i++) {
+			if (!subsumption.intersectsClosure(available, inputs.get(i)))
+				return false;
+		}
+		return true;
+	}
 
 	/**
 	 * Populates the taxonomy tree by associating services to the
-	 * nodes in the tree.
+	 * nodes in the tree, numbering the services in the process.
 	 */
 	private void populateTaxonomyTree() {
+		Node[] services = new Node[serviceMap.size()];
+		int id = 0;
 		for (Node s: serviceMap.values()) {
-			addServiceToTaxonomyTree(s);
-		}
-	}
-
-	private void addServiceToTaxonomyTree(Node s) {
-		// Populate outputs
-	    Set<TaxonomyNode> seenConceptsOutput = new HashSet<TaxonomyNode>();
-		for (String outputVal : s.getOutputs()) {
-			TaxonomyNode n = taxonomyMap.get(outputVal);
-			s.getTaxonomyOutputs().add(n);
-
-			// Also add output to all parent nodes
-			Queue<TaxonomyNode> queue = new LinkedList<TaxonomyNode>();
-			queue.add( n );
-
-			while (!queue.isEmpty()) {
-			    TaxonomyNode current = queue.poll();
-		        seenConceptsOutput.add( current );
-		        current.servicesWithOutput.add(s);
-		        for (TaxonomyNode parent : current.parents) {
-		            if (!seenConceptsOutput.contains( parent )) {
-		                queue.add(parent);
-		                seenConceptsOutput.add(parent);
-		            }
-		        }
-			}
+			s.setId(id);
+			services[id++] = s;
+			IntSet outputs = s.getOutputs();
+			for (int i = 0; i < outputs.size(); i++)
+				s.getTaxonomyOutputs().add(taxonomyNodes[outputs.get(i)]);
 		}
-		// Populate inputs
-		Set<TaxonomyNode> seenConceptsInput = new HashSet<TaxonomyNode>();
-		for (String inputVal : s.getInputs()) {
-			TaxonomyNode n = taxonomyMap.get(inputVal);
-			//n.servicesWithInput.add(s);
-
-			// Also add input to all children nodes
-			Queue<TaxonomyNode> queue = new LinkedList<TaxonomyNode>();
-			queue.add( n );
-
-			while(!queue.isEmpty()) {
-				TaxonomyNode current = queue.poll();
-				seenConceptsInput.add( current );
-
-			    Set<String> inputs = current.servicesWithInput.get(s);
-			    if (inputs == null) {
-			    	inputs = new HashSet<String>();
-			    	inputs.add(inputVal);
-			    	current.servicesWithInput.put(s, inputs);
-			    }
-			    else {
-			    	inputs.add(inputVal);
-			    }
-
-			    for (TaxonomyNode child : current.children) {
-			        if (!seenConceptsInput.contains( child )) {
-			            queue.add(child);
-			            seenConceptsInput.add( child );
-			        }
-			    }
-			}
-		}
-		return;
+		serviceIndex = ServiceIndex.build(services, taxonomyNodes, subsumption);
 	}
 
 	private void addEndNodeToTaxonomyTree() {
-		for (String inputVal : endNode.getInputs()) {
-			TaxonomyNode n = taxonomyMap.get(inputVal);
-			n.endNodeInputs.add(inputVal);
-
-			// Also add input to all children nodes
-			Queue<TaxonomyNode> queue = new LinkedList<TaxonomyNode>();
-			queue.addAll(n.children);
-
-			while(!queue.isEmpty()) {
-				TaxonomyNode current = queue.poll();
-				current.endNodeInputs.add(inputVal);
-				queue.addAll(current.children);
+		IntSet inputVals = endNode.getInputs();
+		for (int i = 0; i < inputVals.size(); i++) {
+			int inputVal = inputVals.get(i);
+
+			// Add input to the node and all its children nodes
+			int[] runs = subsumption.getRuns(inputVal);
+			for (int r = 0; r < runs.length; r += 2) {
+				for (int rank = runs[r]; rank <= runs[r + 1]; rank++)
+					taxonomyNodes[subsumption.getConcept(rank)].endNodeInputs.add(inputVal);
 			}
 		}
 
@@ -263,86 +410,133 @@ public class GraphInitializer extends SimpleInitializer {
 	 * ontological parent.
 	 */
 	private void findConceptsForInstances() {
-		Set<String> temp = new HashSet<String>();
-
-		for (String s : taskInput)
-			temp.add(taxonomyMap.get(s).parents.get(0).value);
-		taskInput.clear();
-		taskInput.addAll(temp);
-
-		temp.clear();
-		for (String s : taskOutput)
-				temp.add(taxonomyMap.get(s).parents.get(0).value);
-		taskOutput.clear();
-		taskOutput.addAll(temp);
+		replaceWithParentConcepts(taskInput);
+		replaceWithParentConcepts(taskOutput);
 
 		for (Node s : serviceMap.values()) {
-			temp.clear();
-			Set<String> inputs = s.getInputs();
-			for (String i : inputs)
-				temp.add(taxonomyMap.get(i).parents.get(0).value);
-			inputs.clear();
-			inputs.addAll(temp);
-
-			temp.clear();
-			Set<String> outputs = s.getOutputs();
-			for (String o : outputs)
-				temp.add(taxonomyMap.get(o).parents.get(0).value);
-			outputs.clear();
-			outputs.addAll(temp);
+			replaceWithParentConcepts(s.getInputs());
+			replaceWithParentConcepts(s.getOutputs());
 		}
 	}
 
-	public void removeDanglingNodes(GraphIndividual graph) {
-	    List<Node> dangling = new ArrayList<Node>();
-	    for (Node g : graph.nodeMap.values()) {
-	        if (!g.getName().equals("end") && g.getOutgoingEdgeList().isEmpty())
-	            dangling.add( g );
-	    }
+	private void replaceWithParentConcepts(IntSet values) {
+		IntSet temp = new IntSet(values.size());
+		for (int i = 0; i < values.size(); i++)
+			temp.add(taxonomyNodes[values.get(i)].parents.get(0).id);
+		values.clear();
+		values.addAll(temp);
+	}
 
-	    for (Node d: dangling) {
-	        removeDangling(d, graph);
+	/**
+	 * Removes the nodes left without outgoing edges, other than end, and in
+	 * turn the nodes whose outgoing edges all led to removed nodes. Each node
+	 * is removed once, however many of its successors are removed. A graph in
+	 * compact form is edited in place.
+	 */
+	public void removeDanglingNodes(GraphIndividual graph) {
+	    if (graph.indexed != null) {
+	        IndexedGraph g = graph.indexed;
+	        GraphTraversal.Slots removed = GraphTraversal.dangling( g );
+	        for (int i = 0; i < removed.size(); i++) {
+	            int slot = removed.get( i );
+	            if (graph.change != null)
+	                graph.change.removeNode( g.getNode( slot, this ) );
+	            g.removeNode( slot );
+	        }
+	        return;
 	    }
-	}
 
-	private void removeDangling(Node n, GraphIndividual graph) {
-	    if (n.getOutgoingEdgeList().isEmpty()) {
-	        graph.nodeMap.remove( n.getName() );
-	        graph.considerableNodeMap.remove( n.getName() );
-	        for (Edge e : n.getIncomingEdgeList()) {
+	    GraphTraversal.Visit removed = GraphTraversal.dangling( graph.nodeMap.values() );
+	    if (removed.size() == 0)
+	        return;
+
+	    Set<Edge> danglingEdges = new HashSet<Edge>();
+	    for (Node d : removed) {
+	        graph.nodeMap.remove( d.getName() );
+	        graph.considerableNodeMap.remove( d.getName() );
+	        if (graph.change != null)
+	            graph.change.removeNode( d );
+	        for (Edge e : d.getIncomingEdgeList()) {
 	            e.getFromNode().getOutgoingEdgeList().remove( e );
-	            graph.edgeList.remove( e );
-	            graph.considerableEdgeList.remove( e );
-	            removeDangling(e.getFromNode(), graph);
+	            danglingEdges.add( e );
 	        }
 	    }
+	    graph.edgeList.removeAll( danglingEdges );
+	    graph.considerableEdgeList.removeAll( danglingEdges );
 	}
 
 	/**
-	 * Goes through the service list and retrieves only those services which
-	 * could be part of the composition task requested by the user.
+	 * Retrieves only those services which could be part of the composition task
+	 * requested by the user, by forward chaining from the task inputs. Each
+	 * service counts its unsatisfied inputs; the concepts made available in one
+	 * layer update the counts of their consumers, and services whose count drops
+	 * to zero form the next layer. The layer of each service is recorded in
+	 * serviceLayers, with the services satisfied by the task inputs in layer 1.
 	 *
 	 * @param serviceMap
 	 * @return relevant services
 	 */
-	private Set<Node> getRelevantServices(Map<String,Node> serviceMap, Set<String> inputs, Set<String> outputs) {
-		// Copy service map values to retain original
-		Collection<Node> services = new ArrayList<Node>(serviceMap.values());
+	private Set<Node> getRelevantServices(Map<String,Node> serviceMap, IntSet inputs, IntSet outputs) {
+		int numServices = serviceIndex.getNumServices();
+		int[] unsatisfied = new int[numServices];
+		boolean[][] satisfied = new boolean[numServices][];
+		for (int id = 0; id < numServices; id++) {
+			int numInputs = serviceIndex.getService(id).getInputs().size();
+			unsatisfied[id] = numInputs;
+			satisfied[id] = new boolean[numInputs];
+		}
 
-		Set<String> cSearch = new HashSet<String>(inputs);
 		Set<Node> sSet = new HashSet<Node>();
-		Set<Node> sFound = discoverService(services, cSearch);
-		while (!sFound.isEmpty()) {
-			sSet.addAll(sFound);
-			services.removeAll(sFound);
-			for (Node s: sFound) {
-				cSearch.addAll(s.getOutputs());
+		serviceLayers = new HashMap<Node, Integer>();
+		BitSet available = new BitSet(subsumption.size());
+		IntSet newConcepts = new IntSet(inputs);
+		List<Node> layer = new ArrayList<Node>();
+
+		// Services without inputs are satisfied from the start
+		for (int id = 0; id < numServices; id++) {
+			if (unsatisfied[id] == 0)
+				layer.add(serviceIndex.getService(id));
+		}
+
+		for (int layerNum = 1; !newConcepts.isEmpty() || !layer.isEmpty(); layerNum++) {
+			subsumption.addTo(available, newConcepts);
+			for (int i = 0; i < newConcepts.size(); i++) {
+				int concept = newConcepts.get(i);
+				if (taxonomyNodes[concept] == null)
+					continue;
+				for (int entry = serviceIndex.consumersStart(concept); entry < serviceIndex.consumersEnd(concept); entry++) {
+					Node s = serviceIndex.getConsumer(entry);
+					int index = s.getId();
+					if (unsatisfied[index] == 0)
+						continue;
+					// Inputs of the service satisfied by this concept
+					IntSet serviceInputs = s.getInputs();
+					for (int j = serviceIndex.inputsStart(entry); j < serviceIndex.inputsEnd(entry); j++) {
+						int position = serviceInputs.indexOf(serviceIndex.getInput(j));
+						if (!satisfied[index][position]) {
+							satisfied[index][position] = true;
+							if (--unsatisfied[index] == 0)
+								layer.add(s);
+						}
+					}
+				}
+			}
+
+			newConcepts = new IntSet();
+			for (Node s : layer) {
+				sSet.add(s);
+				serviceLayers.put(s, layerNum);
+				IntSet serviceOutputs = s.getOutputs();
+				for (int i = 0; i < serviceOutputs.size(); i++) {
+					int concept = serviceOutputs.get(i);
+					if (!available.get(subsumption.getRank(concept)))
+						newConcepts.add(concept);
+				}
 			}
-			sFound.clear();
-			sFound = discoverService(services, cSearch);
+			layer.clear();
 		}
 
-		if (isSubsumed(outputs, cSearch)) {
+		if (isSubsumed(outputs, available)) {
 			return sSet;
 		}
 		else {
@@ -353,6 +547,138 @@ public class GraphInitializer extends SimpleInitializer {
 		}
 	}
 
+	/**
+	 * Groups services with identical input and output concepts, which are
+	 * interchangeable in any composition. When running with QoS only the members
+	 * of each group not Pareto-dominated on their QoS attributes are kept (and
+	 * one of any members with identical QoS), otherwise a single member is kept.
+	 * Each removed service is recorded in equivalentServices under a kept member
+	 * that is at least as good as it, so that solutions can still be reported in
+	 * terms of the original services.
+	 *
+	 * @param services
+	 * @return services left after the reduction
+	 */
+	private Set<Node> collapseEquivalentServices(Set<Node> services) {
+		Map<List<IntSet>, List<Node>> groups = new HashMap<List<IntSet>, List<Node>>();
+		for (Node s : services) {
+			List<IntSet> signature = Arrays.asList(s.getInputs(), s.getOutputs());
+			List<Node> group = groups.get(signature);
+			if (group == null) {
+				group = new ArrayList<Node>();
+				groups.put(signature, group);
+			}
+			group.add(s);
+		}
+
+		Set<Node> kept = new HashSet<Node>();
+		equivalentServices.clear();
+		for (List<Node> group : groups.values()) {
+			// Order members by name, so that ties are always resolved the same way
+			Collections.sort(group, new Comparator<Node>() {
+				@Override
+				public int compare(Node a, Node b) {
+					return a.getName().compareTo(b.getName());
+				}
+			});
+			List<Node> groupKept = new ArrayList<Node>();
+			List<Node> groupRemoved = new ArrayList<Node>();
+			for (int i = 0; i < group.size(); i++) {
+				boolean covered = false;
+				if (runningOwls)
+					covered = i > 0;
+				else {
+					for (int j = 0; j < group.size() && !covered; j++)
+						covered = j != i && coversQos(group.get(j), group.get(i), j < i);
+				}
+				if (covered)
+					groupRemoved.add(group.get(i));
+				else
+					groupKept.add(group.get(i));
+			}
+			// Covering is transitive, so some kept member covers each removed one
+			for (Node removed : groupRemoved) {
+				Node representative = groupKept.get(0);
+				if (!runningOwls) {
+					for (Node k : groupKept) {
+						if (coversQos(k, removed, group.indexOf(k) < group.indexOf(removed))) {
+							representative = k;
+							break;
+						}
+					}
+				}
+				List<String> equivalents = equivalentServices.get(representative.getName());
+				if (equivalents == null) {
+					equivalents = new ArrayList<String>();
+					equivalentServices.put(representative.getName(), equivalents);
+				}
+				equivalents.add(removed.getName());
+			}
+			kept.addAll(groupKept);
+		}
+		return kept;
+	}
+
+	/**
+	 * Checks whether service a makes service b redundant, i.e. a is at least as
+	 * good as b on every QoS attribute and strictly better on one. Services with
+	 * identical QoS cover each other only in one direction, given by aFirst.
+	 *
+	 * @param a
+	 * @param b
+	 * @param aFirst - whether a precedes b among services with identical QoS
+	 * @return true if b can be replaced by a
+	 */
+	private boolean coversQos(Node a, Node b, boolean aFirst) {
+		double[] qa = a.getQos();
+		double[] qb = b.getQos();
+		if (qa[TIME] > qb[TIME] || qa[COST] > qb[COST] || qa[AVAILABILITY] < qb[AVAILABILITY] || qa[RELIABILITY] < qb[RELIABILITY])
+			return false;
+		boolean better = qa[TIME] < qb[TIME] || qa[COST] < qb[COST] || qa[AVAILABILITY] > qb[AVAILABILITY] || qa[RELIABILITY] > qb[RELIABILITY];
+		return better || aFirst;
+	}
+
+	/**
+	 * Keeps only those relevant services which can contribute to the task
+	 * outputs, by chaining backwards from the outputs through the services
+	 * producing each needed concept. The inputs of every service kept become
+	 * needed in turn.
+	 *
+	 * @param relevant
+	 * @param outputs
+	 * @return relevant services on some path from the task inputs to the task outputs
+	 */
+	private Set<Node> pruneServices(Set<Node> relevant, IntSet outputs) {
+		Set<Node> kept = new HashSet<Node>();
+		boolean[] needed = new boolean[taxonomyNodes.length];
+		IntSet toVisit = new IntSet(outputs);
+		for (int i = 0; i < outputs.size(); i++)
+			needed[outputs.get(i)] = true;
+
+		while (!toVisit.isEmpty()) {
+			IntSet next = new IntSet();
+			for (int i = 0; i < toVisit.size(); i++) {
+				int concept = toVisit.get(i);
+				// Services with an output subsumed by the needed concept
+				for (int entry = serviceIndex.producersStart(concept); entry < serviceIndex.producersEnd(concept); entry++) {
+					Node s = serviceIndex.getProducer(entry);
+					if (!relevant.contains(s) || !kept.add(s))
+						continue;
+					IntSet inputs = s.getInputs();
+					for (int j = 0; j < inputs.size(); j++) {
+						int input = inputs.get(j);
+						if (!needed[input]) {
+							needed[input] = true;
+							next.add(input);
+						}
+					}
+				}
+			}
+			toVisit = next;
+		}
+		return kept;
+	}
+
 	private void calculateNormalisationBounds(Set<Node> services) {
 		for(Node service: services) {
 			double[] qos = service.getQos();
@@ -388,22 +714,326 @@ public class GraphInitializer extends SimpleInitializer {
 	}
 
 	/**
-	 * Discovers all services from the provided collection whose
-	 * input can be satisfied either (a) by the input provided in
-	 * searchSet or (b) by the output of services whose input is
-	 * satisfied by searchSet (or a combination of (a) and (b)).
+	 * Loads the service, task and taxonomy files concurrently, using either the
+	 * streaming or the DOM parsers. Each parser fills in its own structure, so
+	 * they do not need to coordinate. The parse time and allocated memory of each
+	 * file are reported, as well as the peak heap usage over the whole ingest.
 	 *
-	 * @param services
-	 * @param searchSet
-	 * @return set of discovered services
+	 * @param servicesFile
+	 * @param taskFile
+	 * @param taxonomyFile
+	 */
+	private void loadProblemFiles(String servicesFile, String taskFile, String taxonomyFile) {
+		resetPeakHeapUsage();
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			List<Future<String>> reports = new ArrayList<Future<String>>();
+			reports.add(executor.submit(new ParseTask(servicesFile) {
+				@Override
+				protected void parse() {
+					if (streamingIngest)
+						streamWSCServiceFile(fileName);
+					else
+						parseWSCServiceFile(fileName);
+				}
+			}));
+			reports.add(executor.submit(new ParseTask(taskFile) {
+				@Override
+				protected void parse() {
+					if (streamingIngest)
+						streamWSCTaskFile(fileName);
+					else
+						parseWSCTaskFile(fileName);
+				}
+			}));
+			reports.add(executor.submit(new ParseTask(taxonomyFile) {
+				@Override
+				protected void parse() {
+					if (streamingIngest)
+						streamWSCTaxonomyFile(fileName);
+					else
+						parseWSCTaxonomyFile(fileName);
+				}
+			}));
+			for (Future<String> report : reports)
+				System.out.println(report.get());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Problem file loading was interrupted.", e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException("Problem file loading failed.", e.getCause());
+		}
+		finally {
+			executor.shutdown();
+		}
+		System.out.println(String.format("Problem files loaded, peak heap usage %.1f MB", peakHeapUsage() / MEGABYTE));
+	}
+
+	private static final double MEGABYTE = 1024.0 * 1024.0;
+
+	/**
+	 * Parses a single problem file on a worker thread, timing it and measuring
+	 * the memory the thread allocated while doing so.
+	 */
+	private abstract static class ParseTask implements Callable<String> {
+		protected final String fileName;
+
+		public ParseTask(String fileName) {
+			this.fileName = fileName;
+		}
+
+		protected abstract void parse();
+
+		@Override
+		public String call() {
+			long allocatedBefore = threadAllocatedBytes();
+			long startTime = System.nanoTime();
+			parse();
+			long elapsed = System.nanoTime() - startTime;
+			long allocated = threadAllocatedBytes() - allocatedBefore;
+			if (allocatedBefore < 0)
+				return String.format("Parsed %s in %d ms", fileName, elapsed / 1000000);
+			else
+				return String.format("Parsed %s in %d ms, %.1f MB allocated", fileName, elapsed / 1000000, allocated / MEGABYTE);
+		}
+	}
+
+	/**
+	 * @return bytes allocated so far by the current thread, or -1 if the JVM
+	 * cannot measure it.
+	 */
+	private static long threadAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled())
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static void resetPeakHeapUsage() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+	}
+
+	private static long peakHeapUsage() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	private static XMLStreamReader openXMLStream(InputStream in) throws XMLStreamException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		return factory.createXMLStreamReader(in);
+	}
+
+	/**
+	 * @return the value of the given attribute, or an empty string if it is missing
+	 * (mirroring the behaviour of the DOM parser).
+	 */
+	private static String attribute(XMLStreamReader reader, String name) {
+		String value = reader.getAttributeValue(null, name);
+		return value == null ? "" : value;
+	}
+
+	/**
+	 * Streams through the WSC Web service file with the given name, creating the
+	 * Web services directly as their elements are closed and saving them to the
+	 * service map. No document tree is built.
+	 *
+	 * @param fileName
+	 */
+	private void streamWSCServiceFile(String fileName) {
+		IntSet inputs = new IntSet();
+		IntSet outputs = new IntSet();
+		double[] qos = new double[4];
+		String name = null;
+		IntSet current = null;
+		boolean seenInputs = false;
+		boolean seenOutputs = false;
+
+		InputStream in = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(fileName));
+			XMLStreamReader reader = openXMLStream(in);
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String tag = reader.getLocalName();
+					if (tag.equals("service")) {
+						name = attribute(reader, "name");
+						if (!runningOwls) {
+							qos[TIME] = Double.valueOf(attribute(reader, "Res"));
+							qos[COST] = Double.valueOf(attribute(reader, "Pri"));
+							qos[AVAILABILITY] = Double.valueOf(attribute(reader, "Ava"));
+							qos[RELIABILITY] = Double.valueOf(attribute(reader, "Rel"));
+						}
+					}
+					// Only the first inputs/outputs sections of a service are considered
+					else if (tag.equals("inputs") && name != null && !seenInputs) {
+						current = inputs;
+						seenInputs = true;
+					}
+					else if (tag.equals("outputs") && name != null && !seenOutputs) {
+						current = outputs;
+						seenOutputs = true;
+					}
+					else if (tag.equals("instance") && current != null) {
+						current.add(concepts.intern(attribute(reader, "name")));
+					}
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT) {
+					String tag = reader.getLocalName();
+					if (tag.equals("inputs") || tag.equals("outputs")) {
+						current = null;
+					}
+					else if (tag.equals("service")) {
+						Node ws = new Node(name, qos, inputs, outputs);
+						serviceMap.put(name, ws);
+						inputs = new IntSet();
+						outputs = new IntSet();
+						qos = new double[4];
+						name = null;
+						seenInputs = false;
+						seenOutputs = false;
+					}
+				}
+			}
+			reader.close();
+		}
+		catch (IOException e) {
+			System.out.println("Service file parsing failed...");
+		}
+		catch (XMLStreamException e) {
+			System.out.println("Service file parsing failed...");
+		}
+		finally {
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Streams through the WSC task file with the given name, extracting input
+	 * and output values to be used as the composition task.
+	 *
+	 * @param fileName
+	 */
+	private void streamWSCTaskFile(String fileName) {
+		IntSet provided = new IntSet();
+		IntSet wanted = new IntSet();
+		IntSet current = null;
+		boolean seenProvided = false;
+		boolean seenWanted = false;
+
+		InputStream in = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(fileName));
+			XMLStreamReader reader = openXMLStream(in);
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String tag = reader.getLocalName();
+					if (tag.equals("provided") && !seenProvided) {
+						current = provided;
+						seenProvided = true;
+					}
+					else if (tag.equals("wanted") && !seenWanted) {
+						current = wanted;
+						seenWanted = true;
+					}
+					else if (tag.equals("instance") && current != null) {
+						current.add(concepts.intern(attribute(reader, "name")));
+					}
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT) {
+					String tag = reader.getLocalName();
+					if (tag.equals("provided") || tag.equals("wanted"))
+						current = null;
+				}
+			}
+			reader.close();
+			taskInput = provided;
+			taskOutput = wanted;
+		}
+		catch (IOException e) {
+			System.out.println("Task file parsing failed...");
+			e.printStackTrace();
+		}
+		catch (XMLStreamException e) {
+			System.out.println("Task file parsing failed...");
+			e.printStackTrace();
+		}
+		finally {
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Streams through the WSC taxonomy file with the given name, building the
+	 * tree-like structure with an explicit stack of open elements rather than
+	 * by recursing over a document tree.
+	 *
+	 * @param fileName
 	 */
-	private Set<Node> discoverService(Collection<Node> services, Set<String> searchSet) {
-		Set<Node> found = new HashSet<Node>();
-		for (Node s: services) {
-			if (isSubsumed(s.getInputs(), searchSet))
-				found.add(s);
+	private void streamWSCTaxonomyFile(String fileName) {
+		Deque<TaxonomyNode> open = new ArrayDeque<TaxonomyNode>();
+
+		InputStream in = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(fileName));
+			XMLStreamReader reader = openXMLStream(in);
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String value = attribute(reader, "name");
+					TaxonomyNode taxNode = taxonomyMap.get(value);
+					if (taxNode == null) {
+						taxNode = new TaxonomyNode(concepts.intern(value), value);
+						taxonomyMap.put(value, taxNode);
+					}
+					TaxonomyNode parent = open.peek();
+					if (parent != null) {
+						taxNode.parents.add(parent);
+						parent.children.add(taxNode);
+					}
+					open.push(taxNode);
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT) {
+					open.pop();
+				}
+			}
+			reader.close();
+		}
+		catch (IOException e) {
+			System.err.println("Taxonomy file parsing failed...");
+		}
+		catch (XMLStreamException e) {
+			System.err.println("Taxonomy file parsing failed...");
+		}
+		finally {
+			closeQuietly(in);
+		}
+	}
+
+	private static void closeQuietly(InputStream in) {
+		if (in != null) {
+			try {
+				in.close();
+			}
+			catch (IOException e) {
+				// Nothing left to do with the stream
+			}
 		}
-		return found;
 	}
 
 	/**
@@ -413,8 +1043,8 @@ public class GraphInitializer extends SimpleInitializer {
 	 * @param fileName
 	 */
 	private void parseWSCServiceFile(String fileName) {
-        Set<String> inputs = new HashSet<String>();
-        Set<String> outputs = new HashSet<String>();
+        IntSet inputs = new IntSet();
+        IntSet outputs = new IntSet();
         double[] qos = new double[4];
 
         try {
@@ -443,7 +1073,7 @@ public class GraphInitializer extends SimpleInitializer {
 				for (int j = 0; j < inputNodes.getLength(); j++) {
 					org.w3c.dom.Node in = inputNodes.item(j);
 					Element e = (Element) in;
-					inputs.add(e.getAttribute("name"));
+					inputs.add(concepts.intern(e.getAttribute("name")));
 				}
 
 				// Get outputs
@@ -452,13 +1082,13 @@ public class GraphInitializer extends SimpleInitializer {
 				for (int j = 0; j < outputNodes.getLength(); j++) {
 					org.w3c.dom.Node out = outputNodes.item(j);
 					Element e = (Element) out;
-					outputs.add(e.getAttribute("name"));
+					outputs.add(concepts.intern(e.getAttribute("name")));
 				}
 
                 Node ws = new Node(name, qos, inputs, outputs);
                 serviceMap.put(name, ws);
-                inputs = new HashSet<String>();
-                outputs = new HashSet<String>();
+                inputs = new IntSet();
+                outputs = new IntSet();
                 qos = new double[4];
         	}
         }
@@ -488,20 +1118,20 @@ public class GraphInitializer extends SimpleInitializer {
 
 	    	org.w3c.dom.Node provided = doc.getElementsByTagName("provided").item(0);
 	    	NodeList providedList = ((Element) provided).getElementsByTagName("instance");
-	    	taskInput = new HashSet<String>();
+	    	taskInput = new IntSet();
 	    	for (int i = 0; i < providedList.getLength(); i++) {
 				org.w3c.dom.Node item = providedList.item(i);
 				Element e = (Element) item;
-				taskInput.add(e.getAttribute("name"));
+				taskInput.add(concepts.intern(e.getAttribute("name")));
 	    	}
 
 	    	org.w3c.dom.Node wanted = doc.getElementsByTagName("wanted").item(0);
 	    	NodeList wantedList = ((Element) wanted).getElementsByTagName("instance");
-	    	taskOutput = new HashSet<String>();
+	    	taskOutput = new IntSet();
 	    	for (int i = 0; i < wantedList.getLength(); i++) {
 				org.w3c.dom.Node item = wantedList.item(i);
 				Element e = (Element) item;
-				taskOutput.add(e.getAttribute("name"));
+				taskOutput.add(concepts.intern(e.getAttribute("name")));
 	    	}
 		}
 		catch (ParserConfigurationException e) {
@@ -562,7 +1192,7 @@ public class GraphInitializer extends SimpleInitializer {
 					String value = currNode.getAttribute("name");
 					TaxonomyNode taxNode = taxonomyMap.get( value );
 					if (taxNode == null) {
-					    taxNode = new TaxonomyNode(value);
+					    taxNode = new TaxonomyNode(concepts.intern(value), value);
 					    taxonomyMap.put( value, taxNode );
 					}
 					if (parent != null) {
@@ -577,20 +1207,46 @@ public class GraphInitializer extends SimpleInitializer {
 		}
 	}
 
+	/**
+	 * Adds the QoS gathered by one evaluation thread to that of the current
+	 * generation.
+	 *
+	 * @param summary
+	 * @param populationSize
+	 * @return the QoS of the whole generation if this was the last of its
+	 * individuals to be merged, or null otherwise
+	 */
+	public synchronized QosSummary mergeEvaluation(QosSummary summary, int populationSize) {
+		pendingQos.addAll(summary);
+		if (pendingQos.count < populationSize)
+			return null;
+		generationQos = pendingQos;
+		pendingQos = new QosSummary();
+		return generationQos;
+	}
+
 	public void countGraphElements(GraphIndividual graph) {
         // Keep track of nodes and edges for statistics
+        if (graph.indexed != null) {
+            IndexedGraph indexed = graph.indexed;
+            for (int slot = 0; slot < indexed.getNodeSlots(); slot++) {
+                if (indexed.isNode(slot))
+                    addToCountMap(nodeCount, indexed.getName(slot));
+            }
+            for (int e = indexed.firstEdge(); e != -1; e = indexed.nextEdge(e))
+                addToCountMap(edgeCount, indexed.edgeToString(e));
+            return;
+        }
         for (String nodeName : graph.nodeMap.keySet())
             addToCountMap(nodeCount, nodeName);
         for (Edge edge : graph.edgeList)
             addToCountMap(edgeCount, edge.toString());
 	}
 
-   private void addToCountMap(Map<String,Integer> map, String item) {
-        if (map.containsKey( item )) {
-            map.put( item, map.get( item ) + 1 );
-        }
-        else {
-            map.put( item, 1 );
-        }
+   // Breeding threads may count their offspring concurrently
+   private void addToCountMap(ConcurrentMap<String,Integer> map, String item) {
+        Integer count = map.putIfAbsent( item, 1 );
+        while (count != null && !map.replace( item, count, count + 1 ))
+            count = map.get( item );
     }
 }
@@ -60,9 +60,10 @@ public class GraphMergePipeline extends BreedingPipeline {
         		GraphIndividual g2 = ((GraphIndividual)inds2[x]);
 
         		if (!init.overlapEnabled || enoughOverlap(g1, g2, init.overlapPercentage)) {
-        		    GraphIndividual newG = mergeGraphs(g1, g2, init);
-        		    GraphSpecies species = (GraphSpecies) newG.species;
-        		    inds[q] = species.createNewGraph(newG, state, init.startNode.clone(), init.endNode.clone(), init.relevant);
+        		    GraphUnion union = init.graphUnion[thread];
+        		    union.build(g1, g2, init);
+        		    GraphSpecies species = (GraphSpecies) g1.species;
+        		    inds[q] = species.createNewGraph(union, state, init.startNode.clone(), init.endNode.clone(), init.prunedPool, thread);
         		}
         		else {
         		    if (g1.fitness.fitness() > g2.fitness.fitness())
@@ -73,43 +74,24 @@ public class GraphMergePipeline extends BreedingPipeline {
 
 	        	inds[q].evaluated=false;
 	        	init.countGraphElements( (GraphIndividual) inds[q] );
+	        	((GraphIndividual) inds[q]).compact( init );
         }
         return n1;
 	}
 
-	private GraphIndividual mergeGraphs(GraphIndividual g1, GraphIndividual g2, GraphInitializer init) {
-		GraphIndividual newG = new GraphIndividual();
-
-		// Merge nodes
-		for (Node n: g1.nodeMap.values()) {
-			newG.nodeMap.put(n.getName(), n.clone());
-			newG.considerableNodeMap.put(n.getName(), n.clone());
-		}
-		for (Node n: g2.nodeMap.values()) {
-			newG.nodeMap.put(n.getName(), n.clone());
-			newG.considerableNodeMap.put(n.getName(), n.clone());
-		}
-
-		// Merge edges
-		Set<Edge> edgesToMerge = new HashSet<Edge>();
-		edgesToMerge.addAll(g1.edgeList);
-		edgesToMerge.addAll(g2.edgeList);
-
-		for (Edge e : edgesToMerge) {
-			Edge newE = new Edge(e.getIntersect());
-			Node fromNode = newG.nodeMap.get(e.getFromNode().getName());
-			newE.setFromNode(fromNode);
-			Node toNode = newG.nodeMap.get(e.getToNode().getName());
-			newE.setToNode(toNode);
-			newG.edgeList.add(newE);
-			fromNode.getOutgoingEdgeList().add(newE);
-			toNode.getIncomingEdgeList().add(newE);
-		}
-		init.removeDanglingNodes(newG);
-		return newG;
-	}
-
 	private boolean enoughOverlap(GraphIndividual i1, GraphIndividual i2, double overlapPercentage) {
+	    if (i1.indexed != null) {
+	        // Both parents are in compact form, and share the nodes found in both
+	        IndexedGraph g1 = i1.indexed, g2 = i2.indexed;
+	        int overlap = 0;
+	        for (int slot = 0; slot < g1.getNodeSlots(); slot++) {
+	            if (g1.isNode(slot) && g2.findNode(g1.getService(slot)) != -1)
+	                overlap++;
+	        }
+	        return ((double) overlap)/g1.getNumNodes() >= overlapPercentage &&
+	               ((double) overlap)/g2.getNumNodes() >= overlapPercentage;
+	    }
+
 	    Set<String> overlap1 = new HashSet<String>();
 	    overlap1.addAll( i1.nodeMap.keySet() );
 	    overlap1.retainAll(i2.nodeMap.keySet());
@@ -1,7 +1,6 @@
 package ec.graph;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -43,16 +42,27 @@ public class GraphMutationPipeline extends BreedingPipeline {
             state.output.fatal("GraphAppendPipeline didn't get a GraphIndividual. The offending individual is in subpopulation "
             + subpopulation + " and it's:" + inds[start]);
 
+        // Give compact individuals their own copy of their compact form to edit
+        for(int q=start;q<n+start;q++) {
+            GraphIndividual graph = (GraphIndividual)inds[q];
+            if (graph.indexed != null)
+                graph.edit();
+        }
+
         // Perform mutation
         for(int q=start;q<n+start;q++) {
             GraphIndividual graph = (GraphIndividual)inds[q];
             GraphSpecies species = (GraphSpecies) graph.species;
+            if (graph.indexed != null) {
+                mutateIndexed(state, init, species, graph, thread);
+                continue;
+            }
             Object[] nodes = graph.nodeMap.values().toArray();
 
             // Select node from which to perform mutation
             Node selected = null;
             while (selected == null) {
-                Node temp = (Node) nodes[init.random.nextInt( nodes.length )];
+                Node temp = (Node) nodes[init.random[thread].nextInt( nodes.length )];
                 if (!temp.getName().equals( "end" )) {
                     selected = temp;
                 }
@@ -60,13 +70,13 @@ public class GraphMutationPipeline extends BreedingPipeline {
 
             if (selected.getName().equals( "start" )) {
                 // Create an entirely new graph
-                graph = species.createNewGraph( null, state, init.startNode.clone(), init.endNode.clone(), init.relevant );
+                graph = species.createNewGraph( null, state, init.startNode.clone(), init.endNode.clone(), init.prunedPool, thread );
             }
             else {
 
                 // Find all nodes that should be removed
                 Node newEnd   = init.endNode.clone();
-                Set<Node> nodesToRemove = findNodesToRemove(selected);
+                GraphTraversal.Visit nodesToRemove = GraphTraversal.downstream(selected);
                 Set<Edge> edgesToRemove = new HashSet<Edge>();
 
                 // Remove nodes and edges
@@ -84,16 +94,14 @@ public class GraphMutationPipeline extends BreedingPipeline {
                     }
                 }
 
-                for (Edge edge : edgesToRemove) {
-                    graph.edgeList.remove( edge );
-                    graph.considerableEdgeList.remove( edge );
-                }
+                graph.edgeList.removeAll( edgesToRemove );
+                graph.considerableEdgeList.removeAll( edgesToRemove );
 
 
                 // Create data structures
-                Set<Node> unused = new HashSet<Node>(init.relevant);
-                Set<Node> relevant = init.relevant;
-                Set<String> currentEndInputs = new HashSet<String>();
+                ServicePool unused = new ServicePool(init.prunedPool);
+                ServicePool relevant = init.prunedPool;
+                IntSet currentEndInputs = new IntSet();
                 Set<Node> seenNodes = new HashSet<Node>();
                 List<Node> candidateList = new ArrayList<Node>();
 
@@ -110,38 +118,87 @@ public class GraphMutationPipeline extends BreedingPipeline {
 
                 // Update currentEndInputs
                 for (Node node : graph.nodeMap.values()) {
-                    for (String o : node.getOutputs()) {
-                        currentEndInputs.addAll(init.taxonomyMap.get(o).endNodeInputs);
+                    IntSet outputs = node.getOutputs();
+                    for (int i = 0; i < outputs.size(); i++) {
+                        currentEndInputs.addAll(init.taxonomyNodes[outputs.get(i)].endNodeInputs);
                     }
                 }
 
 
-                Collections.shuffle(candidateList, init.random);
                 Map<String,Edge> connections = new HashMap<String,Edge>();
                 graph.unused = unused;
 
                 // Continue constructing graph
                 species.finishConstructingGraph( currentEndInputs, newEnd, candidateList, connections, init,
-                        graph, null, seenNodes, relevant );
+                        graph, null, seenNodes, relevant, thread );
 
             }
             graph.evaluated=false;
             init.countGraphElements( graph );
+            graph.compact( init );
         }
         return n;
 	}
 
-	private Set<Node> findNodesToRemove(Node selected) {
-	    Set<Node> nodes = new HashSet<Node>();
-	    _findNodesToRemove(selected, nodes);
-	    return nodes;
-
-	}
-
-	private void _findNodesToRemove(Node current, Set<Node> nodes) {
-        nodes.add( current );
-        for (Edge e: current.getOutgoingEdgeList()) {
-            _findNodesToRemove(e.getToNode(), nodes);
-        }
+	/**
+	 * Performs the mutation on the compact form of a graph, editing it in place.
+	 */
+	private void mutateIndexed(EvolutionState state, GraphInitializer init, GraphSpecies species, GraphIndividual graph, int thread) {
+		IndexedGraph g = graph.indexed;
+
+		// Select node from which to perform mutation
+		int selected = -1;
+		while (selected == -1) {
+			int slot = init.random[thread].nextInt(g.getNodeSlots());
+			if (g.isNode(slot) && g.getService(slot) != IndexedGraph.END)
+				selected = slot;
+		}
+
+		if (g.getService(selected) == IndexedGraph.START) {
+			// Create an entirely new graph
+			species.createNewGraph( null, state, init.startNode.clone(), init.endNode.clone(), init.prunedPool, thread );
+		}
+		else {
+			// Remove the node and everything downstream of it
+			GraphTraversal.Slots nodesToRemove = GraphTraversal.downstream(g, selected);
+			for (int i = 0; i < nodesToRemove.size(); i++)
+				g.removeNode(nodesToRemove.get(i));
+
+			// Create data structures
+			ServicePool relevant = init.prunedPool;
+			ServicePool unused = relevant.without(g);
+			IntSet currentEndInputs = new IntSet();
+			Set<Node> seenNodes = new HashSet<Node>();
+			List<Node> candidateList = new ArrayList<Node>();
+			List<Node> graphNodes = new ArrayList<Node>();
+			for (int slot = 0; slot < g.getNodeSlots(); slot++) {
+				if (g.isNode(slot))
+					graphNodes.add(g.getNode(slot, init));
+			}
+			seenNodes.addAll(graphNodes);
+
+			// Must add all nodes as seen before adding candidate list entries
+			for (Node node : graphNodes) {
+				if (!node.getName().equals( "end" ))
+					species.addToCandidateList( node, seenNodes, relevant, candidateList, init);
+			}
+
+			// Update currentEndInputs
+			for (Node node : graphNodes) {
+				IntSet outputs = node.getOutputs();
+				for (int i = 0; i < outputs.size(); i++) {
+					currentEndInputs.addAll(init.taxonomyNodes[outputs.get(i)].endNodeInputs);
+				}
+			}
+
+			graph.unused = unused;
+
+			// Continue constructing graph
+			species.finishConstructingGraph( currentEndInputs, init.endNode, candidateList, null, init,
+					graph, null, seenNodes, relevant, thread );
+		}
+		graph.evaluated=false;
+		init.countGraphElements( graph );
+		graph.compact( init );
 	}
 }
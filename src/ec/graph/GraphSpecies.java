@@ -1,13 +1,10 @@
 package ec.graph;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -25,17 +22,37 @@ public class GraphSpecies extends Species {
 	@Override
 	public Individual newIndividual(EvolutionState state, int thread) {
 	    GraphInitializer init = (GraphInitializer) state.initializer;
-	    GraphIndividual graph = createNewGraph(null, state, init.startNode.clone(), init.endNode.clone(), init.relevant);
+	    GraphIndividual graph = createNewGraph(null, state, init.startNode.clone(), init.endNode.clone(), init.prunedPool, thread);
+	    graph.compact(init);
 		return graph;
 	}
 
-	public GraphIndividual createNewGraph(GraphIndividual mergedGraph, EvolutionState state, Node start, Node end, Set<Node> relevant) {
+	/**
+	 * Builds a graph for a repair from the given start node to the given end
+	 * node, reusing a subgraph built for the same concepts before if the
+	 * subgraph cache is enabled.
+	 */
+	public GraphIndividual createSubgraph(EvolutionState state, Node start, Node end, ServicePool relevant, int thread) {
 		GraphInitializer init = (GraphInitializer) state.initializer;
-		Set<Node> unused = new HashSet<Node>(init.relevant);
+		SubgraphCache cache = init.subgraphCache;
+		if (cache == null)
+			return createNewGraph(null, state, start, end, relevant, thread);
+
+		GraphIndividual subgraph = cache.get(start.getOutputs(), end.getInputs(), relevant, init.random[thread]);
+		if (subgraph == null) {
+			subgraph = createNewGraph(null, state, start, end, relevant, thread);
+			cache.put(start.getOutputs(), end.getInputs(), subgraph);
+		}
+		return subgraph;
+	}
+
+	public GraphIndividual createNewGraph(GraphUnion union, EvolutionState state, Node start, Node end, ServicePool relevant, int thread) {
+		GraphInitializer init = (GraphInitializer) state.initializer;
+		ServicePool unused = new ServicePool(init.prunedPool);
 
 		GraphIndividual newGraph = new GraphIndividual(unused);
 
-		Set<String> currentEndInputs = new HashSet<String>();
+		IntSet currentEndInputs = new IntSet();
 		Map<String,Edge> connections = new HashMap<String,Edge>();
 
 		// Connect start node
@@ -45,105 +62,130 @@ public class GraphSpecies extends Species {
 		//Set<Node> relevant = init.relevant;
 		List<Node> candidateList = new ArrayList<Node>();
 
-		if (mergedGraph != null)
-			addToCandidateListFromEdges(start, mergedGraph, seenNodes, candidateList);
+		if (union != null)
+			union.addToCandidateList(start, candidateList);
 		else
 			addToCandidateList(start, seenNodes, relevant, candidateList, init);
 
-		Collections.shuffle(candidateList, init.random);
-
-		finishConstructingGraph(currentEndInputs, end, candidateList, connections, init, newGraph, mergedGraph, seenNodes, relevant);
+		finishConstructingGraph(currentEndInputs, end, candidateList, connections, init, newGraph, union, seenNodes, relevant, thread);
 
 		return newGraph;
 	}
 
-	public void finishConstructingGraph(Set<String> currentEndInputs, Node end, List<Node> candidateList, Map<String,Edge> connections,
-	        GraphInitializer init, GraphIndividual newGraph, GraphIndividual mergedGraph, Set<Node> seenNodes, Set<Node> relevant) {
+	public void finishConstructingGraph(IntSet currentEndInputs, Node end, List<Node> candidateList, Map<String,Edge> connections,
+	        GraphInitializer init, GraphIndividual newGraph, GraphUnion union, Set<Node> seenNodes, ServicePool relevant, int thread) {
 
-	 // While end cannot be connected to graph
-		while(!checkCandidateNodeSatisfied(init, connections, newGraph, end, end.getInputs(), null)){
-			connections.clear();
+		// Track which candidates can be connected as the graph grows, instead of
+		// checking them all again after each connection
+		CandidateQueue queue = init.candidateQueue[thread];
+		queue.reset(newGraph, end);
+		for (Node candidate : candidateList)
+			queue.add(candidate);
+		int tracked = candidateList.size();
 
+	 // While end cannot be connected to graph
+		while(!queue.isEndSatisfied()){
             // Select node
-            int index;
-
-            candidateLoop:
-            for (index = 0; index < candidateList.size(); index++) {
-                Node candidate = candidateList.get(index).clone();
-                // For all of the candidate inputs, check that there is a service already in the graph
-                // that can satisfy it
-
-                if (!checkCandidateNodeSatisfied(init, connections, newGraph, candidate, candidate.getInputs(), null)) {
-                    connections.clear();
-                	continue candidateLoop;
-                }
-
-                // Connect candidate to graph, adding its reachable services to the candidate list
+            Node candidate = queue.draw(init.random[thread]);
+            if (candidate == null)
+                throw new RuntimeException("Cannot connect any candidate to the graph.");
+
+            // Connect candidate to graph, adding its reachable services to the candidate list
+            if (newGraph.indexed != null)
+                connectCandidateToGraph(init, newGraph, candidate, currentEndInputs, thread);
+            else {
+                candidate = candidate.clone();
+                connections.clear();
+                checkCandidateNodeSatisfied(init, connections, newGraph, candidate, candidate.getInputs(), null, thread);
                 connectCandidateToGraphByInputs(candidate, connections, newGraph, currentEndInputs, init);
                 connections.clear();
-
-                if (mergedGraph != null)
-                    addToCandidateListFromEdges(candidate, mergedGraph, seenNodes, candidateList);
-                else
-                    addToCandidateList(candidate, seenNodes, relevant, candidateList, init);
-
-                break;
             }
-
-            candidateList.remove(index);
-            Collections.shuffle(candidateList, init.random);
+            queue.connected(candidate);
+
+            if (union != null)
+                union.addToCandidateList(candidate, candidateList);
+            else
+                addToCandidateList(candidate, seenNodes, relevant, candidateList, init);
+            for (; tracked < candidateList.size(); tracked++)
+                queue.add(candidateList.get(tracked));
         }
 
-        connectCandidateToGraphByInputs(end, connections, newGraph, currentEndInputs, init);
-        connections.clear();
+        if (newGraph.indexed != null)
+            connectCandidateToGraph(init, newGraph, end, currentEndInputs, thread);
+        else {
+            connections.clear();
+            checkCandidateNodeSatisfied(init, connections, newGraph, end, end.getInputs(), null, thread);
+            connectCandidateToGraphByInputs(end, connections, newGraph, currentEndInputs, init);
+            connections.clear();
+        }
         init.removeDanglingNodes(newGraph);
 	}
 
+	/**
+	 * Connects a node to the compact form of a graph by its inputs, as
+	 * checkCandidateNodeSatisfied and connectCandidateToGraphByInputs do for
+	 * the object form. The node is added unless it is in the graph already.
+	 */
+	private void connectCandidateToGraph(GraphInitializer init, GraphIndividual graph, Node candidate, IntSet currentEndInputs, int thread) {
+		IndexedGraph g = graph.indexed;
+		checkCandidateSlotSatisfied(init, g, candidate, candidate.getInputs(), null, thread);
+		int service = IndexedGraph.serviceOf(candidate);
+		int slot = g.findNode(service);
+		if (slot == -1)
+			slot = g.addNode(service, true);
+		connectSources(init, g, slot, true, thread);
+
+		IntSet outputs = candidate.getOutputs();
+		for (int i = 0; i < outputs.size(); i++) {
+			currentEndInputs.addAll(init.taxonomyNodes[outputs.get(i)].endNodeInputs);
+		}
+		graph.unused.remove(candidate);
+	}
+
+	/**
+	 * Finds the nodes of the graph (restricted to fromNodes, if given) that
+	 * satisfy each of the inputs of a candidate, and fills connections with the
+	 * edges from them. The producers are chosen in the thread's scratch space
+	 * first, so the edges are only created if every input is satisfied, and a
+	 * candidate that cannot be connected leaves connections untouched.
+	 *
+	 * @return true if every input is satisfied
+	 */
 	private boolean checkCandidateNodeSatisfied(GraphInitializer init,
 			Map<String, Edge> connections, GraphIndividual newGraph,
-			Node candidate, Set<String> candInputs, Set<Node> fromNodes) {
+			Node candidate, IntSet candInputs, Set<Node> fromNodes, int thread) {
 
-		Set<String> candidateInputs = new HashSet<String>(candInputs);
-		Set<String> startIntersect = new HashSet<String>();
+		ConstructionScratch scratch = init.scratch[thread];
+		scratch.clear();
+		IntSet candidateInputs = scratch.inputs;
+		IntSet startIntersect = scratch.startIntersect;
+		candidateInputs.addAll(candInputs);
 
 		// Check if the start node should be considered
 		Node start = newGraph.nodeMap.get("start");
 
 		if (fromNodes == null || fromNodes.contains(start)) {
-    		for(String output : start.getOutputs()) {
-    			Set<String> inputVals = init.taxonomyMap.get(output).servicesWithInput.get(candidate);
-    			if (inputVals != null) {
-    				candidateInputs.removeAll(inputVals);
-    				startIntersect.addAll(inputVals);
+			IntSet startOutputs = start.getOutputs();
+    		for(int i = 0; i < startOutputs.size(); i++) {
+    			int entry = init.serviceIndex.findConsumer(startOutputs.get(i), candidate);
+    			if (entry != -1) {
+    				for (int j = init.serviceIndex.inputsStart(entry); j < init.serviceIndex.inputsEnd(entry); j++) {
+    					candidateInputs.remove(init.serviceIndex.getInput(j));
+    					startIntersect.add(init.serviceIndex.getInput(j));
+    				}
     			}
     		}
-
-    		if (!startIntersect.isEmpty()) {
-    			Edge startEdge = new Edge(startIntersect);
-    			startEdge.setFromNode(start);
-    			startEdge.setToNode(candidate);
-    			connections.put(start.getName(), startEdge);
-    		}
 		}
 
-
-		for (String input : candidateInputs) {
+		for (int i = 0; i < candidateInputs.size(); i++) {
+			int input = candidateInputs.get(i);
 			boolean found = false;
-			for (Node s : init.taxonomyMap.get(input).servicesWithOutput) {
+			for (int entry = init.serviceIndex.producersStart(input); entry < init.serviceIndex.producersEnd(input); entry++) {
+				Node s = init.serviceIndex.getProducer(entry);
 			    if (fromNodes == null || fromNodes.contains(s)) {
-    				if (newGraph.nodeMap.containsKey(s.getName())) {
-    					Set<String> intersect = new HashSet<String>();
-    					intersect.add(input);
-
-    					Edge mapEdge = connections.get(s.getName());
-    					if (mapEdge == null) {
-    						Edge e = new Edge(intersect);
-    						e.setFromNode(newGraph.nodeMap.get(s.getName()));
-    						e.setToNode(candidate);
-    						connections.put(e.getFromNode().getName(), e);
-    					} else
-    						mapEdge.getIntersect().addAll(intersect);
-
+    				Node graphS = newGraph.nodeMap.get(s.getName());
+    				if (graphS != null) {
+    					scratch.addSource(graphS, input);
     					found = true;
     					break;
     				}
@@ -156,25 +198,170 @@ public class GraphSpecies extends Species {
 				return false;
 			}
 		}
+
+		// All inputs are satisfied, so create the edges
+		if (!startIntersect.isEmpty()) {
+			Edge startEdge = new Edge(new IntSet(startIntersect));
+			startEdge.setFromNode(start);
+			startEdge.setToNode(candidate);
+			connections.put(start.getName(), startEdge);
+		}
+		for (int i = 0; i < scratch.numSources(); i++) {
+			Node source = scratch.getSource(i);
+			Edge mapEdge = connections.get(source.getName());
+			if (mapEdge == null) {
+				IntSet intersect = new IntSet();
+				intersect.add(scratch.getSourceInput(i));
+				Edge e = new Edge(intersect);
+				e.setFromNode(source);
+				e.setToNode(candidate);
+				connections.put(source.getName(), e);
+			} else
+				mapEdge.getIntersect().add(scratch.getSourceInput(i));
+		}
+		scratch.clear();
 		return true;
 	}
 
-	private void addToCandidateListFromEdges (Node n, GraphIndividual mergedGraph, Set<Node> seenNode, List<Node> candidateList) {
-		seenNode.add(n);
+	/**
+	 * Finds the nodes of the compact form of a graph (restricted to fromSlots,
+	 * if given) that satisfy each of the inputs of a candidate, as
+	 * checkCandidateNodeSatisfied does for the object form. The producers are
+	 * left in the thread's scratch space for connectSources.
+	 *
+	 * @return true if every input is satisfied
+	 */
+	private boolean checkCandidateSlotSatisfied(GraphInitializer init, IndexedGraph g,
+			Node candidate, IntSet candInputs, GraphTraversal.Slots fromSlots, int thread) {
+
+		ConstructionScratch scratch = init.scratch[thread];
+		scratch.clear();
+		IntSet candidateInputs = scratch.inputs;
+		IntSet startIntersect = scratch.startIntersect;
+		candidateInputs.addAll(candInputs);
+
+		// Check if the start node should be considered
+		int start = g.findNode(IndexedGraph.START);
+
+		if (start != -1 && (fromSlots == null || fromSlots.contains(start))) {
+			IntSet startOutputs = init.startNode.getOutputs();
+			for(int i = 0; i < startOutputs.size(); i++) {
+				int entry = init.serviceIndex.findConsumer(startOutputs.get(i), candidate);
+				if (entry != -1) {
+					for (int j = init.serviceIndex.inputsStart(entry); j < init.serviceIndex.inputsEnd(entry); j++) {
+						candidateInputs.remove(init.serviceIndex.getInput(j));
+						startIntersect.add(init.serviceIndex.getInput(j));
+					}
+				}
+			}
+		}
 
-		Node original = mergedGraph.nodeMap.get(n.getName());
+		for (int i = 0; i < candidateInputs.size(); i++) {
+			int input = candidateInputs.get(i);
+			boolean found = false;
+			for (int entry = init.serviceIndex.producersStart(input); entry < init.serviceIndex.producersEnd(input); entry++) {
+				int slot = g.findNode(init.serviceIndex.getProducerId(entry));
+				if (slot != -1 && (fromSlots == null || fromSlots.contains(slot))) {
+					scratch.addSource(slot, input);
+					found = true;
+					break;
+				}
+			}
+			if (!found)
+				return false;
+		}
+		return true;
+	}
 
-		for (Edge e : original.getOutgoingEdgeList()) {
-			// Add servicesWithInput from taxonomy node as potential candidates to be connected
-			Node current = e.getToNode();
-			if (!seenNode.contains(current)) {
-				candidateList.add(current);
-				seenNode.add(current);
+	/**
+	 * Creates the edges into a node of the compact form of a graph from the
+	 * producers chosen by checkCandidateSlotSatisfied, one edge per producer.
+	 */
+	private void connectSources(GraphInitializer init, IndexedGraph g, int to, boolean considered, int thread) {
+		ConstructionScratch scratch = init.scratch[thread];
+		if (!scratch.startIntersect.isEmpty())
+			g.addEdge(g.findNode(IndexedGraph.START), to, new IntSet(scratch.startIntersect), considered);
+		for (int i = 0; i < scratch.numSources(); i++) {
+			int from = scratch.getSourceSlot(i);
+			boolean first = true;
+			for (int j = 0; j < i && first; j++)
+				first = scratch.getSourceSlot(j) != from;
+			if (!first)
+				continue;
+			IntSet intersect = new IntSet();
+			for (int j = i; j < scratch.numSources(); j++) {
+				if (scratch.getSourceSlot(j) == from)
+					intersect.add(scratch.getSourceInput(j));
 			}
+			g.addEdge(from, to, intersect, considered);
+		}
+		scratch.clear();
+	}
+
+	/**
+	 * Appends a service to the compact form of a graph by its inputs, as
+	 * GraphAppendPipeline and appendCandidateToGraphByInputs do for the object
+	 * form. The service and its edges are not considered.
+	 */
+	public void appendCandidateSlotByInputs(GraphInitializer init, GraphIndividual graph, Node candidate, int thread) {
+		IndexedGraph g = graph.indexed;
+		ConstructionScratch scratch = init.scratch[thread];
+		scratch.clear();
+		IntSet inputs = candidate.getInputs();
+		for (int k = 0; k < inputs.size(); k++) {
+			int i = inputs.get(k);
+			for (int entry = init.serviceIndex.producersStart(i); entry < init.serviceIndex.producersEnd(i); entry++) {
+				int slot = g.findNode(init.serviceIndex.getProducerId(entry));
+				if (slot != -1) {
+					scratch.addSource(slot, i);
+					break;
+				}
+			}
+		}
+		connectSources(init, g, appendSlot(g, candidate, graph), false, thread);
+		graph.unused.remove(candidate);
+	}
+
+	/**
+	 * Appends a service to the compact form of a graph by its outputs, as
+	 * GraphAppendPipeline and appendCandidateToGraphByOutputs do for the object
+	 * form: each output feeds the first consumer in the graph that is not fed
+	 * by the service already.
+	 */
+	public void appendCandidateSlotByOutputs(GraphInitializer init, GraphIndividual graph, Node candidate) {
+		IndexedGraph g = graph.indexed;
+		int slot = appendSlot(g, candidate, graph);
+		GraphTraversal.Slots connected = new GraphTraversal.Slots();
+		IntSet outputs = candidate.getOutputs();
+		for (int k = 0; k < outputs.size(); k++) {
+			int o = outputs.get(k);
+			for (int entry = init.serviceIndex.consumersStart(o); entry < init.serviceIndex.consumersEnd(o); entry++) {
+				int to = g.findNode(init.serviceIndex.getConsumer(entry).getId());
+				if (to != -1 && to != slot && connected.add(to)) {
+					IntSet intersect = new IntSet();
+					intersect.add(o);
+					g.addEdge(slot, to, intersect, false);
+					// Move on to the next output
+					break;
+				}
+			}
+		}
+		graph.unused.remove(candidate);
+	}
+
+	// The slot of an appended service, which the set of unused services may
+	// still offer after it was added by another operator
+	private int appendSlot(IndexedGraph g, Node candidate, GraphIndividual graph) {
+		int slot = g.findNode(candidate.getId());
+		if (slot == -1) {
+			slot = g.addNode(candidate.getId(), false);
+			if (graph.change != null)
+				graph.change.addNode(candidate);
 		}
+		return slot;
 	}
 
-	public void connectCandidateToGraphByInputs(Node candidate, Map<String,Edge> connections, GraphIndividual graph, Set<String> currentEndInputs, GraphInitializer init) {
+	public void connectCandidateToGraphByInputs(Node candidate, Map<String,Edge> connections, GraphIndividual graph, IntSet currentEndInputs, GraphInitializer init) {
 
 		graph.nodeMap.put(candidate.getName(), candidate);
 		graph.considerableNodeMap.put(candidate.getName(), candidate);
@@ -186,14 +373,15 @@ public class GraphSpecies extends Species {
 			Node fromNode = graph.nodeMap.get(e.getFromNode().getName());
 			fromNode.getOutgoingEdgeList().add(e);
 		}
-		for (String o : candidate.getOutputs()) {
-			currentEndInputs.addAll(init.taxonomyMap.get(o).endNodeInputs);
+		IntSet outputs = candidate.getOutputs();
+		for (int i = 0; i < outputs.size(); i++) {
+			currentEndInputs.addAll(init.taxonomyNodes[outputs.get(i)].endNodeInputs);
 		}
 		graph.unused.remove(candidate);
 	}
 
 	public void appendCandidateToGraphByInputs(Node candidate, Map<String,Edge> connections, GraphIndividual graph) {
-		graph.nodeMap.put(candidate.getName(), candidate);
+		recordAppend(graph.nodeMap.put(candidate.getName(), candidate), candidate, graph);
 		graph.edgeList.addAll(connections.values());
 		candidate.getIncomingEdgeList().addAll(connections.values());
 
@@ -205,7 +393,7 @@ public class GraphSpecies extends Species {
 	}
 
 	public void appendCandidateToGraphByOutputs(Node candidate, Map<String,Edge> connections, GraphIndividual graph) {
-		graph.nodeMap.put(candidate.getName(), candidate);
+		recordAppend(graph.nodeMap.put(candidate.getName(), candidate), candidate, graph);
 		graph.edgeList.addAll(connections.values());
 		candidate.getOutgoingEdgeList().addAll(connections.values());
 
@@ -216,21 +404,22 @@ public class GraphSpecies extends Species {
 		graph.unused.remove(candidate);
 	}
 
-	public void addToCandidateList(Node n, Set<Node> seenNode, Set<Node> relevant, List<Node> candidateList, GraphInitializer init) {
-		seenNode.add(n);
-		List<TaxonomyNode> taxonomyOutputs;
-		if (n.getName().equals("start")) {
-			taxonomyOutputs = new ArrayList<TaxonomyNode>();
-			for (String outputVal : n.getOutputs()) {
-				taxonomyOutputs.add(init.taxonomyMap.get(outputVal));
-			}
+	private void recordAppend(Node replaced, Node candidate, GraphIndividual graph) {
+		if (graph.change != null) {
+			if (replaced != null)
+				graph.change.removeNode(replaced);
+			graph.change.addNode(candidate);
 		}
-		else
-			taxonomyOutputs = init.serviceMap.get(n.getName()).getTaxonomyOutputs();
+	}
 
-		for (TaxonomyNode t : taxonomyOutputs) {
-			// Add servicesWithInput from taxonomy node as potential candidates to be connected
-			for (Node current : t.servicesWithInput.keySet()) {
+	public void addToCandidateList(Node n, Set<Node> seenNode, ServicePool relevant, List<Node> candidateList, GraphInitializer init) {
+		seenNode.add(n);
+		IntSet outputs = n.getOutputs();
+		for (int i = 0; i < outputs.size(); i++) {
+			int output = outputs.get(i);
+			// Add consumers of the output as potential candidates to be connected
+			for (int entry = init.serviceIndex.consumersStart(output); entry < init.serviceIndex.consumersEnd(output); entry++) {
+				Node current = init.serviceIndex.getConsumer(entry);
 				if (!seenNode.contains(current) && relevant.contains(current)) {
 					candidateList.add(current);
 					seenNode.add(current);
@@ -239,24 +428,26 @@ public class GraphSpecies extends Species {
 		}
 	}
 
-    public boolean checkNewGraphNode(GraphInitializer init, GraphIndividual graph, Node n, String input, Map<String,Edge> connections, Set<Node> fromNodes) {
+    public boolean checkNewGraphNode(GraphInitializer init, GraphIndividual graph, Node n, int input, Map<String,Edge> connections, Set<Node> fromNodes, int thread) {
     	boolean foundMatch = false;
 
     	// Check if start node should be considered as a candidate
     	Node start = graph.nodeMap.get("start");
     	if(fromNodes.contains(start)) {
 
-    	    Set<String> startIntersect = new HashSet<String>();
+    	    IntSet startIntersect = init.scratch[thread].startIntersect;
+    	    startIntersect.clear();
 
-            for(String output : start.getOutputs()) {
-                Set<String> inputVals = init.taxonomyMap.get(output).servicesWithInput.get(n);
-                if (inputVals != null) {
-                    startIntersect.addAll(inputVals);
+    	    IntSet startOutputs = start.getOutputs();
+            for(int i = 0; i < startOutputs.size(); i++) {
+                int entry = init.serviceIndex.findConsumer(startOutputs.get(i), n);
+                if (entry != -1) {
+                    init.serviceIndex.addInputs(entry, startIntersect);
                 }
             }
 
             if (!startIntersect.isEmpty()) {
-                Edge startEdge = new Edge(startIntersect);
+                Edge startEdge = new Edge(new IntSet(startIntersect));
                 startEdge.setFromNode(start);
                 startEdge.setToNode(n);
                 connections.put(start.getName(), startEdge);
@@ -264,24 +455,25 @@ public class GraphSpecies extends Species {
             }
     	}
 
-    	for (Node candidate : init.taxonomyMap.get(input).servicesWithOutput){
+    	for (int entry = init.serviceIndex.producersStart(input); entry < init.serviceIndex.producersEnd(input); entry++) {
+    		Node candidate = init.serviceIndex.getProducer(entry);
     		if (fromNodes.contains(candidate)) {
 
     			Node graphC = graph.nodeMap.get(candidate.getName());
-    			Set<String> intersect = new HashSet<String>();
-                intersect.add(input);
 
                 Edge mapEdge = connections.get(graphC.getName());
                 foundMatch = true;
 
                 if (mapEdge == null) {
+                    IntSet intersect = new IntSet();
+                    intersect.add(input);
                     Edge e = new Edge(intersect);
                     e.setFromNode(graph.nodeMap.get(graphC.getName()));
                     e.setToNode(n);
                     connections.put(e.getFromNode().getName(), e);
                 }
                 else
-                    mapEdge.getIntersect().addAll(intersect);
+                    mapEdge.getIntersect().add(input);
 
                 break;
     		}
@@ -289,10 +481,10 @@ public class GraphSpecies extends Species {
     	return foundMatch;
     }
 
-    public void fitMutatedSubgraph(GraphInitializer init, GraphIndividual graph, GraphIndividual subgraph, Map<Node, Set<String>> disconnectedInput, Set<Node> disconnectedOutput){
+    public void fitMutatedSubgraph(GraphInitializer init, GraphIndividual graph, GraphIndividual subgraph, Map<Node, IntSet> disconnectedInput, Set<Node> disconnectedOutput, int thread){
 
         // Add subgraph to main graph
-        Map<Node, Set<String>> firstSubgraphLayer = new HashMap<Node, Set<String>>();
+        Map<Node, IntSet> firstSubgraphLayer = new HashMap<Node, IntSet>();
         Set<Node> lastSubgraphLayer = new HashSet<Node>();
 
         for (Node n : subgraph.nodeMap.values()) {
@@ -300,6 +492,8 @@ public class GraphSpecies extends Species {
                 Node newN = n.clone();
                 graph.nodeMap.put( newN.getName(), newN );
                 graph.considerableNodeMap.put( newN.getName(), newN );
+                if (graph.change != null)
+                    graph.change.addNode( newN );
             }
         }
 
@@ -324,12 +518,12 @@ public class GraphSpecies extends Species {
         // Match first subgraph layer with nodes from main graph whose output has been disconnected
         Map<String,Edge> connections = new HashMap<String,Edge>();
 
-        for (Entry <Node, Set<String>> entry: firstSubgraphLayer.entrySet()) {
+        for (Entry <Node, IntSet> entry: firstSubgraphLayer.entrySet()) {
             connections.clear();
             Node n = graph.nodeMap.get( entry.getKey().getName() );
 
             // Find all input connections
-            if (!checkCandidateNodeSatisfied(init, connections, graph, n, entry.getValue(), disconnectedOutput))
+            if (!checkCandidateNodeSatisfied(init, connections, graph, n, entry.getValue(), disconnectedOutput, thread))
                 throw new RuntimeException("Cannot satisfy subgraph outputs.");
 
             // Connect it to graph
@@ -342,11 +536,13 @@ public class GraphSpecies extends Species {
         }
 
         // Match last subgraph layer with nodes from main graph whose input has been disconnected
-        for (Entry<Node, Set<String>> entry : disconnectedInput.entrySet()) {
+        for (Entry<Node, IntSet> entry : disconnectedInput.entrySet()) {
             connections.clear();
+            if (graph.change != null)
+                graph.change.rewireNode( entry.getKey() );
 
             // Find all input connections
-            if (!checkCandidateNodeSatisfied(init, connections, graph, entry.getKey(), entry.getValue(), lastSubgraphLayer))
+            if (!checkCandidateNodeSatisfied(init, connections, graph, entry.getKey(), entry.getValue(), lastSubgraphLayer, thread))
                 throw new RuntimeException("Cannot satisfy subgraph outputs.");
 
             // Connect it to graph
@@ -359,209 +555,78 @@ public class GraphSpecies extends Species {
         }
     }
 
-    private void addNewGraphEdge(Edge e, GraphIndividual destGraph){
-        Edge newE = new Edge(e.getIntersect());
-        newE.setFromNode( destGraph.nodeMap.get( e.getFromNode().getName() ) );
-        newE.setToNode( destGraph.nodeMap.get( e.getToNode().getName() ) );
-
-        destGraph.nodeMap.get( e.getFromNode().getName() ).getOutgoingEdgeList().add(newE);
-        destGraph.nodeMap.get( e.getToNode().getName() ).getIncomingEdgeList().add(newE);
-
-        destGraph.edgeList.add(newE);
-        destGraph.considerableEdgeList.add(newE);
-    }
-
-    public Set<Node> selectNodes(Node root, int numNodes) {
-
-    	Set<Node> nodes = new HashSet<Node>();
-
-        Queue<Node> queue = new LinkedList<Node>();
-        queue.offer( root );
-
-        for (int i = 0; i < numNodes; i++) {
-             Node current = queue.poll();
-
-             if(current == null || current.getName().equals( "end" )){
-                 break;
-             }
-             else {
-                 nodes.add(current);
-                 for(Edge e : current.getOutgoingEdgeList()){
-
-                	 // Check that node is entirely fulfilled by nodes already selected
-                	 boolean isInternal = true;
-                	 for (Edge incomingList : e.getToNode().getIncomingEdgeList()) {
-                		 if (!nodes.contains(incomingList.getFromNode())) {
-                			isInternal = false;
-                			break;
-                		 }
-                	 }
-
-                     if (isInternal) {
-                         queue.offer( e.getToNode() );
-                     }
-                 }
-             }
-        }
-        return nodes;
-    }
-
-	//==========================================================================================================================
-	//                                                 Debugging Routines
-	//==========================================================================================================================
-
-    public boolean structureValidator1( GraphIndividual graph ) {
-        for ( Edge e : graph.edgeList ) {
-            //Node fromNode = e.getFromNode();
-            Node fromNode = graph.nodeMap.get( e.getFromNode().getName());
-
-            boolean isContained = false;
-            for ( Edge outEdge : fromNode.getOutgoingEdgeList() ) {
-                if ( e == outEdge ) {
-                    isContained = true;
-                    break;
-                }
-            }
-
-            if ( !isContained ) {
-                System.out.println( "Outgoing edge for node " + fromNode.getName() + " not detected." );
-                return false;
-            }
-
-            //Node toNode = e.getToNode();
-            Node toNode = graph.nodeMap.get( e.getToNode().getName());
+    /**
+     * Adds a subgraph to the compact form of a graph, as fitMutatedSubgraph does
+     * for the object form. The nodes of the graph whose inputs were disconnected
+     * are given by slot, with the inputs each of them requires.
+     */
+    public void fitMutatedSubgraph(GraphInitializer init, GraphIndividual graph, GraphIndividual subgraph, GraphTraversal.Slots disconnectedInput,
+            IntSet[] requiredInputs, GraphTraversal.Slots disconnectedOutput, int thread) {
+        IndexedGraph g = graph.indexed;
 
-            isContained = false;
-            for ( Edge inEdge : toNode.getIncomingEdgeList() ) {
-                if ( e == inEdge ) {
-                    isContained = true;
-                    break;
-                }
-            }
+        // Add subgraph to main graph
+        List<Node> firstSubgraphLayer = new ArrayList<Node>();
+        List<IntSet> firstSubgraphInputs = new ArrayList<IntSet>();
+        GraphTraversal.Slots lastSubgraphLayer = new GraphTraversal.Slots();
 
-            if ( !isContained ) {
-                System.out.println( "Incoming edge for node " + toNode.getName() + " not detected." );
-                return false;
+        for (Node n : subgraph.nodeMap.values()) {
+            if (!n.getName().equals( "start" ) && !n.getName().equals( "end" )){
+                g.addNode( n.getId(), true );
+                if (graph.change != null)
+                    graph.change.addNode( n );
             }
         }
-        //System.out.println("----------------------------------------------1");
-        return true;
-    }
-
-    public boolean structureValidator2( GraphIndividual graph ) {
-        for ( Edge e : graph.considerableEdgeList ) {
-            Node fromNode = graph.considerableNodeMap.get( e.getFromNode().getName());
 
-            boolean isContained = false;
-            for ( Edge outEdge : fromNode.getOutgoingEdgeList() ) {
-                if ( e == outEdge ) {
-                    isContained = true;
-                    break;
+        // The start node of the subgraph stands for the start node of the graph,
+        // as the two have the same name
+        for (Node n : subgraph.nodeMap.values()) {
+            if(n.getName().equals( "end" )) {
+                for (Edge e : n.getIncomingEdgeList()) {
+                    lastSubgraphLayer.add(g.findNode(IndexedGraph.serviceOf(e.getFromNode())));
                 }
             }
-
-            if ( !isContained ) {
-                System.out.println( "Considerable: Outgoing edge for node " + fromNode.getName() + " not detected." );
-                return false;
-            }
-
-            Node toNode = graph.considerableNodeMap.get( e.getToNode().getName());
-
-            isContained = false;
-            for ( Edge inEdge : toNode.getIncomingEdgeList() ) {
-                if ( e == inEdge ) {
-                    isContained = true;
-                    break;
+            else{
+                for (Edge e : n.getIncomingEdgeList()){
+                    if (e.getFromNode().getName().equals( "start" )) {
+                        firstSubgraphLayer.add(n);
+                        firstSubgraphInputs.add(e.getIntersect());
+                    }
+                    else {
+                        g.addEdge(g.findNode(e.getFromNode().getId()), g.findNode(n.getId()), e.getIntersect(), true);
+                    }
                 }
             }
-
-            if ( !isContained ) {
-                System.out.println( "Considerable: Incoming edge for node " + toNode.getName() + " not detected." );
-                return false;
-            }
         }
-        //System.out.println("----------------------------------------------2");
-        return true;
-    }
 
-    /**
-     * Checks whether there are edges beginning and ending at the same node.
-     *
-     * @param graph
-     */
-    public boolean structureValidator3( GraphIndividual graph ) {
-    	for (Edge e : graph.edgeList) {
-    		if (e.getFromNode().getName().equals(e.getToNode().getName())) {
-    			System.out.println(String.format("Edge '%s' makes a loop.", e));
-    			return false;
-    		}
-    	}
-        //System.out.println("----------------------------------------------3");
-        return true;
-    }
-
-    /**
-     * Checks whether there are any duplicated edges
-     * @param graph
-     */
-    public boolean structureValidator4( GraphIndividual graph ) {
-    	for (Edge e1 : graph.edgeList) {
-    		for (Edge e2 : graph.edgeList) {
-    			if (e1 != e2 && e1.getFromNode().getName().equals(e2.getFromNode().getName()) && e1.getToNode().getName().equals(e2.getToNode().getName())) {
-    				System.out.println(String.format("Edge '%s' has a duplicate.", e1));
-    				return false;
-    			}
-    		}
-    	}
-        //System.out.println("----------------------------------------------4");
-        return true;
-    }
-
-    /**
-     * Checks if the total number of inputs provided by the incoming edges matches the total number
-     * of inputs required by a given node, across all nodes in the graph.
-     *
-     * @param graph
-     * @return
-     */
-    public boolean structureValidator5( GraphIndividual graph ) {
-    	for (Node n : graph.nodeMap.values()) {
-    		Set<String> incomingValues = new HashSet<String>();
-    		for (Edge e : n.getIncomingEdgeList()) {
-    			incomingValues.addAll(e.getIntersect());
-    		}
+        // Match first subgraph layer with nodes from main graph whose output has been disconnected
+        for (int i = 0; i < firstSubgraphLayer.size(); i++) {
+            Node n = firstSubgraphLayer.get(i);
+            if (!checkCandidateSlotSatisfied(init, g, n, firstSubgraphInputs.get(i), disconnectedOutput, thread))
+                throw new RuntimeException("Cannot satisfy subgraph outputs.");
+            connectSources(init, g, g.findNode(n.getId()), true, thread);
+        }
 
-    		if (incomingValues.size() != n.getInputs().size()) {
-    			System.out.println(String.format("Not all inputs of node '%s' are being satisfied.", n));
-    			return false;
-    		}
-    	}
-        //System.out.println("----------------------------------------------5");
-    	return true;
+        // Match last subgraph layer with nodes from main graph whose input has been disconnected
+        for (int i = 0; i < disconnectedInput.size(); i++) {
+            int slot = disconnectedInput.get(i);
+            Node n = g.getNode(slot, init);
+            if (graph.change != null)
+                graph.change.rewireNode( n );
+            if (!checkCandidateSlotSatisfied(init, g, n, requiredInputs[slot], lastSubgraphLayer, thread))
+                throw new RuntimeException("Cannot satisfy subgraph outputs.");
+            connectSources(init, g, slot, true, thread);
+        }
     }
 
-    /**
-     * Checks if our graph has start and end nodes.
-     *
-     * @param graph
-     * @return
-     */
-    public boolean structureValidator6( GraphIndividual graph ) {
-    	if (!graph.nodeMap.containsKey("start")) {
-    		System.out.println(String.format("The graph doesn't have a start node."));
-    		return false;
-    	}
-    	else if (!graph.nodeMap.containsKey("end")) {
-    		System.out.println(String.format("The graph doesn't have an end node."));
-    		return false;
-    	}
-    	return true;
-    }
+    private void addNewGraphEdge(Edge e, GraphIndividual destGraph){
+        Edge newE = new Edge(e.getIntersect());
+        newE.setFromNode( destGraph.nodeMap.get( e.getFromNode().getName() ) );
+        newE.setToNode( destGraph.nodeMap.get( e.getToNode().getName() ) );
 
-    public boolean structureValidator7( GraphIndividual graph ) {
-    	for (Node n : graph.nodeMap.values()) {
+        destGraph.nodeMap.get( e.getFromNode().getName() ).getOutgoingEdgeList().add(newE);
+        destGraph.nodeMap.get( e.getToNode().getName() ).getIncomingEdgeList().add(newE);
 
-    	}
-    	return true;
+        destGraph.edgeList.add(newE);
+        destGraph.considerableEdgeList.add(newE);
     }
 }
@@ -17,11 +17,12 @@ import ec.util.Parameter;
  */
 public class GraphStatistics extends SimpleShortStatistics {
     public int histogramLog = 0; // 0 by default means stdout
+    public int sweepLog = -1; // Opened on the first generation, if dumping
 
 //    @Override
 //    public void setup( final EvolutionState state, final Parameter base ) {
 //        super.setup( state, base );
-//        File histogramFile = GraphInitializer.histogramLogFile;
+//        File histogramFile = ((GraphInitializer) state.initializer).histogramLogFile;
 //        if ( histogramFile != null ) try {
 //            histogramLog = state.output.addLog( histogramFile, true, false, false );
 //        }
@@ -32,7 +33,7 @@ public class GraphStatistics extends SimpleShortStatistics {
 //    }
 
     public void createHistogramLog( final EvolutionState state ) {
-        File histogramFile = GraphInitializer.histogramLogFile;
+        File histogramFile = ((GraphInitializer) state.initializer).histogramLogFile;
         if ( histogramFile != null ) try {
             histogramLog = state.output.addLog( histogramFile, true, false, false );
         }
@@ -42,6 +43,23 @@ public class GraphStatistics extends SimpleShortStatistics {
         // else we�ll just keep the log at 0, which is stdout
     }
 
+    public void dumpCandidates( final EvolutionState state, File dumpFile ) {
+        if ( sweepLog == -1 ) try {
+            sweepLog = state.output.addLog( dumpFile, true, false, false );
+        }
+        catch ( IOException i ) {
+            state.output.fatal( "An IOException occurred trying to create the log " + dumpFile + ":\n" + i );
+        }
+        GraphInitializer init = (GraphInitializer) state.initializer;
+        state.output.println( String.format("# generation %d bounds %s %s %s %s %s %s %s %s", state.generation,
+                init.minAvailability, init.maxAvailability, init.minReliability, init.maxReliability,
+                init.minTime, init.maxTime, init.minCost, init.maxCost), sweepLog );
+        for (Individual ind : state.population.subpops[0].individuals) {
+            GraphIndividual graphInd = (GraphIndividual) ind;
+            state.output.println( graphInd.availability + " " + graphInd.reliability + " " + graphInd.time + " " + graphInd.cost + " " + graphInd, sweepLog );
+        }
+    }
+
     @Override
     public void postEvaluationStatistics(EvolutionState state){
         boolean output = (state.generation % modulus == 0);
@@ -179,14 +197,11 @@ public class GraphStatistics extends SimpleShortStatistics {
             //state.output.print("" + numNodes + " ", statisticslog);
             //state.output.print("" + path + " ", statisticslog);
 
-            GraphInitializer.availIdx = 0;
-            GraphInitializer.reliaIdx = 0;
-            GraphInitializer.timeIdx = 0;
-            GraphInitializer.costIdx = 0;
-            state.output.print(GraphInitializer.meanAvailPerGen[GraphInitializer.availIdx++] + " ", statisticslog);
-            state.output.print(GraphInitializer.meanReliaPerGen[GraphInitializer.reliaIdx++] + " ", statisticslog);
-            state.output.print(GraphInitializer.meanTimePerGen[GraphInitializer.timeIdx++] + " ", statisticslog);
-            state.output.print(GraphInitializer.meanCostPerGen[GraphInitializer.costIdx++] + " ", statisticslog);
+            QosSummary qos = ((GraphInitializer) state.initializer).generationQos;
+            state.output.print(qos.getMeanAvailability() + " ", statisticslog);
+            state.output.print(qos.getMeanReliability() + " ", statisticslog);
+            state.output.print(qos.getMeanTime() + " ", statisticslog);
+            state.output.print(qos.getMeanCost() + " ", statisticslog);
 
             state.output.print("" + ((GraphIndividual)popBestOfGeneration).availability + " ", statisticslog);
             state.output.print("" + ((GraphIndividual)popBestOfGeneration).reliability + " ", statisticslog);
@@ -198,11 +213,33 @@ public class GraphStatistics extends SimpleShortStatistics {
             state.output.print("" + ((GraphIndividual)popBestSoFar).time + " ", statisticslog);
             state.output.print("" + ((GraphIndividual)popBestSoFar).cost + " ", statisticslog);
 
+            // Fraction of this generation's evaluations answered by the fitness cache
+            FitnessCache cache = ((GraphInitializer) state.initializer).fitnessCache;
+            if (cache != null)
+                state.output.print("" + cache.takeHitRate() + " ", statisticslog);
+            // Fraction of this generation's repairs answered by the subgraph cache
+            SubgraphCache subgraphCache = ((GraphInitializer) state.initializer).subgraphCache;
+            if (subgraphCache != null)
+                state.output.print("" + subgraphCache.takeHitRate() + " ", statisticslog);
+            // Number of invariant violations found in this generation's offspring
+            InvariantChecker checker = ((GraphInitializer) state.initializer).invariantChecker;
+            if (checker != null)
+                state.output.print("" + checker.takeViolations() + " ", statisticslog);
+
+            // Number of non-dominated candidates found so far
+            ParetoArchive archive = ((GraphInitializer) state.initializer).paretoArchive;
+            if (archive != null)
+                state.output.print("" + archive.size() + " ", statisticslog);
             }
 
         // hook for KozaShortStatistics etc.
         if (output) printExtraPopStatisticsAfter(state);
 
+        // Keep the raw QoS and compositions of every generation for sweeping offline
+        WeightSweep sweep = ((GraphInitializer) state.initializer).weightSweep;
+        if (sweep != null && sweep.dumpFile != null)
+            dumpCandidates(state, sweep.dumpFile);
+
         // we're done!
         if (output) state.output.println("", statisticslog);
 
@@ -211,15 +248,50 @@ public class GraphStatistics extends SimpleShortStatistics {
             // Print the best candidate at the end of the run
             if (state.generation == state.parameters.getInt(new Parameter("generations"), null)-1) {
                 state.output.println(popBestSoFar.toString(), statisticslog);
+                // Name the services that were collapsed into those of the best candidate
+                GraphInitializer init = (GraphInitializer) state.initializer;
+                ((GraphIndividual) popBestSoFar).expand(init);
+                for (Node n : ((GraphIndividual) popBestSoFar).nodeMap.values()) {
+                    List<String> equivalents = init.equivalentServices.get(n.getName());
+                    if (equivalents != null)
+                        state.output.println(String.format("%s equivalent to %s", n.getName(), equivalents), statisticslog);
+                }
                 // Print individual quality attributes
                 GraphIndividual graphInd = (GraphIndividual) popBestSoFar;
                 //state.output.println(String.format("A: %.20f, R: %.20f, T: %f, C: %f", graphInd.availability, graphInd.reliability, graphInd.time, graphInd.cost), statisticslog);
 
+                // Print the Pareto front found by a multi-objective run
+                if (init.paretoArchive != null) {
+                    state.output.println(String.format("Pareto front of %d candidates:", init.paretoArchive.size()), statisticslog);
+                    for (GraphIndividual member : init.paretoArchive.getMembers()) {
+                        state.output.println(String.format("A: %s, R: %s, T: %s, C: %s", member.availability, member.reliability, member.time, member.cost), statisticslog);
+                        state.output.println(member.toString(), statisticslog);
+                    }
+                }
+
+
+                // Re-score the final population and the Pareto front under the weight sweep
+                if (init.weightSweep != null && init.weightSweep.size() > 0) {
+                    List<GraphIndividual> candidates = new ArrayList<GraphIndividual>();
+                    for (Individual ind : state.population.subpops[0].individuals)
+                        candidates.add((GraphIndividual) ind);
+                    if (init.paretoArchive != null)
+                        candidates.addAll(init.paretoArchive.getMembers());
+                    double[] scores = new double[init.weightSweep.size()];
+                    GraphIndividual[] best = init.weightSweep.findBest(candidates, init, scores);
+                    for (int i = 0; i < best.length; i++) {
+                        double[] w = init.weightSweep.weights[i];
+                        state.output.println(String.format("Weights %s %s %s %s (%s normalisation): fitness %s, A: %s, R: %s, T: %s, C: %s",
+                                w[0], w[1], w[2], w[3], init.weightSweep.normalisations[i], scores[i],
+                                best[i].availability, best[i].reliability, best[i].time, best[i].cost), statisticslog);
+                        state.output.println(best[i].toString(), statisticslog);
+                    }
+                }
 
                 createHistogramLog(state);
 
                 // Write node histogram
-                List<String> keyList = new ArrayList<String>(GraphInitializer.nodeCount.keySet());
+                List<String> keyList = new ArrayList<String>(init.nodeCount.keySet());
                 Collections.sort( keyList );
 
                 for (String key : keyList)
@@ -227,11 +299,11 @@ public class GraphStatistics extends SimpleShortStatistics {
                 state.output.println( "", histogramLog );
 
                 for (String key : keyList)
-                    state.output.print( String.format("%d ", GraphInitializer.nodeCount.get( key )), histogramLog );
+                    state.output.print( String.format("%d ", init.nodeCount.get( key )), histogramLog );
                 state.output.println( "", histogramLog );
 
                 // Write edge histogram
-                List<String> edgeList = new ArrayList<String>(GraphInitializer.edgeCount.keySet());
+                List<String> edgeList = new ArrayList<String>(init.edgeCount.keySet());
                 Collections.sort( edgeList );
 
                 for (String key : edgeList)
@@ -239,7 +311,7 @@ public class GraphStatistics extends SimpleShortStatistics {
                 state.output.println( "", histogramLog );
 
                 for (String key : edgeList)
-                    state.output.print( String.format("%d ", GraphInitializer.edgeCount.get( key )) , histogramLog);
+                    state.output.print( String.format("%d ", init.edgeCount.get( key )) , histogramLog);
                 state.output.println( "", histogramLog );
             }
         }
@@ -21,7 +21,7 @@ public class GraphStatisticsNoQoS extends SimpleShortStatistics {
 //    @Override
 //    public void setup( final EvolutionState state, final Parameter base ) {
 //        super.setup( state, base );
-//        File histogramFile = GraphInitializer.histogramLogFile;
+//        File histogramFile = ((GraphInitializer) state.initializer).histogramLogFile;
 //        if ( histogramFile != null ) try {
 //            histogramLog = state.output.addLog( histogramFile, true, false, false );
 //        }
@@ -32,7 +32,7 @@ public class GraphStatisticsNoQoS extends SimpleShortStatistics {
 //    }
 
     public void createHistogramLog( final EvolutionState state ) {
-        File histogramFile = GraphInitializer.histogramLogFile;
+        File histogramFile = ((GraphInitializer) state.initializer).histogramLogFile;
         if ( histogramFile != null ) try {
             histogramLog = state.output.addLog( histogramFile, true, false, false );
         }
@@ -179,14 +179,11 @@ public class GraphStatisticsNoQoS extends SimpleShortStatistics {
             state.output.print("" + numNodes + " ", statisticslog);
             state.output.print("" + path + " ", statisticslog);
 
-            GraphInitializer.availIdx = 0;
-            GraphInitializer.reliaIdx = 0;
-            GraphInitializer.timeIdx = 0;
-            GraphInitializer.costIdx = 0;
-//            state.output.print(GraphInitializer.meanAvailPerGen[GraphInitializer.availIdx++] + " ", statisticslog);
-//            state.output.print(GraphInitializer.meanReliaPerGen[GraphInitializer.reliaIdx++] + " ", statisticslog);
-//            state.output.print(GraphInitializer.meanTimePerGen[GraphInitializer.timeIdx++] + " ", statisticslog);
-//            state.output.print(GraphInitializer.meanCostPerGen[GraphInitializer.costIdx++] + " ", statisticslog);
+//            QosSummary qos = ((GraphInitializer) state.initializer).generationQos;
+//            state.output.print(qos.getMeanAvailability() + " ", statisticslog);
+//            state.output.print(qos.getMeanReliability() + " ", statisticslog);
+//            state.output.print(qos.getMeanTime() + " ", statisticslog);
+//            state.output.print(qos.getMeanCost() + " ", statisticslog);
 
 //            state.output.print("" + ((GraphIndividual)popBestOfGeneration).availability + " ", statisticslog);
 //            state.output.print("" + ((GraphIndividual)popBestOfGeneration).reliability + " ", statisticslog);
@@ -198,6 +195,18 @@ public class GraphStatisticsNoQoS extends SimpleShortStatistics {
 //            state.output.print("" + ((GraphIndividual)popBestSoFar).time + " ", statisticslog);
 //            state.output.print("" + ((GraphIndividual)popBestSoFar).cost + " ", statisticslog);
 
+            // Fraction of this generation's evaluations answered by the fitness cache
+            FitnessCache cache = ((GraphInitializer) state.initializer).fitnessCache;
+            if (cache != null)
+                state.output.print("" + cache.takeHitRate() + " ", statisticslog);
+            // Fraction of this generation's repairs answered by the subgraph cache
+            SubgraphCache subgraphCache = ((GraphInitializer) state.initializer).subgraphCache;
+            if (subgraphCache != null)
+                state.output.print("" + subgraphCache.takeHitRate() + " ", statisticslog);
+            // Number of invariant violations found in this generation's offspring
+            InvariantChecker checker = ((GraphInitializer) state.initializer).invariantChecker;
+            if (checker != null)
+                state.output.print("" + checker.takeViolations() + " ", statisticslog);
             }
 
         // hook for KozaShortStatistics etc.
@@ -211,6 +220,14 @@ public class GraphStatisticsNoQoS extends SimpleShortStatistics {
             // Print the best candidate at the end of the run
             if (state.generation == state.parameters.getInt(new Parameter("generations"), null)-1) {
                 state.output.println(popBestSoFar.toString(), statisticslog);
+                // Name the services that were collapsed into those of the best candidate
+                GraphInitializer init = (GraphInitializer) state.initializer;
+                ((GraphIndividual) popBestSoFar).expand(init);
+                for (Node n : ((GraphIndividual) popBestSoFar).nodeMap.values()) {
+                    List<String> equivalents = init.equivalentServices.get(n.getName());
+                    if (equivalents != null)
+                        state.output.println(String.format("%s equivalent to %s", n.getName(), equivalents), statisticslog);
+                }
                 // Print individual quality attributes
                 GraphIndividual graphInd = (GraphIndividual) popBestSoFar;
                 //state.output.println(String.format("A: %.20f, R: %.20f, T: %f, C: %f", graphInd.availability, graphInd.reliability, graphInd.time, graphInd.cost), statisticslog);
@@ -219,7 +236,7 @@ public class GraphStatisticsNoQoS extends SimpleShortStatistics {
                 createHistogramLog(state);
 
                 // Write node histogram
-                List<String> keyList = new ArrayList<String>(GraphInitializer.nodeCount.keySet());
+                List<String> keyList = new ArrayList<String>(init.nodeCount.keySet());
                 Collections.sort( keyList );
 
                 for (String key : keyList)
@@ -227,11 +244,11 @@ public class GraphStatisticsNoQoS extends SimpleShortStatistics {
                 state.output.println( "", histogramLog );
 
                 for (String key : keyList)
-                    state.output.print( String.format("%d ", GraphInitializer.nodeCount.get( key )), histogramLog );
+                    state.output.print( String.format("%d ", init.nodeCount.get( key )), histogramLog );
                 state.output.println( "", histogramLog );
 
                 // Write edge histogram
-                List<String> edgeList = new ArrayList<String>(GraphInitializer.edgeCount.keySet());
+                List<String> edgeList = new ArrayList<String>(init.edgeCount.keySet());
                 Collections.sort( edgeList );
 
                 for (String key : edgeList)
@@ -239,7 +256,7 @@ public class GraphStatisticsNoQoS extends SimpleShortStatistics {
                 state.output.println( "", histogramLog );
 
                 for (String key : edgeList)
-                    state.output.print( String.format("%d ", GraphInitializer.edgeCount.get( key )) , histogramLog);
+                    state.output.print( String.format("%d ", init.edgeCount.get( key )) , histogramLog);
                 state.output.println( "", histogramLog );
             }
         }
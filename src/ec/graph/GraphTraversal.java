@@ -0,0 +1,329 @@
+package ec.graph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Traversals of a graph, shared by the operators, over either its object form
+ * or its compact form (IndexedGraph). All are iterative, so their depth is not
+ * limited by the stack, and mark the nodes they visit in a bitset, so that no
+ * node is visited twice however many paths lead to it.
+ *
+ * In the object form, nodes are marked by the dense id of their service (see
+ * ServiceIndex), with two extra slots for the start and end nodes, so nodes
+ * with the same name are the same node to a traversal, as they are to the node
+ * maps of a graph. In the compact form, they are marked by their slot.
+ */
+public class GraphTraversal {
+
+	/**
+	 * Nodes visited by a traversal, in the order they were visited.
+	 */
+	public static class Visit implements Iterable<Node> {
+		private final BitSet marked = new BitSet();
+		private final List<Node> order = new ArrayList<Node>();
+
+		public boolean contains(Node n) {
+			return marked.get(slot(n));
+		}
+
+		boolean add(Node n) {
+			int slot = slot(n);
+			if (marked.get(slot))
+				return false;
+			marked.set(slot);
+			order.add(n);
+			return true;
+		}
+
+		public int size() {
+			return order.size();
+		}
+
+		public List<Node> getOrder() {
+			return order;
+		}
+
+		@Override
+		public Iterator<Node> iterator() {
+			return order.iterator();
+		}
+	}
+
+	/**
+	 * Slots of a compact graph visited by a traversal, in the order they were
+	 * visited. Used for node slots, and for the edge slots of a frontier.
+	 */
+	public static class Slots {
+		private final BitSet marked = new BitSet();
+		private int[] order = new int[16];
+		private int size;
+
+		public boolean contains(int slot) {
+			return marked.get(slot);
+		}
+
+		boolean add(int slot) {
+			if (marked.get(slot))
+				return false;
+			marked.set(slot);
+			if (size == order.length)
+				order = Arrays.copyOf(order, size * 2);
+			order[size++] = slot;
+			return true;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int get(int i) {
+			return order[i];
+		}
+	}
+
+	static int slot(Node n) {
+		int id = n.getId();
+		if (id >= 0)
+			return id + 2;
+		return n.getName().equals("start") ? 0 : 1;
+	}
+
+	/**
+	 * Breadth-first search along outgoing edges.
+	 *
+	 * @param root
+	 * @return the root and every node reachable from it
+	 */
+	public static Visit downstream(Node root) {
+		Visit visit = new Visit();
+		ArrayDeque<Node> queue = new ArrayDeque<Node>();
+		visit.add(root);
+		queue.add(root);
+		while (!queue.isEmpty()) {
+			for (Edge e : queue.poll().getOutgoingEdgeList()) {
+				if (visit.add(e.getToNode()))
+					queue.add(e.getToNode());
+			}
+		}
+		return visit;
+	}
+
+	/**
+	 * Reverse work-list over out-degrees: finds the nodes without outgoing
+	 * edges, other than end, and in turn the nodes whose outgoing edges all
+	 * lead to nodes already found. The graph is not changed.
+	 *
+	 * @param nodes the nodes of a graph
+	 * @return the nodes found, in the order they were found
+	 */
+	public static Visit dangling(Iterable<Node> nodes) {
+		Visit visit = new Visit();
+		ArrayDeque<Node> queue = new ArrayDeque<Node>();
+		for (Node n : nodes) {
+			if (!n.getName().equals("end") && n.getOutgoingEdgeList().isEmpty())
+				queue.add(n);
+		}
+		// Outgoing edges left to each node, once one of them has been cut
+		BitSet counted = new BitSet();
+		int[] remaining = new int[64];
+		while (!queue.isEmpty()) {
+			Node d = queue.poll();
+			if (!visit.add(d))
+				continue;
+			for (Edge e : d.getIncomingEdgeList()) {
+				Node from = e.getFromNode();
+				int slot = slot(from);
+				if (slot >= remaining.length)
+					remaining = Arrays.copyOf(remaining, Math.max(slot + 1, remaining.length * 2));
+				if (!counted.get(slot)) {
+					counted.set(slot);
+					remaining[slot] = from.getOutgoingEdgeList().size();
+				}
+				if (--remaining[slot] == 0)
+					queue.add(from);
+			}
+		}
+		return visit;
+	}
+
+	/**
+	 * Visits nodes in topological order starting from a root, breadth first:
+	 * a node is visited once all the nodes it has incoming edges from have been.
+	 * The traversal stops when it reaches the end node or has visited the given
+	 * number of nodes.
+	 *
+	 * @param root
+	 * @param maxNodes
+	 * @return the visited nodes, excluding end
+	 */
+	public static Visit topologicalOrder(Node root, int maxNodes) {
+		Visit visit = new Visit();
+		ArrayDeque<Node> queue = new ArrayDeque<Node>();
+		queue.add(root);
+		while (visit.size() < maxNodes && !queue.isEmpty()) {
+			Node current = queue.poll();
+			if (current.getName().equals("end"))
+				break;
+			visit.add(current);
+			for (Edge e : current.getOutgoingEdgeList()) {
+				Node next = e.getToNode();
+				boolean ready = true;
+				for (Edge in : next.getIncomingEdgeList()) {
+					if (!visit.contains(in.getFromNode())) {
+						ready = false;
+						break;
+					}
+				}
+				if (ready)
+					queue.add(next);
+			}
+		}
+		return visit;
+	}
+
+	/**
+	 * Finds the edges crossing the boundary of a set of visited nodes, in the
+	 * order of the nodes.
+	 *
+	 * @param inside
+	 * @param incoming receives the edges from other nodes into the set, if not null
+	 * @param outgoing receives the edges from the set to other nodes, if not null
+	 */
+	public static void frontier(Visit inside, List<Edge> incoming, List<Edge> outgoing) {
+		for (Node n : inside) {
+			if (incoming != null) {
+				for (Edge e : n.getIncomingEdgeList()) {
+					if (!inside.contains(e.getFromNode()))
+						incoming.add(e);
+				}
+			}
+			if (outgoing != null) {
+				for (Edge e : n.getOutgoingEdgeList()) {
+					if (!inside.contains(e.getToNode()))
+						outgoing.add(e);
+				}
+			}
+		}
+	}
+
+	//==========================================================================================================================
+	//                                                 Compact form
+	//==========================================================================================================================
+
+	/**
+	 * Breadth-first search along outgoing edges, as downstream(Node).
+	 */
+	public static Slots downstream(IndexedGraph g, int root) {
+		Slots visit = new Slots();
+		visit.add(root);
+		for (int i = 0; i < visit.size(); i++) {
+			for (int e = g.firstOut(visit.get(i)); e != -1; e = g.nextOut(e))
+				visit.add(g.getTo(e));
+		}
+		return visit;
+	}
+
+	/**
+	 * Reverse work-list over out-degrees, as dangling(Iterable). The graph is
+	 * not changed.
+	 */
+	public static Slots dangling(IndexedGraph g) {
+		Slots visit = new Slots();
+		int[] queue = new int[16];
+		int head = 0, tail = 0;
+		for (int slot = 0; slot < g.getNodeSlots(); slot++) {
+			if (g.isNode(slot) && g.getService(slot) != IndexedGraph.END && g.firstOut(slot) == -1) {
+				if (tail == queue.length)
+					queue = Arrays.copyOf(queue, tail * 2);
+				queue[tail++] = slot;
+			}
+		}
+		BitSet counted = new BitSet();
+		int[] remaining = new int[g.getNodeSlots()];
+		while (head < tail) {
+			int d = queue[head++];
+			if (!visit.add(d))
+				continue;
+			for (int e = g.firstIn(d); e != -1; e = g.nextIn(e)) {
+				int from = g.getFrom(e);
+				if (!counted.get(from)) {
+					counted.set(from);
+					for (int out = g.firstOut(from); out != -1; out = g.nextOut(out))
+						remaining[from]++;
+				}
+				if (--remaining[from] == 0) {
+					if (tail == queue.length)
+						queue = Arrays.copyOf(queue, tail * 2);
+					queue[tail++] = from;
+				}
+			}
+		}
+		return visit;
+	}
+
+	/**
+	 * Visits node slots in topological order starting from a root, as
+	 * topologicalOrder(Node, int).
+	 *
+	 * @return the visited slots, excluding end
+	 */
+	public static Slots topologicalOrder(IndexedGraph g, int root, int maxNodes) {
+		Slots visit = new Slots();
+		int[] queue = new int[16];
+		int head = 0, tail = 0;
+		queue[tail++] = root;
+		while (visit.size() < maxNodes && head < tail) {
+			int current = queue[head++];
+			if (g.getService(current) == IndexedGraph.END)
+				break;
+			visit.add(current);
+			for (int e = g.firstOut(current); e != -1; e = g.nextOut(e)) {
+				int next = g.getTo(e);
+				boolean ready = true;
+				for (int in = g.firstIn(next); in != -1; in = g.nextIn(in)) {
+					if (!visit.contains(g.getFrom(in))) {
+						ready = false;
+						break;
+					}
+				}
+				if (ready) {
+					if (tail == queue.length)
+						queue = Arrays.copyOf(queue, tail * 2);
+					queue[tail++] = next;
+				}
+			}
+		}
+		return visit;
+	}
+
+	/**
+	 * Finds the edges crossing the boundary of a set of visited node slots, as
+	 * frontier(Visit, List, List).
+	 *
+	 * @param inside
+	 * @param incoming receives the edges from other nodes into the set, if not null
+	 * @param outgoing receives the edges from the set to other nodes, if not null
+	 */
+	public static void frontier(IndexedGraph g, Slots inside, Slots incoming, Slots outgoing) {
+		for (int i = 0; i < inside.size(); i++) {
+			int slot = inside.get(i);
+			if (incoming != null) {
+				for (int e = g.firstIn(slot); e != -1; e = g.nextIn(e)) {
+					if (!inside.contains(g.getFrom(e)))
+						incoming.add(e);
+				}
+			}
+			if (outgoing != null) {
+				for (int e = g.firstOut(slot); e != -1; e = g.nextOut(e)) {
+					if (!inside.contains(g.getTo(e)))
+						outgoing.add(e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package ec.graph;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Union of the nodes and edges of two parent graphs, from which
+ * GraphMergePipeline builds a child. Building the child only needs to know
+ * which nodes follow each node in either parent, so the union is kept as
+ * successor lists over the parents' own nodes, instead of as a graph of cloned
+ * nodes and edges.
+ *
+ * As removeDanglingNodes does for a graph, nodes left without successors in
+ * the union, other than end, are dropped, and in turn the nodes whose
+ * successors were all dropped, so they are never offered as candidates.
+ *
+ * There is one instance per breeding thread (GraphInitializer.graphUnion),
+ * which holds the union of one pair of parents at a time. Nodes are handled by
+ * their position in the union, found from their slot (see GraphTraversal), and
+ * the per-node state is marked with the number of the current union or node,
+ * so that it does not need to be cleared between unions.
+ */
+public class GraphUnion {
+	// Position of each slot in the union, valid if marked with the current union
+	private final int[] localOf;
+	private final int[] localMark;
+	private int mark;
+
+	private Node[] nodes = new Node[64];
+	private int numNodes;
+	private int[] succStart = new int[65];
+	private int[] succ = new int[128];
+	private int numEdges;
+	private int[] predStart = new int[65];
+	private int[] pred = new int[128];
+
+	// Number of the node whose successors last reached each node
+	private int[] listedBy = new int[64];
+	private int stamp;
+	private int[] outDegree = new int[64];
+	private int[] queue = new int[64];
+	// Nodes dropped or offered as candidates, marked with the current union
+	private int[] dropped = new int[64];
+	private int[] seen = new int[64];
+
+	/**
+	 * @param numServices the number of services in the service index
+	 */
+	public GraphUnion(int numServices) {
+		localOf = new int[numServices + 2];
+		localMark = new int[numServices + 2];
+	}
+
+	/**
+	 * Forms the union of two graphs, in either form, replacing the previous one.
+	 *
+	 * @param g1
+	 * @param g2
+	 * @param init
+	 */
+	public void build(GraphIndividual g1, GraphIndividual g2, GraphInitializer init) {
+		mark++;
+		numNodes = 0;
+		numEdges = 0;
+		addNodes(g1, init);
+		addNodes(g2, init);
+		growNodeArrays();
+
+		// Successors of each node in either parent, without repeats
+		for (int i = 0; i < numNodes; i++) {
+			succStart[i] = numEdges;
+			stamp++;
+			addSuccessors(g1, nodes[i]);
+			addSuccessors(g2, nodes[i]);
+			outDegree[i] = numEdges - succStart[i];
+		}
+		succStart[numNodes] = numEdges;
+
+		// Predecessors, to propagate the dropping of nodes backwards
+		if (pred.length < numEdges)
+			pred = new int[succ.length];
+		Arrays.fill(predStart, 0, numNodes + 1, 0);
+		for (int e = 0; e < numEdges; e++)
+			predStart[succ[e] + 1]++;
+		for (int i = 0; i < numNodes; i++)
+			predStart[i + 1] += predStart[i];
+		for (int i = 0; i < numNodes; i++) {
+			for (int e = succStart[i]; e < succStart[i + 1]; e++)
+				pred[predStart[succ[e]]++] = i;
+		}
+		for (int i = numNodes; i > 0; i--)
+			predStart[i] = predStart[i - 1];
+		predStart[0] = 0;
+
+		dropDangling();
+	}
+
+	private void addNodes(GraphIndividual g, GraphInitializer init) {
+		if (g.indexed != null) {
+			IndexedGraph indexed = g.indexed;
+			for (int slot = 0; slot < indexed.getNodeSlots(); slot++) {
+				if (indexed.isNode(slot))
+					addNode(indexed.getNode(slot, init));
+			}
+		}
+		else {
+			for (Node n : g.nodeMap.values())
+				addNode(n);
+		}
+	}
+
+	private void addNode(Node n) {
+		int slot = GraphTraversal.slot(n);
+		if (localMark[slot] == mark)
+			return;
+		localMark[slot] = mark;
+		localOf[slot] = numNodes;
+		if (numNodes == nodes.length)
+			nodes = Arrays.copyOf(nodes, numNodes * 2);
+		nodes[numNodes++] = n;
+	}
+
+	private void growNodeArrays() {
+		if (listedBy.length < numNodes) {
+			int size = nodes.length;
+			succStart = new int[size + 1];
+			predStart = new int[size + 1];
+			listedBy = Arrays.copyOf(listedBy, size);
+			outDegree = new int[size];
+			queue = new int[size];
+			dropped = Arrays.copyOf(dropped, size);
+			seen = Arrays.copyOf(seen, size);
+		}
+	}
+
+	private void addSuccessors(GraphIndividual g, Node n) {
+		if (g.indexed != null) {
+			IndexedGraph indexed = g.indexed;
+			int slot = indexed.findNode(IndexedGraph.serviceOf(n));
+			if (slot == -1)
+				return;
+			for (int e = indexed.firstOut(slot); e != -1; e = indexed.nextOut(e))
+				addSuccessor(indexOf(indexed.getService(indexed.getTo(e))));
+		}
+		else {
+			Node graphN = g.nodeMap.get(n.getName());
+			if (graphN == null)
+				return;
+			for (Edge e : graphN.getOutgoingEdgeList())
+				addSuccessor(indexOf(e.getToNode()));
+		}
+	}
+
+	private void addSuccessor(int t) {
+		if (t >= 0 && listedBy[t] != stamp) {
+			listedBy[t] = stamp;
+			if (numEdges == succ.length)
+				succ = Arrays.copyOf(succ, numEdges * 2);
+			succ[numEdges++] = t;
+		}
+	}
+
+	private void dropDangling() {
+		int head = 0, tail = 0;
+		for (int i = 0; i < numNodes; i++) {
+			if (outDegree[i] == 0 && !nodes[i].getName().equals("end"))
+				queue[tail++] = i;
+		}
+		while (head < tail) {
+			int i = queue[head++];
+			dropped[i] = mark;
+			for (int p = predStart[i]; p < predStart[i + 1]; p++) {
+				if (--outDegree[pred[p]] == 0)
+					queue[tail++] = pred[p];
+			}
+		}
+	}
+
+	private int indexOf(Node n) {
+		int slot = GraphTraversal.slot(n);
+		return localMark[slot] == mark ? localOf[slot] : -1;
+	}
+
+	// The position of the node for a service id, START or END
+	private int indexOf(int service) {
+		int slot = service >= 0 ? service + 2 : (service == IndexedGraph.START ? 0 : 1);
+		return localMark[slot] == mark ? localOf[slot] : -1;
+	}
+
+	/**
+	 * Offers the successors of a node in the union as candidates, as
+	 * GraphSpecies.addToCandidateList does with the services a node can feed.
+	 * Each node of the union is offered at most once, and not at all once it
+	 * has been passed here itself.
+	 *
+	 * @param n a node of the union, or a copy of it
+	 * @param candidateList
+	 */
+	public void addToCandidateList(Node n, List<Node> candidateList) {
+		int i = indexOf(n);
+		if (i < 0 || dropped[i] == mark)
+			return;
+		seen[i] = mark;
+		for (int e = succStart[i]; e < succStart[i + 1]; e++) {
+			int t = succ[e];
+			if (dropped[t] != mark && seen[t] != mark) {
+				seen[t] = mark;
+				candidateList.add(nodes[t]);
+			}
+		}
+	}
+}
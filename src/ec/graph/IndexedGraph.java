@@ -0,0 +1,739 @@
+package ec.graph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact representation of a composition graph. Nodes are identified by the
+ * dense id of their service (or START and END), and are kept in slots; edges
+ * are kept in slots too, with the adjacency held in int arrays as doubly linked
+ * lists, so that an edge is removed in constant time. The edges also form a
+ * list in insertion order, which corresponds to GraphIndividual.edgeList.
+ *
+ * Whether a node or edge is considered (i.e. would be in considerableNodeMap
+ * or considerableEdgeList) is a bit per slot.
+ *
+ * Instances attached to an individual are shared between its clones, and must
+ * not be modified once attached; an operator edits a copy instead, in which
+ * every node and edge keeps its slot.
+ *
+ * The graph also maintains a structural hash, Zobrist style: every node and
+ * edge has a pseudo-random 64-bit key derived from its service ids and its
+ * considered bit, and the hash is the XOR of the keys of all present nodes and
+ * edges, updated as they are added and removed. Graphs with the same services,
+ * connections and considered parts, which therefore have the same QoS, get the
+ * same hash regardless of the order they were built in.
+ *
+ * A second, independent check sum is kept the same way, by adding up
+ * differently mixed keys, so that users of the hash can tell graphs apart in
+ * the rare case that their hashes collide.
+ */
+public class IndexedGraph {
+	public static final int START = -1;
+	public static final int END = -2;
+	private static final int FREE = Integer.MIN_VALUE;
+	private static final int NONE = -1;
+
+	private final ServiceIndex services;
+	private long hash;
+	private long check;
+
+	// Results of evaluating this graph, kept by QosEvaluator
+	private QosEvaluator.Trace trace;
+
+	// Nodes
+	private int[] nodeService = new int[8];
+	private int[] firstOut = new int[8];
+	private int[] lastOut = new int[8];
+	private int[] firstIn = new int[8];
+	private int[] lastIn = new int[8];
+	private final BitSet nodeConsidered = new BitSet();
+	private int nodeSlots;
+	private int numNodes;
+	private int numConsideredNodes;
+	private int[] freeNodes = new int[8];
+	private int numFreeNodes;
+
+	// Service id to node slot lookup, by open addressing
+	private int[] lookupKeys = new int[16];
+	private int[] lookupSlots = new int[16];
+
+	// Edges
+	private int[] edgeFrom = new int[8];
+	private int[] edgeTo = new int[8];
+	private IntSet[] edgeIntersect = new IntSet[8];
+	private int[] nextOut = new int[8];
+	private int[] prevOut = new int[8];
+	private int[] nextIn = new int[8];
+	private int[] prevIn = new int[8];
+	private int[] nextEdge = new int[8];
+	private int[] prevEdge = new int[8];
+	private final BitSet edgeConsidered = new BitSet();
+	private int firstEdge = NONE;
+	private int lastEdge = NONE;
+	private int edgeSlots;
+	private int numEdges;
+	private int[] freeEdges = new int[8];
+	private int numFreeEdges;
+
+	public IndexedGraph(ServiceIndex services) {
+		this.services = services;
+		Arrays.fill(lookupKeys, FREE);
+	}
+
+	//==========================================================================================================================
+	//                                                 Nodes
+	//==========================================================================================================================
+
+	/**
+	 * Adds a node for the given service.
+	 *
+	 * @param service - Service id, START or END
+	 * @param considered
+	 * @return slot of the new node
+	 */
+	public int addNode(int service, boolean considered) {
+		int slot;
+		if (numFreeNodes > 0)
+			slot = freeNodes[--numFreeNodes];
+		else {
+			if (nodeSlots == nodeService.length) {
+				int length = nodeSlots * 2;
+				nodeService = Arrays.copyOf(nodeService, length);
+				firstOut = Arrays.copyOf(firstOut, length);
+				lastOut = Arrays.copyOf(lastOut, length);
+				firstIn = Arrays.copyOf(firstIn, length);
+				lastIn = Arrays.copyOf(lastIn, length);
+			}
+			slot = nodeSlots++;
+		}
+		nodeService[slot] = service;
+		firstOut[slot] = lastOut[slot] = firstIn[slot] = lastIn[slot] = NONE;
+		if (considered) {
+			nodeConsidered.set(slot);
+			numConsideredNodes++;
+		}
+		numNodes++;
+		hash ^= nodeKey(service, considered);
+		check += checkKey(nodeCode(service, considered));
+		putLookup(service, slot);
+		return slot;
+	}
+
+	/**
+	 * Removes a node along with all of its edges.
+	 */
+	public void removeNode(int slot) {
+		while (firstOut[slot] != NONE)
+			removeEdge(firstOut[slot]);
+		while (firstIn[slot] != NONE)
+			removeEdge(firstIn[slot]);
+		removeLookup(nodeService[slot]);
+		hash ^= nodeKey(nodeService[slot], nodeConsidered.get(slot));
+		check -= checkKey(nodeCode(nodeService[slot], nodeConsidered.get(slot)));
+		nodeService[slot] = FREE;
+		if (nodeConsidered.get(slot)) {
+			nodeConsidered.clear(slot);
+			numConsideredNodes--;
+		}
+		numNodes--;
+		if (numFreeNodes == freeNodes.length)
+			freeNodes = Arrays.copyOf(freeNodes, numFreeNodes * 2);
+		freeNodes[numFreeNodes++] = slot;
+	}
+
+	/**
+	 * @return the slot of the node for the given service, or -1 if it is not in the graph
+	 */
+	public int findNode(int service) {
+		int mask = lookupKeys.length - 1;
+		for (int i = hash(service) & mask; lookupKeys[i] != FREE; i = (i + 1) & mask) {
+			if (lookupKeys[i] == service)
+				return lookupSlots[i];
+		}
+		return NONE;
+	}
+
+	/**
+	 * @return the number of node slots; slots for which isNode is false are unused
+	 */
+	public int getNodeSlots() {
+		return nodeSlots;
+	}
+
+	public boolean isNode(int slot) {
+		return nodeService[slot] != FREE;
+	}
+
+	public int getService(int slot) {
+		return nodeService[slot];
+	}
+
+	public boolean isConsidered(int slot) {
+		return nodeConsidered.get(slot);
+	}
+
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	public int getNumConsideredNodes() {
+		return numConsideredNodes;
+	}
+
+	/**
+	 * @return the node of the given service, as used by GraphIndividual
+	 */
+	public Node getNode(int slot, GraphInitializer init) {
+		int service = nodeService[slot];
+		if (service == START)
+			return init.startNode;
+		else if (service == END)
+			return init.endNode;
+		else
+			return services.getService(service);
+	}
+
+	/**
+	 * @return the id under which the node is kept: its service id, or START or END
+	 */
+	public static int serviceOf(Node n) {
+		if (n.getName().equals("start"))
+			return START;
+		else if (n.getName().equals("end"))
+			return END;
+		else
+			return n.getId();
+	}
+
+	public String getName(int slot) {
+		int service = nodeService[slot];
+		if (service == START)
+			return "start";
+		else if (service == END)
+			return "end";
+		else
+			return services.getService(service).getName();
+	}
+
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private void putLookup(int service, int slot) {
+		if (2 * (numNodes + 1) > lookupKeys.length) {
+			int[] oldKeys = lookupKeys;
+			int[] oldSlots = lookupSlots;
+			lookupKeys = new int[oldKeys.length * 2];
+			lookupSlots = new int[oldKeys.length * 2];
+			Arrays.fill(lookupKeys, FREE);
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != FREE)
+					insertLookup(oldKeys[i], oldSlots[i]);
+			}
+		}
+		insertLookup(service, slot);
+	}
+
+	private void insertLookup(int service, int slot) {
+		int mask = lookupKeys.length - 1;
+		int i = hash(service) & mask;
+		while (lookupKeys[i] != FREE && lookupKeys[i] != service)
+			i = (i + 1) & mask;
+		lookupKeys[i] = service;
+		lookupSlots[i] = slot;
+	}
+
+	private void removeLookup(int service) {
+		int mask = lookupKeys.length - 1;
+		int i = hash(service) & mask;
+		while (lookupKeys[i] != service) {
+			if (lookupKeys[i] == FREE)
+				return;
+			i = (i + 1) & mask;
+		}
+		// Shift back the entries that follow, so that no probe sequence is broken
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (lookupKeys[j] == FREE)
+				break;
+			int home = hash(lookupKeys[j]) & mask;
+			if ((j > i && (home <= i || home > j)) || (j < i && home <= i && home > j)) {
+				lookupKeys[i] = lookupKeys[j];
+				lookupSlots[i] = lookupSlots[j];
+				i = j;
+			}
+		}
+		lookupKeys[i] = FREE;
+	}
+
+	//==========================================================================================================================
+	//                                                 Edges
+	//==========================================================================================================================
+
+	/**
+	 * Adds an edge at the end of the edge list and of the adjacency lists of both
+	 * of its nodes.
+	 *
+	 * @return slot of the new edge
+	 */
+	public int addEdge(int from, int to, IntSet intersect, boolean considered) {
+		int e = allocateEdge(from, to, intersect, considered);
+		linkOut(e);
+		linkIn(e);
+		return e;
+	}
+
+	private int allocateEdge(int from, int to, IntSet intersect, boolean considered) {
+		int e;
+		if (numFreeEdges > 0)
+			e = freeEdges[--numFreeEdges];
+		else {
+			if (edgeSlots == edgeFrom.length) {
+				int length = edgeSlots * 2;
+				edgeFrom = Arrays.copyOf(edgeFrom, length);
+				edgeTo = Arrays.copyOf(edgeTo, length);
+				edgeIntersect = Arrays.copyOf(edgeIntersect, length);
+				nextOut = Arrays.copyOf(nextOut, length);
+				prevOut = Arrays.copyOf(prevOut, length);
+				nextIn = Arrays.copyOf(nextIn, length);
+				prevIn = Arrays.copyOf(prevIn, length);
+				nextEdge = Arrays.copyOf(nextEdge, length);
+				prevEdge = Arrays.copyOf(prevEdge, length);
+			}
+			e = edgeSlots++;
+		}
+		edgeFrom[e] = from;
+		edgeTo[e] = to;
+		edgeIntersect[e] = intersect;
+		nextOut[e] = prevOut[e] = nextIn[e] = prevIn[e] = NONE;
+		edgeConsidered.set(e, considered);
+		hash ^= edgeKey(nodeService[from], nodeService[to], considered);
+		check += checkKey(edgeCode(nodeService[from], nodeService[to], considered));
+
+		nextEdge[e] = NONE;
+		prevEdge[e] = lastEdge;
+		if (lastEdge == NONE)
+			firstEdge = e;
+		else
+			nextEdge[lastEdge] = e;
+		lastEdge = e;
+		numEdges++;
+		return e;
+	}
+
+	private void linkOut(int e) {
+		int from = edgeFrom[e];
+		prevOut[e] = lastOut[from];
+		if (lastOut[from] == NONE)
+			firstOut[from] = e;
+		else
+			nextOut[lastOut[from]] = e;
+		lastOut[from] = e;
+	}
+
+	private void linkIn(int e) {
+		int to = edgeTo[e];
+		prevIn[e] = lastIn[to];
+		if (lastIn[to] == NONE)
+			firstIn[to] = e;
+		else
+			nextIn[lastIn[to]] = e;
+		lastIn[to] = e;
+	}
+
+	/**
+	 * Removes an edge from the edge list and from the adjacency lists of its nodes.
+	 */
+	public void removeEdge(int e) {
+		int from = edgeFrom[e], to = edgeTo[e];
+		if (prevOut[e] == NONE)
+			firstOut[from] = nextOut[e];
+		else
+			nextOut[prevOut[e]] = nextOut[e];
+		if (nextOut[e] == NONE)
+			lastOut[from] = prevOut[e];
+		else
+			prevOut[nextOut[e]] = prevOut[e];
+
+		if (prevIn[e] == NONE)
+			firstIn[to] = nextIn[e];
+		else
+			nextIn[prevIn[e]] = nextIn[e];
+		if (nextIn[e] == NONE)
+			lastIn[to] = prevIn[e];
+		else
+			prevIn[nextIn[e]] = prevIn[e];
+
+		if (prevEdge[e] == NONE)
+			firstEdge = nextEdge[e];
+		else
+			nextEdge[prevEdge[e]] = nextEdge[e];
+		if (nextEdge[e] == NONE)
+			lastEdge = prevEdge[e];
+		else
+			prevEdge[nextEdge[e]] = prevEdge[e];
+
+		hash ^= edgeKey(nodeService[from], nodeService[to], edgeConsidered.get(e));
+		check -= checkKey(edgeCode(nodeService[from], nodeService[to], edgeConsidered.get(e)));
+		edgeIntersect[e] = null;
+		edgeConsidered.clear(e);
+		numEdges--;
+		if (numFreeEdges == freeEdges.length)
+			freeEdges = Arrays.copyOf(freeEdges, numFreeEdges * 2);
+		freeEdges[numFreeEdges++] = e;
+	}
+
+	/**
+	 * @return the first edge in insertion order, or -1 if there are none
+	 */
+	public int firstEdge() {
+		return firstEdge;
+	}
+
+	/**
+	 * @return the edge following e in insertion order, or -1 if e is the last
+	 */
+	public int nextEdge(int e) {
+		return nextEdge[e];
+	}
+
+	/**
+	 * @return the first outgoing edge of a node, or -1 if there are none
+	 */
+	public int firstOut(int slot) {
+		return firstOut[slot];
+	}
+
+	public int nextOut(int e) {
+		return nextOut[e];
+	}
+
+	/**
+	 * @return the first incoming edge of a node, or -1 if there are none
+	 */
+	public int firstIn(int slot) {
+		return firstIn[slot];
+	}
+
+	public int nextIn(int e) {
+		return nextIn[e];
+	}
+
+	public int getFrom(int e) {
+		return edgeFrom[e];
+	}
+
+	public int getTo(int e) {
+		return edgeTo[e];
+	}
+
+	public IntSet getIntersect(int e) {
+		return edgeIntersect[e];
+	}
+
+	public boolean isEdgeConsidered(int e) {
+		return edgeConsidered.get(e);
+	}
+
+	public int getNumEdges() {
+		return numEdges;
+	}
+
+	/**
+	 * @return the number of edge slots, i.e. an upper bound on edge numbers
+	 */
+	public int getEdgeSlots() {
+		return edgeSlots;
+	}
+
+	//==========================================================================================================================
+	//                                                 Structural hash
+	//==========================================================================================================================
+
+	/**
+	 * @return the structural hash of the graph, as described above
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * @return the check sum of the graph, as described above
+	 */
+	public long getCheck() {
+		return check;
+	}
+
+	/**
+	 * @return the codes of the nodes and edges of the graph, sorted, which are
+	 * equal for two graphs exactly when they have the same structure
+	 */
+	public long[] getStructure() {
+		long[] codes = new long[numNodes + numEdges];
+		int k = 0;
+		for (int slot = 0; slot < nodeSlots; slot++) {
+			if (isNode(slot))
+				codes[k++] = nodeCode(nodeService[slot], nodeConsidered.get(slot));
+		}
+		for (int e = firstEdge; e != NONE; e = nextEdge[e])
+			codes[k++] = edgeCode(nodeService[edgeFrom[e]], nodeService[edgeTo[e]], edgeConsidered.get(e));
+		Arrays.sort(codes);
+		return codes;
+	}
+
+	/**
+	 * Computes the structural hash that the compact form of an individual's
+	 * graph would have, without building it.
+	 *
+	 * @param graph
+	 * @return hash
+	 */
+	public static long hashOf(GraphIndividual graph) {
+		long hash = 0;
+		for (Node n : graph.nodeMap.values())
+			hash ^= nodeKey(serviceOf(n), graph.considerableNodeMap.containsKey(n.getName()));
+		Map<Edge, Boolean> considered = new IdentityHashMap<Edge, Boolean>();
+		for (Edge e : graph.considerableEdgeList)
+			considered.put(e, Boolean.TRUE);
+		Map<Edge, Boolean> seen = new IdentityHashMap<Edge, Boolean>();
+		for (Edge e : graph.edgeList) {
+			Node from = graph.nodeMap.get(e.getFromNode().getName());
+			Node to = graph.nodeMap.get(e.getToNode().getName());
+			// Skipped by compact as well
+			if (from == null || to == null || seen.put(e, Boolean.TRUE) != null)
+				continue;
+			hash ^= edgeKey(serviceOf(from), serviceOf(to), considered.containsKey(e));
+		}
+		return hash;
+	}
+
+	private static long nodeKey(int service, boolean considered) {
+		return mix(((long) service << 1) | (considered ? 1 : 0));
+	}
+
+	private static long edgeKey(int from, int to, boolean considered) {
+		return mix(mix(((long) from << 32) ^ (to & 0xFFFFFFFFL)) + (considered ? 2 : 1));
+	}
+
+	// Distinct codes for nodes and edges: services are offset to be positive,
+	// node codes fit in 32 bits, and edge codes do not
+	private static long nodeCode(int service, boolean considered) {
+		return ((long) (service + 2) << 1) | (considered ? 1 : 0);
+	}
+
+	private static long edgeCode(int from, int to, boolean considered) {
+		return ((long) (from + 2) << 32) | (to + 2) | (considered ? Long.MIN_VALUE : 0);
+	}
+
+	private static long checkKey(long code) {
+		return mix(code ^ 0x5DEECE66DL);
+	}
+
+	/**
+	 * SplitMix64 finaliser, spreading the bits of a key over the whole word.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	//==========================================================================================================================
+	//                                                 Evaluation trace
+	//==========================================================================================================================
+
+	void setTrace(QosEvaluator.Trace trace) {
+		this.trace = trace;
+	}
+
+	/**
+	 * @return the results of evaluating this graph, or null if it was not evaluated
+	 */
+	QosEvaluator.Trace getTrace() {
+		return trace;
+	}
+
+	//==========================================================================================================================
+	//                                                 Graph operations
+	//==========================================================================================================================
+
+	/**
+	 * Copies this graph, with the same node and edge slots, for an operator to
+	 * edit. The edge intersects are shared with this graph, so edits must replace
+	 * an edge rather than change its intersect. The copy has no trace.
+	 *
+	 * @return copy
+	 */
+	public IndexedGraph copy() {
+		IndexedGraph copy = new IndexedGraph(services);
+		copy.hash = hash;
+		copy.check = check;
+
+		copy.nodeService = nodeService.clone();
+		copy.firstOut = firstOut.clone();
+		copy.lastOut = lastOut.clone();
+		copy.firstIn = firstIn.clone();
+		copy.lastIn = lastIn.clone();
+		copy.nodeConsidered.or(nodeConsidered);
+		copy.nodeSlots = nodeSlots;
+		copy.numNodes = numNodes;
+		copy.numConsideredNodes = numConsideredNodes;
+		copy.freeNodes = freeNodes.clone();
+		copy.numFreeNodes = numFreeNodes;
+		copy.lookupKeys = lookupKeys.clone();
+		copy.lookupSlots = lookupSlots.clone();
+
+		copy.edgeFrom = edgeFrom.clone();
+		copy.edgeTo = edgeTo.clone();
+		copy.edgeIntersect = edgeIntersect.clone();
+		copy.nextOut = nextOut.clone();
+		copy.prevOut = prevOut.clone();
+		copy.nextIn = nextIn.clone();
+		copy.prevIn = prevIn.clone();
+		copy.nextEdge = nextEdge.clone();
+		copy.prevEdge = prevEdge.clone();
+		copy.edgeConsidered.or(edgeConsidered);
+		copy.firstEdge = firstEdge;
+		copy.lastEdge = lastEdge;
+		copy.edgeSlots = edgeSlots;
+		copy.numEdges = numEdges;
+		copy.freeEdges = freeEdges.clone();
+		copy.numFreeEdges = numFreeEdges;
+		return copy;
+	}
+
+	/**
+	 * Builds the compact form of an individual's graph.
+	 *
+	 * @param graph
+	 * @param services - Services the ids refer to; may be null if the compact
+	 * graph is only used for its structure and hash
+	 * @return compact graph
+	 */
+	public static IndexedGraph compact(GraphIndividual graph, ServiceIndex services) {
+		IndexedGraph indexed = new IndexedGraph(services);
+		Map<String, Integer> slots = new HashMap<String, Integer>();
+		for (Node n : graph.nodeMap.values())
+			slots.put(n.getName(), indexed.addNode(serviceOf(n), graph.considerableNodeMap.containsKey(n.getName())));
+
+		// Create the edges in list order, then link them in the order of the
+		// adjacency lists of their nodes
+		Map<Edge, Integer> edges = new IdentityHashMap<Edge, Integer>();
+		Map<Edge, Boolean> considered = new IdentityHashMap<Edge, Boolean>();
+		for (Edge e : graph.considerableEdgeList)
+			considered.put(e, Boolean.TRUE);
+		for (Edge e : graph.edgeList) {
+			Integer from = slots.get(e.getFromNode().getName());
+			Integer to = slots.get(e.getToNode().getName());
+			if (from == null || to == null || edges.containsKey(e))
+				continue;
+			edges.put(e, indexed.allocateEdge(from, to, e.getIntersect(), considered.containsKey(e)));
+		}
+		BitSet linkedOut = new BitSet();
+		BitSet linkedIn = new BitSet();
+		for (Node n : graph.nodeMap.values()) {
+			linkInOrder(indexed, n.getOutgoingEdgeList(), edges, linkedOut, true);
+			linkInOrder(indexed, n.getIncomingEdgeList(), edges, linkedIn, false);
+		}
+		for (int e = indexed.firstEdge; e != NONE; e = indexed.nextEdge[e]) {
+			if (!linkedOut.get(e))
+				indexed.linkOut(e);
+			if (!linkedIn.get(e))
+				indexed.linkIn(e);
+		}
+		return indexed;
+	}
+
+	private static void linkInOrder(IndexedGraph indexed, List<Edge> list, Map<Edge, Integer> edges, BitSet linked, boolean outgoing) {
+		for (Edge edge : list) {
+			Integer e = edges.get(edge);
+			if (e == null || linked.get(e))
+				continue;
+			linked.set(e);
+			if (outgoing)
+				indexed.linkOut(e);
+			else
+				indexed.linkIn(e);
+		}
+	}
+
+	/**
+	 * Rebuilds the object form of this graph in the given individual, with
+	 * fresh nodes and edges.
+	 *
+	 * @param graph
+	 * @param init
+	 */
+	public void expandInto(GraphIndividual graph, GraphInitializer init) {
+		Node[] nodes = new Node[nodeSlots];
+		for (int slot = 0; slot < nodeSlots; slot++) {
+			if (!isNode(slot))
+				continue;
+			Node n = getNode(slot, init).clone();
+			n.setConsidered(nodeConsidered.get(slot));
+			nodes[slot] = n;
+			graph.nodeMap.put(n.getName(), n);
+			if (nodeConsidered.get(slot))
+				graph.considerableNodeMap.put(n.getName(), n);
+		}
+
+		Edge[] edges = new Edge[edgeSlots];
+		for (int e = firstEdge; e != NONE; e = nextEdge[e]) {
+			Edge edge = new Edge(new IntSet(edgeIntersect[e]));
+			edge.setFromNode(nodes[edgeFrom[e]]);
+			edge.setToNode(nodes[edgeTo[e]]);
+			edge.setConsidered(edgeConsidered.get(e));
+			edges[e] = edge;
+			graph.edgeList.add(edge);
+			if (edgeConsidered.get(e))
+				graph.considerableEdgeList.add(edge);
+		}
+		for (int slot = 0; slot < nodeSlots; slot++) {
+			if (!isNode(slot))
+				continue;
+			for (int e = firstOut[slot]; e != NONE; e = nextOut[e])
+				nodes[slot].getOutgoingEdgeList().add(edges[e]);
+			for (int e = firstIn[slot]; e != NONE; e = nextIn[e])
+				nodes[slot].getIncomingEdgeList().add(edges[e]);
+		}
+	}
+
+	/**
+	 * @return the edge in the same form as Edge.toString
+	 */
+	public String edgeToString(int e) {
+		if (edgeConsidered.get(e))
+			return String.format("%s->%s", nodeToString(edgeFrom[e]), nodeToString(edgeTo[e]));
+		else
+			return String.format("%s **> %s", nodeToString(edgeFrom[e]), nodeToString(edgeTo[e]));
+	}
+
+	/**
+	 * @return the node in the same form as Node.toString
+	 */
+	public String nodeToString(int slot) {
+		if (nodeConsidered.get(slot))
+			return getName(slot);
+		else
+			return getName(slot) + "*";
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("digraph g {");
+		for (int e = firstEdge; e != NONE; e = nextEdge[e]) {
+			builder.append(edgeToString(e));
+			builder.append("; ");
+		}
+		builder.append("}");
+		return builder.toString();
+	}
+}
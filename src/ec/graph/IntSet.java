@@ -0,0 +1,192 @@
+package ec.graph;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive ints kept as a sorted array, used for the small concept
+ * sets carried by services and edges. Elements are accessed by position
+ * (get(0) to get(size()-1)) so that iterating does not allocate.
+ */
+public class IntSet {
+	private int[] values;
+	private int size;
+
+	public IntSet() {
+		values = new int[4];
+	}
+
+	public IntSet(int capacity) {
+		values = new int[Math.max(capacity, 1)];
+	}
+
+	public IntSet(IntSet other) {
+		values = Arrays.copyOf(other.values, Math.max(other.size, 1));
+		size = other.size;
+	}
+
+	/**
+	 * Creates a set from the first length entries of an array, which may be
+	 * unsorted and contain duplicates. The array is sorted in place.
+	 */
+	public static IntSet fromUnsorted(int[] array, int length) {
+		Arrays.sort(array, 0, length);
+		IntSet set = new IntSet(length);
+		for (int i = 0; i < length; i++) {
+			if (i == 0 || array[i] != array[i - 1])
+				set.values[set.size++] = array[i];
+		}
+		return set;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the element at the given position, in ascending order
+	 */
+	public int get(int index) {
+		return values[index];
+	}
+
+	public boolean contains(int value) {
+		return Arrays.binarySearch(values, 0, size, value) >= 0;
+	}
+
+	/**
+	 * @return the position of the value, or a negative number if it is not in the set
+	 */
+	public int indexOf(int value) {
+		return Arrays.binarySearch(values, 0, size, value);
+	}
+
+	public boolean add(int value) {
+		int pos = Arrays.binarySearch(values, 0, size, value);
+		if (pos >= 0)
+			return false;
+		pos = -pos - 1;
+		if (size == values.length)
+			values = Arrays.copyOf(values, values.length * 2);
+		System.arraycopy(values, pos, values, pos + 1, size - pos);
+		values[pos] = value;
+		size++;
+		return true;
+	}
+
+	public boolean remove(int value) {
+		int pos = Arrays.binarySearch(values, 0, size, value);
+		if (pos < 0)
+			return false;
+		System.arraycopy(values, pos + 1, values, pos, size - pos - 1);
+		size--;
+		return true;
+	}
+
+	public void addAll(IntSet other) {
+		if (other.size == 0)
+			return;
+		if (size == 0) {
+			if (values.length < other.size)
+				values = new int[other.size];
+			System.arraycopy(other.values, 0, values, 0, other.size);
+			size = other.size;
+			return;
+		}
+		// Merge the two sorted arrays
+		int[] merged = new int[size + other.size];
+		int i = 0, j = 0, k = 0;
+		while (i < size && j < other.size) {
+			int a = values[i], b = other.values[j];
+			if (a < b) {
+				merged[k++] = a;
+				i++;
+			}
+			else if (b < a) {
+				merged[k++] = b;
+				j++;
+			}
+			else {
+				merged[k++] = a;
+				i++;
+				j++;
+			}
+		}
+		while (i < size)
+			merged[k++] = values[i++];
+		while (j < other.size)
+			merged[k++] = other.values[j++];
+		values = merged;
+		size = k;
+	}
+
+	public void removeAll(IntSet other) {
+		int k = 0;
+		for (int i = 0; i < size; i++) {
+			if (!other.contains(values[i]))
+				values[k++] = values[i];
+		}
+		size = k;
+	}
+
+	/**
+	 * @return true if this set and the other have at least one element in common
+	 */
+	public boolean intersects(IntSet other) {
+		int i = 0, j = 0;
+		while (i < size && j < other.size) {
+			int a = values[i], b = other.values[j];
+			if (a == b)
+				return true;
+			else if (a < b)
+				i++;
+			else
+				j++;
+		}
+		return false;
+	}
+
+	/**
+	 * Replaces every element with mapping[element], keeping the set sorted.
+	 */
+	public void remap(int[] mapping) {
+		for (int i = 0; i < size; i++)
+			values[i] = mapping[values[i]];
+		Arrays.sort(values, 0, size);
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (other instanceof IntSet) {
+			IntSet o = (IntSet) other;
+			if (o.size != size)
+				return false;
+			for (int i = 0; i < size; i++) {
+				if (values[i] != o.values[i])
+					return false;
+			}
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 1;
+		for (int i = 0; i < size; i++)
+			hash = 31 * hash + values[i];
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(Arrays.copyOf(values, size));
+	}
+}
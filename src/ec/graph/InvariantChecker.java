@@ -0,0 +1,164 @@
+package ec.graph;
+
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks the structural invariants of graphs produced by the operators, at a
+ * level set by the invariant-checks parameter: "off" (the default), "sampled",
+ * which checks one operation in every invariant-check-interval, or "full",
+ * which checks every operation. Which operations are sampled does not depend
+ * on the random number generators, so checking does not change the run.
+ *
+ * Every check takes time linear in the size of the graph. Violations are not
+ * printed but counted, and the count is reported with the statistics of each
+ * generation.
+ *
+ * The checker is shared by all breeding threads, so its counters are
+ * synchronized.
+ */
+public class InvariantChecker {
+	public static final int SAMPLED = 1;
+	public static final int FULL = 2;
+
+	private final int level;
+	private final int interval;
+	private long operations;
+	private long violations;
+
+	public InvariantChecker(int level, int interval) {
+		this.level = level;
+		this.interval = Math.max(interval, 1);
+	}
+
+	/**
+	 * Called once per operation, to decide whether its graphs are checked.
+	 *
+	 * @return whether to check the graphs of this operation
+	 */
+	public synchronized boolean sample() {
+		return level == FULL || operations++ % interval == 0;
+	}
+
+	/**
+	 * Checks the invariants that hold for any part of a graph.
+	 *
+	 * @param graph
+	 * @return whether all invariants hold
+	 */
+	public boolean checkPart(GraphIndividual graph) {
+		return checkLoops(graph);
+	}
+
+	/**
+	 * Checks the invariants of a complete graph.
+	 *
+	 * @param init
+	 * @param graph
+	 * @return whether all invariants hold
+	 */
+	public boolean check(GraphInitializer init, GraphIndividual graph) {
+		boolean valid = checkStartEnd(graph);
+		valid &= checkAdjacency(graph.nodeMap, graph.edgeList);
+		valid &= checkAdjacency(graph.considerableNodeMap, graph.considerableEdgeList);
+		valid &= checkLoops(graph);
+		valid &= checkDuplicates(graph);
+		valid &= checkInputs(graph);
+		valid &= checkConcepts(init, graph);
+		return valid;
+	}
+
+	// Every edge is in the outgoing list of its source and the incoming list of
+	// its destination, as found in the graph by name
+	private boolean checkAdjacency(Map<String, Node> nodeMap, Iterable<Edge> edges) {
+		Map<Edge, Node> outgoingOf = new IdentityHashMap<Edge, Node>();
+		Map<Edge, Node> incomingOf = new IdentityHashMap<Edge, Node>();
+		for (Node n : nodeMap.values()) {
+			for (Edge e : n.getOutgoingEdgeList())
+				outgoingOf.put(e, n);
+			for (Edge e : n.getIncomingEdgeList())
+				incomingOf.put(e, n);
+		}
+		for (Edge e : edges) {
+			Node from = nodeMap.get(e.getFromNode().getName());
+			Node to = nodeMap.get(e.getToNode().getName());
+			if (from == null || to == null || outgoingOf.get(e) != from || incomingOf.get(e) != to)
+				return violated();
+		}
+		return true;
+	}
+
+	// No edge begins and ends at the same node
+	private boolean checkLoops(GraphIndividual graph) {
+		for (Edge e : graph.edgeList) {
+			if (e.getFromNode().getName().equals(e.getToNode().getName()))
+				return violated();
+		}
+		return true;
+	}
+
+	// No two edges join the same pair of nodes
+	private boolean checkDuplicates(GraphIndividual graph) {
+		Set<Edge> seen = new HashSet<Edge>();
+		for (Edge e : graph.edgeList) {
+			if (!seen.add(e))
+				return violated();
+		}
+		return true;
+	}
+
+	// The incoming edges of every node carry as many concepts as it has inputs
+	private boolean checkInputs(GraphIndividual graph) {
+		IntSet incomingValues = new IntSet();
+		for (Node n : graph.nodeMap.values()) {
+			incomingValues.clear();
+			for (Edge e : n.getIncomingEdgeList())
+				incomingValues.addAll(e.getIntersect());
+			if (incomingValues.size() != n.getInputs().size())
+				return violated();
+		}
+		return true;
+	}
+
+	private boolean checkStartEnd(GraphIndividual graph) {
+		if (!graph.nodeMap.containsKey("start") || !graph.nodeMap.containsKey("end"))
+			return violated();
+		return true;
+	}
+
+	// Every concept carried by an edge is subsumed by an output of its source
+	private boolean checkConcepts(GraphInitializer init, GraphIndividual graph) {
+		for (Edge e : graph.edgeList) {
+			Node from = graph.nodeMap.get(e.getFromNode().getName());
+			if (from == null)
+				continue; // Reported as an adjacency violation
+			IntSet outputs = from.getOutputs();
+			IntSet intersect = e.getIntersect();
+			for (int i = 0; i < intersect.size(); i++) {
+				boolean provided = false;
+				for (int j = 0; j < outputs.size() && !provided; j++)
+					provided = init.subsumption.subsumes(intersect.get(i), outputs.get(j));
+				if (!provided)
+					return violated();
+			}
+		}
+		return true;
+	}
+
+	private synchronized boolean violated() {
+		violations++;
+		return false;
+	}
+
+	/**
+	 * @return the number of violations found since the last call, and starts
+	 * counting anew
+	 */
+	public synchronized long takeViolations() {
+		long count = violations;
+		violations = 0;
+		return count;
+	}
+}
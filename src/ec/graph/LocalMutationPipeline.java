@@ -6,6 +6,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ec.BreedingPipeline;
 import ec.EvolutionState;
@@ -17,7 +18,7 @@ import ec.util.Parameter;
  * @author Alex
  */
 public class LocalMutationPipeline extends BreedingPipeline {
-    public static int counter = 0;
+    public static final AtomicInteger counter = new AtomicInteger();
 
     @Override
     public Parameter defaultBase() {
@@ -32,7 +33,7 @@ public class LocalMutationPipeline extends BreedingPipeline {
     @Override
     public int produce( int min, int max, int start, int subpopulation,
             Individual[] inds, EvolutionState state, int thread) {
-        counter++;
+        counter.incrementAndGet();
 
         GraphInitializer init = (GraphInitializer) state.initializer;
 
@@ -48,17 +49,32 @@ public class LocalMutationPipeline extends BreedingPipeline {
             state.output.fatal("GraphAppendPipeline didn't get a GraphIndividual. The offending individual is in subpopulation "
             + subpopulation + " and it's:" + inds[start]);
 
+        // Give compact individuals their own copy of their compact form to edit,
+        // recording the edits made to them from now on
+        for(int q=start;q<n+start;q++) {
+            GraphIndividual graph = (GraphIndividual)inds[q];
+            GraphChange change = GraphChange.start(graph);
+            if (graph.indexed != null)
+                graph.edit();
+            graph.change = change;
+        }
+
         // Perform mutation
         for(int q=start;q<n+start;q++) {
             GraphIndividual graph = (GraphIndividual)inds[q];
             GraphSpecies species = (GraphSpecies) graph.species;
 
+            if (graph.indexed != null) {
+                mutateIndexed(state, init, species, graph, thread);
+                continue;
+            }
+
             List<Node> nodeList = new ArrayList<Node>(graph.nodeMap.values());
             nodeList.remove(graph.nodeMap.get("start"));
             nodeList.remove(graph.nodeMap.get("end"));
 
             // Randomly select node from which to perform mutation (excluding start and end nodes)
-        	int index = init.random.nextInt(nodeList.size());
+        	int index = init.random[thread].nextInt(nodeList.size());
             Node selected = nodeList.get(index);
 
             // Select the additional nodes that will be involved in the mutation
@@ -68,33 +84,80 @@ public class LocalMutationPipeline extends BreedingPipeline {
             mockQos[GraphInitializer.AVAILABILITY] = 1;
             mockQos[GraphInitializer.RELIABILITY] = 1;
 
-            Set<String> taskInput = new HashSet<String>();
-            Set<String> taskOutput = new HashSet<String>();
+            IntSet taskInput = new IntSet();
+            IntSet taskOutput = new IntSet();
 
-            Node localStartNode = new Node("start", mockQos, new HashSet<String>(), taskInput);
-            Node localEndNode = new Node("end", mockQos, taskOutput ,new HashSet<String>());
-            Map<Node, Set<String>> disconnectedInput = new HashMap<Node, Set<String>>();
+            Node localStartNode = new Node("start", mockQos, new IntSet(), taskInput);
+            Node localEndNode = new Node("end", mockQos, taskOutput ,new IntSet());
+            Map<Node, IntSet> disconnectedInput = new HashMap<Node, IntSet>();
             Set<Node> disconnectedOutput = new HashSet<Node>();
 
 
             removeMutationNodes(species, init.numNodesMutation, selected, graph, taskInput, taskOutput, disconnectedInput, disconnectedOutput);
 
             // Generate the new subgraph
-            Set<Node> nodesToConsider = new HashSet<Node>(init.relevant);
-            nodesToConsider.removeAll(graph.nodeMap.values());
-            GraphIndividual subgraph = species.createNewGraph( null, state, localStartNode, localEndNode, nodesToConsider );
+            ServicePool nodesToConsider = init.prunedPool.without(graph.nodeMap.values());
+            GraphIndividual subgraph = species.createSubgraph( state, localStartNode, localEndNode, nodesToConsider, thread );
 
             // Add the new subgraph into the existing candidate
-            species.fitMutatedSubgraph(init, graph, subgraph, disconnectedInput, disconnectedOutput);
+            species.fitMutatedSubgraph(init, graph, subgraph, disconnectedInput, disconnectedOutput, thread);
 
             // Remove any dangling nodes
             init.removeDanglingNodes( graph );
+            graph.evaluated = false;
             init.countGraphElements( graph );
+            graph.compact( init );
         }
 
         return n;
     }
 
+    /**
+     * Performs the mutation on the compact form of a graph, editing it in place.
+     */
+    private void mutateIndexed(EvolutionState state, GraphInitializer init, GraphSpecies species, GraphIndividual graph, int thread) {
+        IndexedGraph g = graph.indexed;
+
+        // Randomly select node from which to perform mutation (excluding start and end nodes)
+        int index = init.random[thread].nextInt(g.getNumNodes() - 2);
+        int selected = -1;
+        for (int slot = 0; selected == -1; slot++) {
+            if (g.isNode(slot) && g.getService(slot) >= 0 && index-- == 0)
+                selected = slot;
+        }
+
+        // Select the additional nodes that will be involved in the mutation
+        double[] mockQos = new double[4];
+        mockQos[GraphInitializer.TIME] = 0;
+        mockQos[GraphInitializer.COST] = 0;
+        mockQos[GraphInitializer.AVAILABILITY] = 1;
+        mockQos[GraphInitializer.RELIABILITY] = 1;
+
+        IntSet taskInput = new IntSet();
+        IntSet taskOutput = new IntSet();
+
+        Node localStartNode = new Node("start", mockQos, new IntSet(), taskInput);
+        Node localEndNode = new Node("end", mockQos, taskOutput ,new IntSet());
+        GraphTraversal.Slots disconnectedInput = new GraphTraversal.Slots();
+        IntSet[] requiredInputs = new IntSet[g.getNodeSlots()];
+        GraphTraversal.Slots disconnectedOutput = new GraphTraversal.Slots();
+
+        removeMutationNodes(init, init.numNodesMutation, selected, graph, taskInput, taskOutput, disconnectedInput, requiredInputs, disconnectedOutput);
+
+        // Generate the new subgraph
+        ServicePool nodesToConsider = init.prunedPool.without(g);
+        GraphIndividual subgraph = species.createSubgraph( state, localStartNode, localEndNode, nodesToConsider, thread );
+
+        // Add the new subgraph into the existing candidate
+        species.fitMutatedSubgraph(init, graph, subgraph, disconnectedInput, requiredInputs, disconnectedOutput, thread);
+
+        // Remove any dangling nodes
+        init.removeDanglingNodes( graph );
+        graph.evaluated = false;
+        init.countGraphElements( graph );
+        graph.compact( init );
+    }
+
 
     /**
      * Removes nodes to be replaced during mutation and its associated edges. Based on the
@@ -107,11 +170,16 @@ public class LocalMutationPipeline extends BreedingPipeline {
      * @param taskInput - Set to collect the inputs required by the removed subpart
      * @param taskOutput - Set to collect the outputs required by the removed subpart
      */
-    private void removeMutationNodes(GraphSpecies species, int numNodes, Node selected, GraphIndividual graph, Set<String> taskInput, Set<String> taskOutput, Map<Node, Set<String>> disconnectedInput, Set<Node> disconnectedOutput) {
+    private void removeMutationNodes(GraphSpecies species, int numNodes, Node selected, GraphIndividual graph, IntSet taskInput, IntSet taskOutput, Map<Node, IntSet> disconnectedInput, Set<Node> disconnectedOutput) {
         if (numNodes < 1)
             throw new RuntimeException(String.format("The number of nodes requested to be removed during mutation was %d; it should always greater than 0.", numNodes));
 
-        Set<Node> mutationNodes = species.selectNodes(selected, numNodes);
+        GraphTraversal.Visit mutationNodes = GraphTraversal.topologicalOrder(selected, numNodes);
+
+        // Find the edges connecting the selected nodes to the rest of the graph
+        List<Edge> incoming = new ArrayList<Edge>();
+        List<Edge> outgoing = new ArrayList<Edge>();
+        GraphTraversal.frontier(mutationNodes, incoming, outgoing);
 
         // Now remove all selected mutation nodes and associated edges
         Set<Edge> mutationEdges = new HashSet<Edge>();
@@ -120,6 +188,8 @@ public class LocalMutationPipeline extends BreedingPipeline {
         for (Node node : mutationNodes) {
             graph.nodeMap.remove( node.getName() );
             graph.considerableNodeMap.remove( node.getName() );
+            if (graph.change != null)
+                graph.change.removeNode( node );
 
             for (Edge e : node.getIncomingEdgeList()) {
                 mutationEdges.add( e );
@@ -131,23 +201,27 @@ public class LocalMutationPipeline extends BreedingPipeline {
             }
         }
 
-        // Remove edges, and figure out what the required inputs and outputs are
-        for (Edge edge : mutationEdges) {
-            graph.edgeList.remove( edge );
-            graph.considerableEdgeList.remove( edge );
+        // Remove edges
+        graph.edgeList.removeAll( mutationEdges );
+        graph.considerableEdgeList.removeAll( mutationEdges );
 
-            // If the edge is coming from a service that has not been deleted, add its values as available inputs
-            if(graph.nodeMap.containsKey( edge.getFromNode().getName())){
+        // The edges coming from services that have not been deleted give the available inputs
+        for (Edge edge : incoming) {
+            Node from = graph.nodeMap.get(edge.getFromNode().getName());
+            if (from != null) {
                 taskInput.addAll(edge.getIntersect());
-                disconnectedOutput.add(graph.nodeMap.get(edge.getFromNode().getName()));
+                disconnectedOutput.add(from);
             }
-            // Else if edge is going to a service that has not been deleted, add its values as required outputs
-            else if(graph.nodeMap.containsKey( edge.getToNode().getName())){
+        }
+        // The edges going to services that have not been deleted give the required outputs
+        for (Edge edge : outgoing) {
+            Node to = graph.nodeMap.get(edge.getToNode().getName());
+            if (to != null) {
                 taskOutput.addAll( edge.getIntersect());
-                Set<String> discInputs = disconnectedInput.get(graph.nodeMap.get(edge.getToNode().getName()));
+                IntSet discInputs = disconnectedInput.get(to);
                 if (discInputs == null) {
-                	discInputs = new HashSet<String>(edge.getIntersect());
-                	disconnectedInput.put(graph.nodeMap.get(edge.getToNode().getName()), discInputs);
+                	discInputs = new IntSet(edge.getIntersect());
+                	disconnectedInput.put(to, discInputs);
                 }
                 else {
                 	discInputs.addAll(edge.getIntersect());
@@ -155,4 +229,49 @@ public class LocalMutationPipeline extends BreedingPipeline {
             }
         }
     }
+
+    /**
+     * Removes nodes to be replaced during mutation from the compact form of a
+     * graph, as removeMutationNodes does for the object form. The nodes whose
+     * inputs are disconnected are collected by slot, with the inputs each of
+     * them requires.
+     */
+    private void removeMutationNodes(GraphInitializer init, int numNodes, int selected, GraphIndividual graph, IntSet taskInput, IntSet taskOutput,
+            GraphTraversal.Slots disconnectedInput, IntSet[] requiredInputs, GraphTraversal.Slots disconnectedOutput) {
+        if (numNodes < 1)
+            throw new RuntimeException(String.format("The number of nodes requested to be removed during mutation was %d; it should always greater than 0.", numNodes));
+
+        IndexedGraph g = graph.indexed;
+        GraphTraversal.Slots mutationNodes = GraphTraversal.topologicalOrder(g, selected, numNodes);
+
+        // Find the edges connecting the selected nodes to the rest of the graph
+        GraphTraversal.Slots incoming = new GraphTraversal.Slots();
+        GraphTraversal.Slots outgoing = new GraphTraversal.Slots();
+        GraphTraversal.frontier(g, mutationNodes, incoming, outgoing);
+
+        // The edges coming from services that are not deleted give the available inputs
+        for (int i = 0; i < incoming.size(); i++) {
+            int e = incoming.get(i);
+            taskInput.addAll(g.getIntersect(e));
+            disconnectedOutput.add(g.getFrom(e));
+        }
+        // The edges going to services that are not deleted give the required outputs
+        for (int i = 0; i < outgoing.size(); i++) {
+            int e = outgoing.get(i);
+            int to = g.getTo(e);
+            taskOutput.addAll(g.getIntersect(e));
+            if (disconnectedInput.add(to))
+                requiredInputs[to] = new IntSet(g.getIntersect(e));
+            else
+                requiredInputs[to].addAll(g.getIntersect(e));
+        }
+
+        // Now remove all selected mutation nodes, along with their edges
+        for (int i = 0; i < mutationNodes.size(); i++) {
+            int slot = mutationNodes.get(i);
+            if (graph.change != null)
+                graph.change.removeNode( g.getNode(slot, init) );
+            g.removeNode(slot);
+        }
+    }
 }
@@ -2,7 +2,6 @@ package ec.graph;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 public class Node implements Cloneable {
 	private List<Edge> incomingEdgeList = new ArrayList<Edge>();
@@ -10,11 +9,12 @@ public class Node implements Cloneable {
 	private List<TaxonomyNode> taxonomyOutputs = new ArrayList<TaxonomyNode>();
 	private String name;
 	private double[] qos;
-	private Set<String> inputs;
-	private Set<String> outputs;
+	private IntSet inputs;
+	private IntSet outputs;
 	private boolean consider = true;
+	private int id = -1;
 
-	public Node(String name, double[] qos, Set<String> inputs, Set<String> outputs) {
+	public Node(String name, double[] qos, IntSet inputs, IntSet outputs) {
 		this.name = name;
 		this.qos = qos;
 		this.inputs = inputs;
@@ -33,11 +33,11 @@ public class Node implements Cloneable {
 		return qos;
 	}
 
-	public Set<String> getInputs() {
+	public IntSet getInputs() {
 		return inputs;
 	}
 
-	public Set<String> getOutputs() {
+	public IntSet getOutputs() {
 		return outputs;
 	}
 
@@ -50,7 +50,21 @@ public class Node implements Cloneable {
 	}
 
 	public Node clone() {
-		return new Node(name, qos, inputs, outputs);
+		Node clone = new Node(name, qos, inputs, outputs);
+		clone.id = id;
+		return clone;
+	}
+
+	/**
+	 * @return the dense id of this service in the service index, or -1 for the
+	 * start and end nodes
+	 */
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
 	}
 
 	public List<TaxonomyNode> getTaxonomyOutputs() {
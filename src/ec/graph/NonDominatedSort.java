@@ -0,0 +1,131 @@
+package ec.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sorts a set of objective vectors into non-dominated fronts with the
+ * sequential search variant of the Efficient Non-dominated Sort (ENS-SS, Zhang
+ * et al. 2015). The vectors are visited in lexicographic order, so that a
+ * vector can only be dominated by vectors visited before it, and each vector is
+ * placed in the first front that has no member dominating it. This takes far
+ * fewer comparisons than the O(MN^2) sort of NSGA-II for the population sizes
+ * used here.
+ *
+ * All objectives are minimised.
+ */
+public class NonDominatedSort {
+
+	/**
+	 * @param objectives
+	 * @return the fronts, best first, as lists of indices into objectives
+	 */
+	public static List<int[]> sort(final double[][] objectives) {
+		Integer[] order = new Integer[objectives.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				double[] x = objectives[a];
+				double[] y = objectives[b];
+				for (int m = 0; m < x.length; m++) {
+					int c = Double.compare(x[m], y[m]);
+					if (c != 0)
+						return c;
+				}
+				return 0;
+			}
+		});
+
+		List<List<Integer>> fronts = new ArrayList<List<Integer>>();
+		for (Integer p : order) {
+			int k = 0;
+			while (k < fronts.size() && isDominatedByFront(objectives, p, fronts.get(k)))
+				k++;
+			if (k == fronts.size())
+				fronts.add(new ArrayList<Integer>());
+			fronts.get(k).add(p);
+		}
+
+		List<int[]> result = new ArrayList<int[]>(fronts.size());
+		for (List<Integer> front : fronts) {
+			int[] members = new int[front.size()];
+			for (int i = 0; i < members.length; i++)
+				members[i] = front.get(i);
+			result.add(members);
+		}
+		return result;
+	}
+
+	private static boolean isDominatedByFront(double[][] objectives, int p, List<Integer> front) {
+		// The members added last are the closest to p in lexicographic order,
+		// and so the likeliest to dominate it
+		for (int i = front.size() - 1; i >= 0; i--) {
+			if (dominates(objectives[front.get(i)], objectives[p]))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if x is no worse than y in every objective and better in at
+	 * least one
+	 */
+	public static boolean dominates(double[] x, double[] y) {
+		boolean better = false;
+		for (int m = 0; m < x.length; m++) {
+			if (x[m] > y[m])
+				return false;
+			if (x[m] < y[m])
+				better = true;
+		}
+		return better;
+	}
+
+	/**
+	 * Computes the crowding distance of each member of a front, that is, the
+	 * sum over the objectives of the normalised distance between its two
+	 * neighbours. The extremes of each objective get an infinite distance.
+	 *
+	 * @param objectives
+	 * @param front indices into objectives
+	 * @return the distances, in the order of front
+	 */
+	public static double[] crowdingDistances(final double[][] objectives, int[] front) {
+		int size = front.length;
+		double[] distances = new double[size];
+		if (size == 0)
+			return distances;
+		int numObjectives = objectives[front[0]].length;
+
+		Integer[] order = new Integer[size];
+		for (int m = 0; m < numObjectives; m++) {
+			final int objective = m;
+			final int[] members = front;
+			for (int i = 0; i < size; i++)
+				order[i] = i;
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Double.compare(objectives[members[a]][objective], objectives[members[b]][objective]);
+				}
+			});
+
+			double min = objectives[front[order[0]]][m];
+			double max = objectives[front[order[size - 1]]][m];
+			distances[order[0]] = Double.POSITIVE_INFINITY;
+			distances[order[size - 1]] = Double.POSITIVE_INFINITY;
+			if (max - min == 0.0)
+				continue;
+			for (int i = 1; i < size - 1; i++) {
+				double prev = objectives[front[order[i - 1]]][m];
+				double next = objectives[front[order[i + 1]]][m];
+				distances[order[i]] += (next - prev) / (max - min);
+			}
+		}
+		return distances;
+	}
+}
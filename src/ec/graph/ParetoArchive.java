@@ -0,0 +1,86 @@
+package ec.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded archive of the non-dominated candidates found so far in a
+ * multi-objective run. Candidates enter the archive if no member dominates
+ * them, and push out the members they dominate. When the archive overflows, the
+ * member with the smallest crowding distance is dropped, so that the archive
+ * stays spread along the front.
+ *
+ * The objectives are those of GraphInitializer's multi-objective mode: the raw
+ * availability, reliability, time and cost of a candidate, all minimised (see
+ * objectives).
+ */
+public class ParetoArchive {
+	private final int capacity;
+	private final List<GraphIndividual> members = new ArrayList<GraphIndividual>();
+	private final List<double[]> memberObjectives = new ArrayList<double[]>();
+
+	public ParetoArchive(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @return the objective vector of a candidate, with availability and
+	 * reliability negated so that all objectives are minimised
+	 */
+	public static double[] objectives(GraphIndividual ind) {
+		return new double[] {-ind.availability, -ind.reliability, ind.time, ind.cost};
+	}
+
+	/**
+	 * Offers a candidate to the archive, which keeps a copy of it if it is not
+	 * dominated by (or equal to) any member.
+	 *
+	 * @param ind
+	 * @param objectives
+	 * @return true if the candidate was added
+	 */
+	public boolean offer(GraphIndividual ind, double[] objectives) {
+		for (double[] other : memberObjectives) {
+			if (NonDominatedSort.dominates(other, objectives) || Arrays.equals(other, objectives))
+				return false;
+		}
+		for (int i = members.size() - 1; i >= 0; i--) {
+			if (NonDominatedSort.dominates(objectives, memberObjectives.get(i))) {
+				members.remove(i);
+				memberObjectives.remove(i);
+			}
+		}
+		members.add((GraphIndividual) ind.clone());
+		memberObjectives.add(objectives);
+
+		while (members.size() > capacity)
+			removeMostCrowded();
+		return true;
+	}
+
+	private void removeMostCrowded() {
+		int size = members.size();
+		double[][] objectives = memberObjectives.toArray(new double[size][]);
+		int[] front = new int[size];
+		for (int i = 0; i < size; i++)
+			front[i] = i;
+		double[] distances = NonDominatedSort.crowdingDistances(objectives, front);
+
+		int worst = 0;
+		for (int i = 1; i < size; i++) {
+			if (distances[i] < distances[worst])
+				worst = i;
+		}
+		members.remove(worst);
+		memberObjectives.remove(worst);
+	}
+
+	public int size() {
+		return members.size();
+	}
+
+	public List<GraphIndividual> getMembers() {
+		return members;
+	}
+}
@@ -0,0 +1,319 @@
+package ec.graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.util.ParameterDatabase;
+
+/**
+ * Compact binary image of a fully indexed composition problem: the taxonomy,
+ * the service repository with its taxonomy associations, the composition task
+ * and the set of relevant services with their layers. Loading a snapshot
+ * replaces parsing the XML files and redoing the indexing steps in
+ * GraphInitializer.setup.
+ *
+ * A snapshot records a fingerprint of the XML files and settings it was built
+ * from, and is rejected when these no longer match.
+ *
+ * Running this class directly with the usual ECJ arguments (e.g. "-file
+ * graph-evol.params -p composition-snapshot=problem.snapshot") compiles the
+ * snapshot without running the evolution.
+ */
+public class ProblemSnapshot {
+	private static final int MAGIC = 0x47455350; // "GESP"
+	private static final int VERSION = 4;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Computes the fingerprint of a problem, covering the contents of its
+	 * source files and the settings that affect how they are indexed.
+	 *
+	 * @param init
+	 * @param files - Services, task and taxonomy files
+	 * @return SHA-1 digest
+	 */
+	public static byte[] fingerprint(GraphInitializer init, String... files) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] buffer = new byte[65536];
+			for (String fileName : files) {
+				InputStream in = new FileInputStream(fileName);
+				try {
+					int read;
+					while ((read = in.read(buffer)) != -1)
+						digest.update(buffer, 0, read);
+				}
+				finally {
+					in.close();
+				}
+				digest.update((byte) 0);
+			}
+			digest.update((byte) (init.runningOwls ? 1 : 0));
+			digest.update((byte) (init.findConcepts ? 1 : 0));
+			return digest.digest();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		catch (IOException e) {
+			// Unreadable sources cannot vouch for any snapshot
+			return new byte[0];
+		}
+	}
+
+	/**
+	 * Writes the problem held by the initializer to the snapshot file. The file
+	 * is written under a temporary name and then moved into place, so concurrent
+	 * runs never observe a partially written snapshot.
+	 *
+	 * @param init
+	 * @param file
+	 * @param fingerprint
+	 */
+	public static void write(GraphInitializer init, File file, byte[] fingerprint) throws IOException {
+		// Number taxonomy nodes in their map iteration order, so that rebuilding
+		// the map in the same order reproduces the same iteration order. Services
+		// are already numbered in their map iteration order.
+		List<TaxonomyNode> concepts = new ArrayList<TaxonomyNode>(init.taxonomyMap.values());
+		Map<TaxonomyNode, Integer> conceptIds = new HashMap<TaxonomyNode, Integer>();
+		for (TaxonomyNode t : concepts)
+			conceptIds.put(t, conceptIds.size());
+		List<Node> services = new ArrayList<Node>();
+		for (int id = 0; id < init.serviceIndex.getNumServices(); id++)
+			services.add(init.serviceIndex.getService(id));
+
+		File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(fingerprint.length);
+			out.write(fingerprint);
+
+			// Concept dictionary, in id order
+			out.writeInt(init.concepts.size());
+			for (int id = 0; id < init.concepts.size(); id++)
+				writeString(out, init.concepts.getName(id));
+
+			// Taxonomy
+			out.writeInt(concepts.size());
+			for (TaxonomyNode t : concepts)
+				out.writeInt(t.id);
+			for (TaxonomyNode t : concepts) {
+				writeConceptList(out, t.parents, conceptIds);
+				writeConceptList(out, t.children, conceptIds);
+			}
+
+			// Services
+			out.writeInt(services.size());
+			for (Node s : services) {
+				writeString(out, s.getName());
+				for (double q : s.getQos())
+					out.writeDouble(q);
+				writeIntSet(out, s.getInputs());
+				writeIntSet(out, s.getOutputs());
+				writeConceptList(out, s.getTaxonomyOutputs(), conceptIds);
+			}
+
+			// Taxonomy associations, indexed by service id
+			init.serviceIndex.write(out);
+
+			// Task and relevant services
+			writeIntSet(out, init.taskInput);
+			writeIntSet(out, init.taskOutput);
+			out.writeInt(init.relevant.size());
+			for (Node s : init.relevant) {
+				out.writeInt(s.getId());
+				out.writeInt(init.serviceLayers.get(s));
+			}
+		}
+		finally {
+			out.close();
+		}
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			tmp.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Memory-maps the snapshot file and loads its problem into the initializer.
+	 *
+	 * @param init
+	 * @param file
+	 * @param fingerprint - Fingerprint of the current source files and settings
+	 * @return true if the snapshot was loaded, false if it is missing, stale,
+	 * corrupt or was written by an incompatible version
+	 */
+	public static boolean read(GraphInitializer init, File file, byte[] fingerprint) throws IOException {
+		if (!file.isFile())
+			return false;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (in.remaining() < 12 || in.getInt() != MAGIC || in.getInt() != VERSION)
+				return false;
+			byte[] stored = new byte[readLength(in, 1)];
+			in.get(stored);
+			if (fingerprint.length == 0 || !Arrays.equals(stored, fingerprint))
+				return false;
+
+			// Concept dictionary
+			ConceptDictionary dictionary = new ConceptDictionary();
+			int numNames = readLength(in, 4);
+			for (int i = 0; i < numNames; i++)
+				dictionary.intern(readString(in));
+
+			// Taxonomy
+			Map<String, TaxonomyNode> taxonomyMap = new HashMap<String, TaxonomyNode>();
+			TaxonomyNode[] concepts = new TaxonomyNode[readLength(in, 4)];
+			for (int i = 0; i < concepts.length; i++) {
+				int id = in.getInt();
+				concepts[i] = new TaxonomyNode(id, dictionary.getName(id));
+				taxonomyMap.put(concepts[i].value, concepts[i]);
+			}
+			for (TaxonomyNode t : concepts) {
+				readConceptList(in, t.parents, concepts);
+				readConceptList(in, t.children, concepts);
+			}
+
+			// Services
+			Map<String, Node> serviceMap = new HashMap<String, Node>();
+			Node[] services = new Node[readLength(in, 4)];
+			for (int i = 0; i < services.length; i++) {
+				String name = readString(in);
+				double[] qos = new double[4];
+				for (int j = 0; j < qos.length; j++)
+					qos[j] = in.getDouble();
+				services[i] = new Node(name, qos, readIntSet(in), readIntSet(in));
+				services[i].setId(i);
+				readConceptList(in, services[i].getTaxonomyOutputs(), concepts);
+				serviceMap.put(name, services[i]);
+			}
+
+			// Taxonomy associations
+			ServiceIndex serviceIndex = ServiceIndex.read(in, services);
+
+			// Task and relevant services
+			IntSet taskInput = readIntSet(in);
+			IntSet taskOutput = readIntSet(in);
+			int numRelevant = readLength(in, 8);
+			Set<Node> relevant = new HashSet<Node>();
+			Map<Node, Integer> serviceLayers = new HashMap<Node, Integer>();
+			for (int i = 0; i < numRelevant; i++) {
+				Node s = services[in.getInt()];
+				relevant.add(s);
+				serviceLayers.put(s, in.getInt());
+			}
+
+			init.concepts = dictionary;
+			init.taxonomyMap = taxonomyMap;
+			init.serviceMap = serviceMap;
+			init.taskInput = taskInput;
+			init.taskOutput = taskOutput;
+			init.serviceIndex = serviceIndex;
+			init.relevant = relevant;
+			init.serviceLayers = serviceLayers;
+			init.indexTaxonomyNodes();
+			return true;
+		}
+		catch (RuntimeException e) {
+			// Truncated or corrupt snapshot, e.g. a length running past the end
+			// of the file or an index out of range
+			return false;
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads the length of a list, checking that its elements, of at least the
+	 * given size, fit in the rest of the snapshot.
+	 */
+	static int readLength(ByteBuffer in, int elementSize) {
+		int length = in.getInt();
+		if (length < 0 || length > in.remaining() / elementSize)
+			throw new IllegalArgumentException("Invalid length " + length);
+		return length;
+	}
+
+	private static String readString(MappedByteBuffer in) {
+		byte[] bytes = new byte[readLength(in, 1)];
+		in.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private static void writeIntSet(DataOutputStream out, IntSet set) throws IOException {
+		out.writeInt(set.size());
+		for (int i = 0; i < set.size(); i++)
+			out.writeInt(set.get(i));
+	}
+
+	private static IntSet readIntSet(MappedByteBuffer in) {
+		int size = readLength(in, 4);
+		IntSet set = new IntSet(size);
+		for (int i = 0; i < size; i++)
+			set.add(in.getInt());
+		return set;
+	}
+
+	private static void writeConceptList(DataOutputStream out, List<TaxonomyNode> list, Map<TaxonomyNode, Integer> ids) throws IOException {
+		out.writeInt(list.size());
+		for (TaxonomyNode t : list)
+			out.writeInt(ids.get(t));
+	}
+
+	private static void readConceptList(MappedByteBuffer in, List<TaxonomyNode> list, TaxonomyNode[] concepts) {
+		int size = readLength(in, 4);
+		for (int i = 0; i < size; i++)
+			list.add(concepts[in.getInt()]);
+	}
+
+	/**
+	 * Compiles the snapshot for the problem described by the given ECJ parameters,
+	 * without running the evolution.
+	 */
+	public static void main(String[] args) {
+		ParameterDatabase parameters = Evolve.loadParameterDatabase(args);
+		EvolutionState state = Evolve.initialize(parameters, 0);
+		GraphInitializer init = new GraphInitializer();
+		init.setup(state, null);
+		Evolve.cleanup(state);
+	}
+}
@@ -0,0 +1,395 @@
+package ec.graph;
+
+import java.util.Arrays;
+
+/**
+ * Computes the QoS attributes of a composition graph in one pass over its
+ * nodes in topological order. Availability and reliability are multiplied and
+ * cost is summed over all nodes, while the critical path (the time of the
+ * slowest path from start to end) and the path length in services are found
+ * by dynamic programming over the considered nodes and edges. The pass is
+ * linear in the size of the graph.
+ *
+ * The finishing time and path length of every node are kept in the graph, so
+ * that a graph derived from it by a recorded change (see GraphChange) can be
+ * evaluated incrementally: the aggregated attributes are updated with the
+ * added and removed nodes only, and the dynamic programming is redone only
+ * downstream of the nodes whose inputs changed. Operators keep the slots of
+ * the nodes they do not touch (see GraphIndividual.edit), so the trace of an
+ * incremental evaluation only holds the nodes it redid, and finds the others
+ * in the trace of the parent; its cost is in proportion to the change, not to
+ * the graph. Since the products are updated by multiplying and dividing,
+ * their rounding errors add up along a line of incremental evaluations, so a
+ * graph is evaluated in full once the line reaches MAX_DEPTH, which also
+ * bounds the number of traces a lookup goes through.
+ *
+ * An evaluator keeps scratch arrays between calls, so each evaluation thread
+ * needs its own instance.
+ */
+public class QosEvaluator {
+	// Number of incremental evaluations after which a graph is evaluated in full
+	public static final int MAX_DEPTH = 8;
+
+	public double availability;
+	public double reliability;
+	public double time;
+	public double cost;
+	// Number of edges on the longest path from start to end
+	public int pathLength;
+
+	private int[] pending = new int[0];
+	private int[] order = new int[0];
+	private boolean[] reached = new boolean[0];
+	private double[] earliest = new double[0];
+	private int[] hops = new int[0];
+	private boolean[] dirty = new boolean[0];
+
+	/**
+	 * Results of evaluating a graph that are kept with it. The products leave
+	 * out zero factors, which are counted instead, so that removing a node can
+	 * always be undone by division.
+	 *
+	 * A full evaluation keeps the results of every node slot in arrays indexed
+	 * by slot. An incremental one keeps the results of the slots it redid in a
+	 * small open-addressed table, over the trace of the parent graph, which
+	 * holds the results of the other slots and is never modified.
+	 */
+	static class Trace {
+		private static final int FREE = -1;
+
+		// Trace holding the results of the slots not kept here, or null
+		final Trace base;
+		// Slots kept here, by open addressing, or null if every slot is kept
+		private final int[] keys;
+		// Finishing time and path length (-1 if not on a path from start) of
+		// each slot kept here
+		final double[] finishTimes;
+		final int[] pathHops;
+		double availability = 1.0;
+		int availabilityZeros;
+		double reliability = 1.0;
+		int reliabilityZeros;
+		double cost;
+		// Number of incremental evaluations since the last full one
+		int depth;
+
+		Trace(int slots) {
+			base = null;
+			keys = null;
+			finishTimes = new double[slots];
+			pathHops = new int[slots];
+		}
+
+		/**
+		 * @param parent
+		 * @param numSlots - Number of slots to be kept in this trace
+		 */
+		Trace(Trace parent, int numSlots) {
+			base = parent;
+			int capacity = 4;
+			while (capacity < 2 * numSlots)
+				capacity *= 2;
+			keys = new int[capacity];
+			Arrays.fill(keys, FREE);
+			finishTimes = new double[capacity];
+			pathHops = new int[capacity];
+			availability = parent.availability;
+			availabilityZeros = parent.availabilityZeros;
+			reliability = parent.reliability;
+			reliabilityZeros = parent.reliabilityZeros;
+			cost = parent.cost;
+			depth = parent.depth + 1;
+		}
+
+		// Index of a slot in this trace's table: where it is, or where it goes
+		private int index(int slot) {
+			int mask = keys.length - 1;
+			int h = slot * 0x9E3779B9;
+			int i = (h ^ (h >>> 16)) & mask;
+			while (keys[i] != FREE && keys[i] != slot)
+				i = (i + 1) & mask;
+			return i;
+		}
+
+		void set(int slot, double finishTime, int hops) {
+			int i = keys == null ? slot : index(slot);
+			if (keys != null)
+				keys[i] = slot;
+			finishTimes[i] = finishTime;
+			pathHops[i] = hops;
+		}
+
+		double getFinishTime(int slot) {
+			Trace t = this;
+			while (t.keys != null) {
+				int i = t.index(slot);
+				if (t.keys[i] == slot)
+					return t.finishTimes[i];
+				t = t.base;
+			}
+			return t.finishTimes[slot];
+		}
+
+		int getPathHops(int slot) {
+			Trace t = this;
+			while (t.keys != null) {
+				int i = t.index(slot);
+				if (t.keys[i] == slot)
+					return t.pathHops[i];
+				t = t.base;
+			}
+			return t.pathHops[slot];
+		}
+
+		void add(double[] qos) {
+			if (qos[GraphInitializer.AVAILABILITY] == 0.0)
+				availabilityZeros++;
+			else
+				availability *= qos[GraphInitializer.AVAILABILITY];
+			if (qos[GraphInitializer.RELIABILITY] == 0.0)
+				reliabilityZeros++;
+			else
+				reliability *= qos[GraphInitializer.RELIABILITY];
+			cost += qos[GraphInitializer.COST];
+		}
+
+		void remove(double[] qos) {
+			if (qos[GraphInitializer.AVAILABILITY] == 0.0)
+				availabilityZeros--;
+			else
+				availability /= qos[GraphInitializer.AVAILABILITY];
+			if (qos[GraphInitializer.RELIABILITY] == 0.0)
+				reliabilityZeros--;
+			else
+				reliability /= qos[GraphInitializer.RELIABILITY];
+			cost -= qos[GraphInitializer.COST];
+		}
+	}
+
+	private void ensureCapacity(int slots) {
+		if (pending.length < slots) {
+			int length = Math.max(slots, 2 * pending.length);
+			pending = new int[length];
+			order = new int[length];
+			reached = new boolean[length];
+			earliest = new double[length];
+			hops = new int[length];
+			dirty = new boolean[length];
+		}
+	}
+
+	/**
+	 * Evaluates the given graph, leaving the results in the public fields.
+	 *
+	 * @param g
+	 * @param init
+	 */
+	public void evaluate(IndexedGraph g, GraphInitializer init) {
+		int slots = g.getNodeSlots();
+		ensureCapacity(slots);
+
+		// Nodes become ready once all of their predecessors have been visited
+		int tail = 0;
+		int endSlot = -1;
+		for (int slot = 0; slot < slots; slot++) {
+			if (!g.isNode(slot))
+				continue;
+			int inDegree = 0;
+			for (int e = g.firstIn(slot); e != -1; e = g.nextIn(e))
+				inDegree++;
+			pending[slot] = inDegree;
+			if (inDegree == 0)
+				order[tail++] = slot;
+			int service = g.getService(slot);
+			reached[slot] = service == IndexedGraph.START && g.isConsidered(slot);
+			earliest[slot] = 0.0;
+			hops[slot] = 0;
+			if (service == IndexedGraph.END)
+				endSlot = slot;
+		}
+
+		Trace trace = new Trace(slots);
+		double[] finishTimes = trace.finishTimes;
+		int[] pathHops = trace.pathHops;
+		int head = 0;
+		while (head < tail) {
+			int slot = order[head++];
+			double[] qos = g.getNode(slot, init).getQos();
+			trace.add(qos);
+
+			// earliest holds the latest finishing time among the predecessors,
+			// which is when this node can start
+			boolean onPath = reached[slot] && g.isConsidered(slot);
+			double finish = earliest[slot] + qos[GraphInitializer.TIME];
+			finishTimes[slot] = finish;
+			pathHops[slot] = onPath ? hops[slot] : -1;
+			for (int e = g.firstOut(slot); e != -1; e = g.nextOut(e)) {
+				int to = g.getTo(e);
+				if (onPath && g.isEdgeConsidered(e) && g.isConsidered(to)) {
+					if (!reached[to] || finish > earliest[to])
+						earliest[to] = finish;
+					if (!reached[to] || hops[slot] + 1 > hops[to])
+						hops[to] = hops[slot] + 1;
+					reached[to] = true;
+				}
+				if (--pending[to] == 0)
+					order[tail++] = to;
+			}
+		}
+
+		// Nodes on a cycle are never ready; they still count towards the
+		// aggregated attributes, but not towards the critical path
+		if (tail < g.getNumNodes()) {
+			boolean[] visited = new boolean[slots];
+			for (int i = 0; i < tail; i++)
+				visited[order[i]] = true;
+			for (int slot = 0; slot < slots; slot++) {
+				if (g.isNode(slot) && !visited[slot]) {
+					trace.add(g.getNode(slot, init).getQos());
+					pathHops[slot] = -1;
+				}
+			}
+		}
+		g.setTrace(trace);
+		setAggregates(trace);
+		setPathResults(g, endSlot);
+	}
+
+	/**
+	 * Evaluates a graph derived from an evaluated one by the given change,
+	 * leaving the results in the public fields.
+	 *
+	 * @param g
+	 * @param change
+	 * @param init
+	 * @return false if the change does not account for the graph, or the parent
+	 * was itself evaluated incrementally MAX_DEPTH times in a row, in which case
+	 * nothing was evaluated
+	 */
+	public boolean evaluate(IndexedGraph g, GraphChange change, GraphInitializer init) {
+		IndexedGraph parent = change.parent;
+		Trace parentTrace = parent.getTrace();
+		if (parentTrace == null || parentTrace.depth >= MAX_DEPTH || g.getNumNodes() != parent.getNumNodes() + change.addedNodes.size() - change.removedNodes.size())
+			return false;
+		ensureCapacity(g.getNodeSlots());
+
+		// Mark everything downstream of the added and rewired nodes
+		int tail = 0;
+		tail = markDirty(g, change.addedNodes, tail);
+		tail = markDirty(g, change.rewiredNodes, tail);
+		for (int head = 0; head < tail; head++) {
+			for (int e = g.firstOut(order[head]); e != -1; e = g.nextOut(e)) {
+				int to = g.getTo(e);
+				if (!dirty[to]) {
+					dirty[to] = true;
+					order[tail++] = to;
+				}
+			}
+		}
+		int numDirty = tail;
+
+		// Aggregated attributes; the results of the clean nodes are those of
+		// the parent, as they kept their slots
+		Trace trace = new Trace(parentTrace, numDirty);
+		for (Node n : change.removedNodes)
+			trace.remove(n.getQos());
+		for (Node n : change.addedNodes)
+			trace.add(n.getQos());
+
+		// Redo the dynamic programming over the dirty nodes, in topological order
+		// among themselves
+		tail = 0;
+		for (int i = 0; i < numDirty; i++) {
+			int slot = order[i];
+			int inDegree = 0;
+			for (int e = g.firstIn(slot); e != -1; e = g.nextIn(e)) {
+				if (dirty[g.getFrom(e)])
+					inDegree++;
+			}
+			pending[slot] = inDegree;
+			if (inDegree == 0)
+				hops[tail++] = slot;
+		}
+		for (int head = 0; head < tail; head++) {
+			int slot = hops[head];
+			pull(g, slot, trace, init);
+			for (int e = g.firstOut(slot); e != -1; e = g.nextOut(e)) {
+				int to = g.getTo(e);
+				if (--pending[to] == 0)
+					hops[tail++] = to;
+			}
+		}
+		for (int i = 0; i < numDirty; i++)
+			dirty[order[i]] = false;
+		if (tail < numDirty)
+			return false;
+		g.setTrace(trace);
+
+		setAggregates(trace);
+		int endSlot = g.findNode(IndexedGraph.END);
+		if (endSlot != -1) {
+			reached[endSlot] = trace.getPathHops(endSlot) >= 0;
+			earliest[endSlot] = trace.getFinishTime(endSlot);
+			hops[endSlot] = trace.getPathHops(endSlot);
+		}
+		setPathResults(g, endSlot);
+		return true;
+	}
+
+	private int markDirty(IndexedGraph g, Iterable<Node> nodes, int tail) {
+		for (Node n : nodes) {
+			int slot = g.findNode(IndexedGraph.serviceOf(n));
+			if (slot != -1 && !dirty[slot]) {
+				dirty[slot] = true;
+				order[tail++] = slot;
+			}
+		}
+		return tail;
+	}
+
+	/**
+	 * Computes the results of a node from those of its predecessors.
+	 */
+	private void pull(IndexedGraph g, int slot, Trace trace, GraphInitializer init) {
+		double time = g.getNode(slot, init).getQos()[GraphInitializer.TIME];
+		boolean onPath = false;
+		double start = 0.0;
+		int length = 0;
+		if (g.isConsidered(slot)) {
+			if (g.getService(slot) == IndexedGraph.START)
+				onPath = true;
+			for (int e = g.firstIn(slot); e != -1; e = g.nextIn(e)) {
+				int from = g.getFrom(e);
+				if (!g.isEdgeConsidered(e) || !g.isConsidered(from))
+					continue;
+				int fromHops = trace.getPathHops(from);
+				if (fromHops < 0)
+					continue;
+				double fromFinish = trace.getFinishTime(from);
+				if (!onPath || fromFinish > start)
+					start = fromFinish;
+				if (!onPath || fromHops + 1 > length)
+					length = fromHops + 1;
+				onPath = true;
+			}
+		}
+		trace.set(slot, start + time, onPath ? length : -1);
+	}
+
+	private void setAggregates(Trace trace) {
+		availability = trace.availabilityZeros > 0 ? 0.0 : trace.availability;
+		reliability = trace.reliabilityZeros > 0 ? 0.0 : trace.reliability;
+		cost = trace.cost;
+	}
+
+	private void setPathResults(IndexedGraph g, int endSlot) {
+		if (endSlot != -1 && reached[endSlot]) {
+			time = earliest[endSlot];
+			pathLength = hops[endSlot];
+		}
+		else {
+			time = 0.0;
+			pathLength = 0;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package ec.graph;
+
+/**
+ * Sums and bounds of the QoS attributes of a set of evaluated individuals.
+ * Each evaluation thread fills its own summary while evaluating its share of
+ * the population, and the summaries are merged once the whole population has
+ * been evaluated (see GraphInitializer.mergeEvaluation).
+ */
+public class QosSummary {
+	public int count;
+
+	public double sumAvailability;
+	public double sumReliability;
+	public double sumTime;
+	public double sumCost;
+
+	public double minAvailability = 2.0;
+	public double maxAvailability = -1.0;
+	public double minReliability = 2.0;
+	public double maxReliability = -1.0;
+	public double minTime = Double.MAX_VALUE;
+	public double maxTime = -1.0;
+	public double minCost = Double.MAX_VALUE;
+	public double maxCost = -1.0;
+
+	public void add(GraphIndividual ind) {
+		double a = ind.availability;
+		double r = ind.reliability;
+		double t = ind.time;
+		double c = ind.cost;
+
+		count++;
+		sumAvailability += a;
+		sumReliability += r;
+		sumTime += t;
+		sumCost += c;
+
+		if (a < minAvailability)
+			minAvailability = a;
+		if (a > maxAvailability)
+			maxAvailability = a;
+		if (r < minReliability)
+			minReliability = r;
+		if (r > maxReliability)
+			maxReliability = r;
+		if (t < minTime)
+			minTime = t;
+		if (t > maxTime)
+			maxTime = t;
+		if (c < minCost)
+			minCost = c;
+		if (c > maxCost)
+			maxCost = c;
+	}
+
+	public void addAll(QosSummary other) {
+		count += other.count;
+		sumAvailability += other.sumAvailability;
+		sumReliability += other.sumReliability;
+		sumTime += other.sumTime;
+		sumCost += other.sumCost;
+
+		minAvailability = Math.min(minAvailability, other.minAvailability);
+		maxAvailability = Math.max(maxAvailability, other.maxAvailability);
+		minReliability = Math.min(minReliability, other.minReliability);
+		maxReliability = Math.max(maxReliability, other.maxReliability);
+		minTime = Math.min(minTime, other.minTime);
+		maxTime = Math.max(maxTime, other.maxTime);
+		minCost = Math.min(minCost, other.minCost);
+		maxCost = Math.max(maxCost, other.maxCost);
+	}
+
+	public double getMeanAvailability() {
+		return count == 0 ? 0.0 : sumAvailability / count;
+	}
+
+	public double getMeanReliability() {
+		return count == 0 ? 0.0 : sumReliability / count;
+	}
+
+	public double getMeanTime() {
+		return count == 0 ? 0.0 : sumTime / count;
+	}
+
+	public double getMeanCost() {
+		return count == 0 ? 0.0 : sumCost / count;
+	}
+}
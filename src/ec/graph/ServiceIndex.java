@@ -0,0 +1,372 @@
+package ec.graph;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Associates taxonomy concepts with the services producing and consuming them,
+ * stored in compressed sparse row form: for each concept, a range of entries in
+ * flat int arrays. Services are identified by their dense id (Node.getId()).
+ *
+ * The producers of a concept are the services with an output subsumed by it.
+ * The consumers of a concept are the services with an input subsuming it, and
+ * each consumer entry also lists which of the service's inputs the concept
+ * satisfies. The rows of both relations are sorted by service id, so queries
+ * iterate over array ranges and need no allocation.
+ */
+public class ServiceIndex {
+	private final Node[] services;
+
+	private final int[] producerStart;
+	private final int[] producers;
+
+	private final int[] consumerStart;
+	private final int[] consumers;
+	private final int[] consumerInputStart;
+	private final int[] consumerInputs;
+
+	private ServiceIndex(Node[] services, int[] producerStart, int[] producers, int[] consumerStart, int[] consumers,
+			int[] consumerInputStart, int[] consumerInputs) {
+		this.services = services;
+		this.producerStart = producerStart;
+		this.producers = producers;
+		this.consumerStart = consumerStart;
+		this.consumers = consumers;
+		this.consumerInputStart = consumerInputStart;
+		this.consumerInputs = consumerInputs;
+	}
+
+	/**
+	 * Builds the index, splitting the services into contiguous ranges that are
+	 * expanded over the taxonomy concurrently. The services must already have
+	 * their ids set to their position in the array.
+	 *
+	 * @param services
+	 * @param taxonomyNodes
+	 * @param subsumption
+	 * @return index
+	 */
+	public static ServiceIndex build(final Node[] services, final TaxonomyNode[] taxonomyNodes, final SubsumptionIndex subsumption) {
+		int numThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), services.length / 256));
+		List<Expansion> chunks = new ArrayList<Expansion>();
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<Expansion>> results = new ArrayList<Future<Expansion>>();
+			for (int t = 0; t < numThreads; t++) {
+				final int from = (int) ((long) services.length * t / numThreads);
+				final int to = (int) ((long) services.length * (t + 1) / numThreads);
+				results.add(executor.submit(new Callable<Expansion>() {
+					@Override
+					public Expansion call() {
+						Expansion expansion = new Expansion(taxonomyNodes.length);
+						for (int s = from; s < to; s++)
+							expansion.expand(services[s], taxonomyNodes, subsumption);
+						return expansion;
+					}
+				}));
+			}
+			for (Future<Expansion> result : results)
+				chunks.add(result.get());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Service index construction was interrupted.", e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException("Service index construction failed.", e.getCause());
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		int numConcepts = taxonomyNodes.length;
+
+		// Count the row sizes, then scatter the entries chunk by chunk; the chunks
+		// are in service order, so every row comes out sorted by service id
+		int[] producerStart = new int[numConcepts + 1];
+		int[] consumerStart = new int[numConcepts + 1];
+		int numConsumerInputs = 0;
+		for (Expansion chunk : chunks) {
+			for (int i = 0; i < chunk.producerConcepts.size; i++)
+				producerStart[chunk.producerConcepts.values[i] + 1]++;
+			for (int i = 0; i < chunk.consumerConcepts.size; i++)
+				consumerStart[chunk.consumerConcepts.values[i] + 1]++;
+			numConsumerInputs += chunk.consumerInputs.size;
+		}
+		for (int c = 0; c < numConcepts; c++) {
+			producerStart[c + 1] += producerStart[c];
+			consumerStart[c + 1] += consumerStart[c];
+		}
+
+		int[] producers = new int[producerStart[numConcepts]];
+		int[] producerNext = Arrays.copyOf(producerStart, numConcepts);
+		int[] consumers = new int[consumerStart[numConcepts]];
+		int[] consumerNext = Arrays.copyOf(consumerStart, numConcepts);
+		int[] inputCounts = new int[consumers.length];
+		int[][] inputOffsets = new int[chunks.size()][];
+		int[][] entryPositions = new int[chunks.size()][];
+		for (int k = 0; k < chunks.size(); k++) {
+			Expansion chunk = chunks.get(k);
+			for (int i = 0; i < chunk.producerConcepts.size; i++)
+				producers[producerNext[chunk.producerConcepts.values[i]]++] = chunk.producerServices.values[i];
+			entryPositions[k] = new int[chunk.consumerConcepts.size];
+			for (int i = 0; i < chunk.consumerConcepts.size; i++) {
+				int entry = consumerNext[chunk.consumerConcepts.values[i]]++;
+				consumers[entry] = chunk.consumerServices.values[i];
+				inputCounts[entry] = chunk.consumerInputStart.values[i + 1] - chunk.consumerInputStart.values[i];
+				entryPositions[k][i] = entry;
+			}
+			inputOffsets[k] = chunk.consumerInputStart.values;
+		}
+
+		int[] consumerInputStart = new int[consumers.length + 1];
+		for (int e = 0; e < consumers.length; e++)
+			consumerInputStart[e + 1] = consumerInputStart[e] + inputCounts[e];
+		int[] consumerInputs = new int[numConsumerInputs];
+		for (int k = 0; k < chunks.size(); k++) {
+			Expansion chunk = chunks.get(k);
+			for (int i = 0; i < chunk.consumerConcepts.size; i++) {
+				int from = inputOffsets[k][i];
+				System.arraycopy(chunk.consumerInputs.values, from, consumerInputs, consumerInputStart[entryPositions[k][i]],
+						inputOffsets[k][i + 1] - from);
+			}
+		}
+
+		return new ServiceIndex(services, producerStart, producers, consumerStart, consumers, consumerInputStart, consumerInputs);
+	}
+
+	/**
+	 * Producer and consumer entries of a range of services, in service order.
+	 */
+	private static class Expansion {
+		final IntList producerConcepts = new IntList();
+		final IntList producerServices = new IntList();
+		final IntList consumerConcepts = new IntList();
+		final IntList consumerServices = new IntList();
+		// Offsets of each consumer entry's inputs, with a final end offset
+		final IntList consumerInputStart = new IntList();
+		final IntList consumerInputs = new IntList();
+
+		// Service for which each concept was last reached, plus one
+		private final int[] seen;
+		private final int[] queue;
+		private long[] pairs = new long[16];
+
+		Expansion(int numConcepts) {
+			seen = new int[numConcepts];
+			queue = new int[numConcepts];
+			consumerInputStart.add(0);
+		}
+
+		void expand(Node s, TaxonomyNode[] taxonomyNodes, SubsumptionIndex subsumption) {
+			int id = s.getId();
+
+			// Producer: every ancestor of an output
+			IntSet outputs = s.getOutputs();
+			int head = 0, tail = 0;
+			for (int i = 0; i < outputs.size(); i++) {
+				int output = outputs.get(i);
+				if (taxonomyNodes[output] != null && seen[output] != id + 1) {
+					seen[output] = id + 1;
+					queue[tail++] = output;
+				}
+			}
+			while (head < tail) {
+				int concept = queue[head++];
+				producerConcepts.add(concept);
+				producerServices.add(id);
+				for (TaxonomyNode parent : taxonomyNodes[concept].parents) {
+					if (seen[parent.id] != id + 1) {
+						seen[parent.id] = id + 1;
+						queue[tail++] = parent.id;
+					}
+				}
+			}
+
+			// Consumer: every descendant of an input, grouping the inputs that
+			// reach the same descendant
+			IntSet inputs = s.getInputs();
+			int numPairs = 0;
+			for (int i = 0; i < inputs.size(); i++) {
+				int input = inputs.get(i);
+				int[] runs = subsumption.getRuns(input);
+				for (int r = 0; r < runs.length; r += 2) {
+					for (int rank = runs[r]; rank <= runs[r + 1]; rank++) {
+						int concept = subsumption.getConcept(rank);
+						if (taxonomyNodes[concept] == null)
+							continue;
+						if (numPairs == pairs.length)
+							pairs = Arrays.copyOf(pairs, numPairs * 2);
+						pairs[numPairs++] = ((long) concept << 32) | input;
+					}
+				}
+			}
+			Arrays.sort(pairs, 0, numPairs);
+			for (int i = 0; i < numPairs; i++) {
+				int concept = (int) (pairs[i] >>> 32);
+				if (i == 0 || concept != (int) (pairs[i - 1] >>> 32)) {
+					if (i > 0)
+						consumerInputStart.add(consumerInputs.size);
+					consumerConcepts.add(concept);
+					consumerServices.add(id);
+				}
+				consumerInputs.add((int) pairs[i]);
+			}
+			if (numPairs > 0)
+				consumerInputStart.add(consumerInputs.size);
+		}
+	}
+
+	/**
+	 * Growable array of ints.
+	 */
+	private static class IntList {
+		int[] values = new int[64];
+		int size;
+
+		void add(int value) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+	}
+
+	/**
+	 * Writes the index arrays, for ProblemSnapshot.
+	 */
+	void write(DataOutputStream out) throws IOException {
+		writeArray(out, producerStart);
+		writeArray(out, producers);
+		writeArray(out, consumerStart);
+		writeArray(out, consumers);
+		writeArray(out, consumerInputStart);
+		writeArray(out, consumerInputs);
+	}
+
+	/**
+	 * Reads index arrays written by write, for ProblemSnapshot.
+	 */
+	static ServiceIndex read(ByteBuffer in, Node[] services) {
+		return new ServiceIndex(services, readArray(in), readArray(in), readArray(in), readArray(in), readArray(in), readArray(in));
+	}
+
+	private static void writeArray(DataOutputStream out, int[] array) throws IOException {
+		out.writeInt(array.length);
+		for (int value : array)
+			out.writeInt(value);
+	}
+
+	private static int[] readArray(ByteBuffer in) {
+		int[] array = new int[ProblemSnapshot.readLength(in, 4)];
+		in.asIntBuffer().get(array);
+		in.position(in.position() + array.length * 4);
+		return array;
+	}
+
+	public int getNumServices() {
+		return services.length;
+	}
+
+	public Node getService(int id) {
+		return services[id];
+	}
+
+	/**
+	 * @return index of the first producer entry of the concept
+	 */
+	public int producersStart(int concept) {
+		return producerStart[concept];
+	}
+
+	/**
+	 * @return index after the last producer entry of the concept
+	 */
+	public int producersEnd(int concept) {
+		return producerStart[concept + 1];
+	}
+
+	/**
+	 * @return the service of a producer entry
+	 */
+	public Node getProducer(int entry) {
+		return services[producers[entry]];
+	}
+
+	/**
+	 * @return the id of the service of a producer entry
+	 */
+	public int getProducerId(int entry) {
+		return producers[entry];
+	}
+
+	/**
+	 * @return index of the first consumer entry of the concept
+	 */
+	public int consumersStart(int concept) {
+		return consumerStart[concept];
+	}
+
+	/**
+	 * @return index after the last consumer entry of the concept
+	 */
+	public int consumersEnd(int concept) {
+		return consumerStart[concept + 1];
+	}
+
+	/**
+	 * @return the service of a consumer entry
+	 */
+	public Node getConsumer(int entry) {
+		return services[consumers[entry]];
+	}
+
+	/**
+	 * Finds the consumer entry for a given concept and service.
+	 *
+	 * @param concept
+	 * @param service
+	 * @return the entry, or -1 if the service does not consume the concept
+	 */
+	public int findConsumer(int concept, Node service) {
+		int id = service.getId();
+		if (id < 0)
+			return -1;
+		int pos = Arrays.binarySearch(consumers, consumerStart[concept], consumerStart[concept + 1], id);
+		return pos < 0 ? -1 : pos;
+	}
+
+	/**
+	 * @return index of the first input satisfied by a consumer entry
+	 */
+	public int inputsStart(int entry) {
+		return consumerInputStart[entry];
+	}
+
+	/**
+	 * @return index after the last input satisfied by a consumer entry
+	 */
+	public int inputsEnd(int entry) {
+		return consumerInputStart[entry + 1];
+	}
+
+	public int getInput(int index) {
+		return consumerInputs[index];
+	}
+
+	/**
+	 * Adds the inputs satisfied by a consumer entry to the given set.
+	 */
+	public void addInputs(int entry, IntSet set) {
+		for (int i = consumerInputStart[entry]; i < consumerInputStart[entry + 1]; i++)
+			set.add(consumerInputs[i]);
+	}
+}
@@ -0,0 +1,124 @@
+package ec.graph;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Set of services kept as a bitset over their dense ids (see ServiceIndex),
+ * used for the pools of services that graphs are built from and for the
+ * services an individual has not used yet. Copying a pool copies one word per
+ * 64 services, and the services of a graph are taken out of a pool bit by bit,
+ * instead of hashing every member of a HashSet<Node>.
+ *
+ * The start and end nodes have no id, and are never members of a pool.
+ * Iteration visits the services in order of id.
+ */
+public class ServicePool implements Iterable<Node> {
+	private final ServiceIndex index;
+	private final BitSet members;
+
+	public ServicePool(ServiceIndex index) {
+		this.index = index;
+		members = new BitSet(index.getNumServices());
+	}
+
+	public ServicePool(ServicePool other) {
+		index = other.index;
+		members = (BitSet) other.members.clone();
+	}
+
+	public ServicePool(ServiceIndex index, Collection<Node> services) {
+		this(index);
+		for (Node s : services)
+			add(s);
+	}
+
+	/**
+	 * @return a copy of this pool without the given services
+	 */
+	public ServicePool without(Collection<Node> services) {
+		ServicePool pool = new ServicePool(this);
+		for (Node s : services)
+			pool.remove(s);
+		return pool;
+	}
+
+	/**
+	 * @return a copy of this pool without the services of a graph in compact form
+	 */
+	public ServicePool without(IndexedGraph graph) {
+		ServicePool pool = new ServicePool(this);
+		for (int slot = 0; slot < graph.getNodeSlots(); slot++) {
+			if (graph.isNode(slot) && graph.getService(slot) >= 0)
+				pool.members.clear(graph.getService(slot));
+		}
+		return pool;
+	}
+
+	public boolean contains(Node service) {
+		int id = service.getId();
+		return id >= 0 && members.get(id);
+	}
+
+	/**
+	 * @param id the id of a service
+	 */
+	public boolean contains(int id) {
+		return members.get(id);
+	}
+
+	public void add(Node service) {
+		int id = service.getId();
+		if (id >= 0)
+			members.set(id);
+	}
+
+	public void remove(Node service) {
+		int id = service.getId();
+		if (id >= 0)
+			members.clear(id);
+	}
+
+	/**
+	 * Removes the services of another pool from this one, a word at a time.
+	 */
+	public void removeAll(ServicePool other) {
+		members.andNot(other.members);
+	}
+
+	public int size() {
+		return members.cardinality();
+	}
+
+	public boolean isEmpty() {
+		return members.isEmpty();
+	}
+
+	@Override
+	public Iterator<Node> iterator() {
+		return new Iterator<Node>() {
+			private int next = members.nextSetBit(0);
+
+			@Override
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			@Override
+			public Node next() {
+				if (next < 0)
+					throw new NoSuchElementException();
+				Node service = index.getService(next);
+				next = members.nextSetBit(next + 1);
+				return service;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
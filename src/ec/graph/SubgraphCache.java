@@ -0,0 +1,147 @@
+package ec.graph;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Bounded cache of the subgraphs built to repair candidates in the crossover
+ * and local mutation pipelines (see GraphSpecies.createSubgraph). A repair
+ * builds a graph from a set of available concepts to a set of required
+ * concepts, and as the population converges the same pairs of concept sets
+ * come back, so the subgraphs built for them are kept and reused.
+ *
+ * Up to a given number of different subgraphs are kept for each pair, so that
+ * repairs keep some variety: until a pair has that many, every request for it
+ * is solved afresh, and from then on a random one of them is served. Even
+ * then, a given fraction of requests is solved afresh, and each fresh solution
+ * replaces the oldest subgraph of the pair, so the stored subgraphs keep being
+ * renewed and repairs keep exploring. A cached subgraph is only served if all
+ * its services may be used by the repair, and when none can be, the repair is
+ * also solved afresh. When the cache is full, the least recently used pair
+ * is evicted.
+ *
+ * The cache is shared by all breeding threads, so its methods are
+ * synchronized.
+ */
+public class SubgraphCache {
+	private final Map<Key, List<GraphIndividual>> entries;
+	private final int variants;
+	private final double freshRate;
+	private long hits;
+	private long lookups;
+
+	/**
+	 * The available and required concepts of a repair. IntSets are sorted, so
+	 * equal sets have the same form.
+	 */
+	private static class Key {
+		final IntSet available;
+		final IntSet required;
+		final int hash;
+
+		Key(IntSet available, IntSet required) {
+			this.available = available;
+			this.required = required;
+			hash = 31 * available.hashCode() + required.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (other instanceof Key) {
+				Key o = (Key) other;
+				return hash == o.hash && available.equals(o.available) && required.equals(o.required);
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * @param capacity the number of concept set pairs kept
+	 * @param variants the number of subgraphs kept per pair
+	 * @param freshRate the fraction of requests solved afresh even when the
+	 * pair has all its subgraphs
+	 */
+	public SubgraphCache(final int capacity, int variants, double freshRate) {
+		this.variants = Math.max(variants, 1);
+		this.freshRate = freshRate;
+		entries = new LinkedHashMap<Key, List<GraphIndividual>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, List<GraphIndividual>> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * @param available
+	 * @param required
+	 * @param pool the services the repair may use
+	 * @param random
+	 * @return a copy of a random cached subgraph that only uses services from
+	 * the pool, or null if the repair should be solved afresh
+	 */
+	public synchronized GraphIndividual get(IntSet available, IntSet required, ServicePool pool, Random random) {
+		lookups++;
+		List<GraphIndividual> solutions = entries.get(new Key(available, required));
+		if (solutions == null || solutions.size() < variants || random.nextDouble() < freshRate)
+			return null;
+
+		int offset = random.nextInt(solutions.size());
+		for (int i = 0; i < solutions.size(); i++) {
+			GraphIndividual solution = solutions.get((offset + i) % solutions.size());
+			if (usesOnly(solution, pool)) {
+				hits++;
+				return (GraphIndividual) solution.clone();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Keeps a copy of a subgraph solved afresh.
+	 *
+	 * @param available
+	 * @param required
+	 * @param subgraph
+	 */
+	public synchronized void put(IntSet available, IntSet required, GraphIndividual subgraph) {
+		Key key = new Key(new IntSet(available), new IntSet(required));
+		List<GraphIndividual> solutions = entries.get(key);
+		if (solutions == null) {
+			solutions = new ArrayList<GraphIndividual>(variants);
+			entries.put(key, solutions);
+		}
+		if (solutions.size() == variants)
+			solutions.remove(0);
+		solutions.add((GraphIndividual) subgraph.clone());
+	}
+
+	private static boolean usesOnly(GraphIndividual subgraph, ServicePool pool) {
+		for (Node n : subgraph.nodeMap.values()) {
+			if (n.getId() >= 0 && !pool.contains(n))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the fraction of lookups that were hits since the last call, and
+	 * starts counting anew
+	 */
+	public synchronized double takeHitRate() {
+		double rate = lookups == 0 ? 0.0 : (double) hits / lookups;
+		hits = 0;
+		lookups = 0;
+		return rate;
+	}
+}
@@ -0,0 +1,224 @@
+package ec.graph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.Queue;
+
+/**
+ * Transitive closure of the taxonomy, computed once after the problem is
+ * loaded. Concepts are ranked in depth-first order from the taxonomy roots,
+ * so the subtree of a concept is one contiguous range of ranks when the
+ * taxonomy is a tree, and a handful of ranges when concepts have several
+ * parents. Each closure is stored as its list of ranges.
+ *
+ * Sets of available concepts are kept as bitsets over the ranks, so checking
+ * whether such a set contains anything subsumed by a concept only scans the
+ * words covered by that concept's ranges.
+ */
+public class SubsumptionIndex {
+	private final int[] rank;
+	private final int[] conceptAtRank;
+	// Closure of each concept, as pairs of inclusive [first, last] ranks
+	private final int[][] runs;
+
+	public SubsumptionIndex(TaxonomyNode[] taxonomyNodes) {
+		int numConcepts = taxonomyNodes.length;
+		rank = new int[numConcepts];
+		Arrays.fill(rank, -1);
+		conceptAtRank = new int[numConcepts];
+		runs = new int[numConcepts][];
+
+		// Rank concepts in depth-first preorder, starting from the roots
+		int nextRank = 0;
+		int[] stack = new int[numConcepts];
+		for (TaxonomyNode root : taxonomyNodes) {
+			if (root == null || !root.parents.isEmpty() || rank[root.id] != -1)
+				continue;
+			int top = 0;
+			stack[top++] = root.id;
+			while (top > 0) {
+				TaxonomyNode current = taxonomyNodes[stack[--top]];
+				if (rank[current.id] != -1)
+					continue;
+				rank[current.id] = nextRank;
+				conceptAtRank[nextRank++] = current.id;
+				// Push in reverse, so that children are ranked in list order
+				for (int i = current.children.size() - 1; i >= 0; i--) {
+					int child = current.children.get(i).id;
+					if (rank[child] == -1) {
+						if (top == stack.length)
+							stack = Arrays.copyOf(stack, stack.length * 2);
+						stack[top++] = child;
+					}
+				}
+			}
+		}
+		// Concepts that cannot be reached from a root (i.e. on a cycle) or that
+		// have no taxonomy node are ranked last
+		for (int id = 0; id < numConcepts; id++) {
+			if (rank[id] == -1) {
+				rank[id] = nextRank;
+				conceptAtRank[nextRank++] = id;
+			}
+		}
+
+		// Combine the closures bottom-up, visiting every concept after all of
+		// its children
+		int[] pendingChildren = new int[numConcepts];
+		Queue<TaxonomyNode> ready = new LinkedList<TaxonomyNode>();
+		for (TaxonomyNode t : taxonomyNodes) {
+			if (t == null)
+				continue;
+			pendingChildren[t.id] = t.children.size();
+			if (t.children.isEmpty())
+				ready.add(t);
+		}
+		while (!ready.isEmpty()) {
+			TaxonomyNode current = ready.poll();
+			runs[current.id] = combineChildren(current);
+			for (TaxonomyNode parent : current.parents) {
+				if (--pendingChildren[parent.id] == 0)
+					ready.add(parent);
+			}
+		}
+		for (int id = 0; id < numConcepts; id++) {
+			if (runs[id] == null) {
+				if (taxonomyNodes[id] == null)
+					runs[id] = new int[] {rank[id], rank[id]};
+				else
+					runs[id] = toRuns(taxonomyNodes[id].getSubsumedConcepts());
+			}
+		}
+	}
+
+	private int[] combineChildren(TaxonomyNode node) {
+		int r = rank[node.id];
+		if (node.children.isEmpty())
+			return new int[] {r, r};
+
+		int length = 2;
+		for (TaxonomyNode child : node.children)
+			length += runs[child.id].length;
+		long[] ranges = new long[length / 2];
+		int count = 0;
+		ranges[count++] = range(r, r);
+		for (TaxonomyNode child : node.children) {
+			int[] childRuns = runs[child.id];
+			for (int i = 0; i < childRuns.length; i += 2)
+				ranges[count++] = range(childRuns[i], childRuns[i + 1]);
+		}
+		return merge(ranges, count);
+	}
+
+	private int[] toRuns(IntSet concepts) {
+		long[] ranges = new long[concepts.size()];
+		for (int i = 0; i < concepts.size(); i++) {
+			int r = rank[concepts.get(i)];
+			ranges[i] = range(r, r);
+		}
+		return merge(ranges, ranges.length);
+	}
+
+	/**
+	 * Packs a range so that sorting the packed values sorts by first rank.
+	 */
+	private static long range(int first, int last) {
+		return ((long) first << 32) | last;
+	}
+
+	/**
+	 * Sorts the ranges and merges those that overlap or touch.
+	 */
+	private static int[] merge(long[] ranges, int count) {
+		Arrays.sort(ranges, 0, count);
+		int[] merged = new int[count * 2];
+		int size = 0;
+		for (int i = 0; i < count; i++) {
+			int first = (int) (ranges[i] >>> 32);
+			int last = (int) ranges[i];
+			if (size > 0 && first <= merged[size - 1] + 1) {
+				if (last > merged[size - 1])
+					merged[size - 1] = last;
+			}
+			else {
+				merged[size++] = first;
+				merged[size++] = last;
+			}
+		}
+		return Arrays.copyOf(merged, size);
+	}
+
+	/**
+	 * @return the number of ranks, i.e. the size of bitsets built by this index
+	 */
+	public int size() {
+		return rank.length;
+	}
+
+	public int getRank(int concept) {
+		return rank[concept];
+	}
+
+	public int getConcept(int rank) {
+		return conceptAtRank[rank];
+	}
+
+	/**
+	 * @return the closure of the concept as pairs of inclusive [first, last] ranks;
+	 * the array must not be modified
+	 */
+	public int[] getRuns(int concept) {
+		return runs[concept];
+	}
+
+	/**
+	 * @return true if the specific concept is the general concept or one of its
+	 * descendants
+	 */
+	public boolean subsumes(int general, int specific) {
+		int[] closure = runs[general];
+		int r = rank[specific];
+		int low = 0, high = closure.length / 2 - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (r < closure[2 * mid])
+				high = mid - 1;
+			else if (r > closure[2 * mid + 1])
+				low = mid + 1;
+			else
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the available concepts include the given concept or one of
+	 * its descendants
+	 */
+	public boolean intersectsClosure(BitSet available, int concept) {
+		int[] closure = runs[concept];
+		for (int i = 0; i < closure.length; i += 2) {
+			int next = available.nextSetBit(closure[i]);
+			if (next < 0)
+				return false;
+			if (next <= closure[i + 1])
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds the ranks of the given concepts to a bitset of available concepts.
+	 */
+	public void addTo(BitSet available, IntSet concepts) {
+		for (int i = 0; i < concepts.size(); i++)
+			available.set(rank[concepts.get(i)]);
+	}
+
+	public BitSet toBitSet(IntSet concepts) {
+		BitSet available = new BitSet(rank.length);
+		addTo(available, concepts);
+		return available;
+	}
+}
@@ -1,11 +1,7 @@
 package ec.graph;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * Represents a node in the input/output taxonomy
@@ -14,49 +10,47 @@ import java.util.Set;
  * @author sawczualex
  */
 public class TaxonomyNode {
-	public Set<String> endNodeInputs = new HashSet<String>();
-	public List<Node> servicesWithOutput = new ArrayList<Node>();
-	public Map<Node,Set<String>> servicesWithInput = new HashMap<Node,Set<String>>();
+	public IntSet endNodeInputs = new IntSet();
+	public int id;
 	public String value;
 	public List<TaxonomyNode> parents = new ArrayList<TaxonomyNode>();
 	public List<TaxonomyNode> children = new ArrayList<TaxonomyNode>();
 
-	public TaxonomyNode(String value) {
+	public TaxonomyNode(int id, String value) {
+		this.id = id;
 		this.value = value;
 	}
 
 	/**
-	 * Gets all concepts subsumed by this node (i.e. all
+	 * Gets the ids of all concepts subsumed by this node (i.e. all
 	 * concepts in its subtree).
 	 *
-	 * @return Set of concepts
+	 * @return Set of concept ids
 	 */
-	public Set<String> getSubsumedConcepts() {
-		Set<String> concepts = new HashSet<String>();
-        _getSubsumedConcepts( concepts );
+	public IntSet getSubsumedConcepts() {
+		IntSet concepts = new IntSet();
+		List<TaxonomyNode> stack = new ArrayList<TaxonomyNode>();
+		stack.add(this);
+		while (!stack.isEmpty()) {
+			TaxonomyNode current = stack.remove(stack.size() - 1);
+			// The taxonomy may reach a concept along several paths
+			if (concepts.add(current.id))
+				stack.addAll(current.children);
+		}
 		return concepts;
 	}
 
-    private void _getSubsumedConcepts(Set<String> concepts) {
-        if (!concepts.contains( value )) {
-            concepts.add(value);
-            for (TaxonomyNode child : children) {
-                child._getSubsumedConcepts(concepts);
-            }
-        }
-    }
-
     @Override
     public boolean equals(Object other) {
         if (other instanceof TaxonomyNode) {
-            return ((TaxonomyNode)other).value.equals( value );
+            return ((TaxonomyNode)other).id == id;
         }
         return false;
     }
 
     @Override
     public int hashCode() {
-        return value.hashCode();
+        return id;
     }
 
     @Override
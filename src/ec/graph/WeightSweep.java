@@ -0,0 +1,278 @@
+package ec.graph;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+
+/**
+ * Re-scores evaluated candidates under a batch of preference profiles, each a
+ * weight vector for the fitness function together with a normalisation
+ * setting. Only the raw QoS attributes stored in the candidates are used, so
+ * one run can be examined under many profiles without evaluating any graph
+ * again.
+ *
+ * The profiles are read from the parameters
+ *
+ * weight-sweep.num-vectors = 2
+ * weight-sweep.vector.0 = 0.25 0.25 0.25 0.25
+ * weight-sweep.vector.1 = 0.7 0.1 0.1 0.1
+ * weight-sweep.vector.1.normalisation = candidates
+ *
+ * where the weights are given in the order of fitness-weight1..4. The
+ * normalisation is either "bounds", which uses the normalisation bounds of the
+ * run, or "candidates", which uses the ranges of the re-scored candidates.
+ *
+ * Re-scoring the final population alone favours the profile the run was
+ * optimised for. If weight-sweep.dump names a file, GraphStatistics writes the
+ * raw QoS attributes and the composition of every member of every
+ * generation's population to it, preceded by the normalisation bounds of that
+ * generation:
+ *
+ * # generation 0 bounds minA maxA minR maxR minT maxT minC maxC
+ * A R T C digraph g {...}
+ * ...
+ *
+ * and main sweeps all of the candidates in such a file offline, normalising
+ * with the bounds of its last generation, and prints the best composition
+ * under each profile.
+ */
+public class WeightSweep {
+	public static final String BOUNDS = "bounds";
+	public static final String CANDIDATES = "candidates";
+
+	public final double[][] weights;
+	public final String[] normalisations;
+	// File the raw QoS attributes of every generation are written to, if any
+	public final File dumpFile;
+
+	public WeightSweep(EvolutionState state, Parameter base) {
+		int numVectors = state.parameters.getIntWithDefault(base.push("num-vectors"), null, 0);
+		weights = new double[numVectors][];
+		normalisations = new String[numVectors];
+		for (int i = 0; i < numVectors; i++) {
+			Parameter vectorParam = base.push("vector").push("" + i);
+			String vector = state.parameters.getString(vectorParam, null);
+			if (vector == null)
+				state.output.fatal("Missing weight vector", vectorParam);
+			String[] tokens = vector.trim().split("\\s+");
+			if (tokens.length != 4)
+				state.output.fatal("A weight vector needs four weights: " + vector, vectorParam);
+			weights[i] = new double[4];
+			try {
+				for (int w = 0; w < 4; w++)
+					weights[i][w] = Double.parseDouble(tokens[w]);
+			}
+			catch (NumberFormatException e) {
+				state.output.fatal("Invalid weight vector: " + vector, vectorParam);
+			}
+
+			Parameter normalisationParam = vectorParam.push("normalisation");
+			normalisations[i] = state.parameters.getStringWithDefault(normalisationParam, null, BOUNDS);
+			if (!normalisations[i].equals(BOUNDS) && !normalisations[i].equals(CANDIDATES))
+				state.output.fatal("Unknown normalisation: " + normalisations[i], normalisationParam);
+		}
+		dumpFile = state.parameters.getFile(base.push("dump"), null);
+	}
+
+	public int size() {
+		return weights.length;
+	}
+
+	/**
+	 * Finds the best candidate under each profile.
+	 *
+	 * @param candidates
+	 * @param init
+	 * @param scores receives the fitness of the best candidate under each profile
+	 * @return the best candidate under each profile, or nulls if there are no
+	 * candidates
+	 */
+	public GraphIndividual[] findBest(List<GraphIndividual> candidates, GraphInitializer init, double[] scores) {
+		return findBest(candidates, runBounds(init), scores);
+	}
+
+	/**
+	 * Finds the best candidate under each profile, with the given normalisation
+	 * bounds standing for those of the run.
+	 *
+	 * @param candidates
+	 * @param runBounds
+	 * @param scores receives the fitness of the best candidate under each profile
+	 * @return the best candidate under each profile, or nulls if there are no
+	 * candidates
+	 */
+	public GraphIndividual[] findBest(List<GraphIndividual> candidates, QosSummary runBounds, double[] scores) {
+		int[] indices = findBestIndices(candidates, runBounds, scores);
+		GraphIndividual[] best = new GraphIndividual[indices.length];
+		for (int i = 0; i < indices.length; i++)
+			best[i] = indices[i] == -1 ? null : candidates.get(indices[i]);
+		return best;
+	}
+
+	/**
+	 * Finds the best candidate under each profile, as findBest does.
+	 *
+	 * @param candidates
+	 * @param runBounds
+	 * @param scores receives the fitness of the best candidate under each profile
+	 * @return the position in the list of the best candidate under each
+	 * profile, or -1s if there are no candidates
+	 */
+	public int[] findBestIndices(List<GraphIndividual> candidates, QosSummary runBounds, double[] scores) {
+		QosSummary candidateBounds = new QosSummary();
+		for (GraphIndividual ind : candidates)
+			candidateBounds.add(ind);
+
+		int[] best = new int[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			QosSummary bounds = normalisations[i].equals(CANDIDATES) ? candidateBounds : runBounds;
+			best[i] = -1;
+			for (int c = 0; c < candidates.size(); c++) {
+				double score = score(candidates.get(c), weights[i], bounds);
+				if (best[i] == -1 || score > scores[i]) {
+					best[i] = c;
+					scores[i] = score;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the current normalisation bounds of the run
+	 */
+	public static QosSummary runBounds(GraphInitializer init) {
+		QosSummary bounds = new QosSummary();
+		bounds.minAvailability = init.minAvailability;
+		bounds.maxAvailability = init.maxAvailability;
+		bounds.minReliability = init.minReliability;
+		bounds.maxReliability = init.maxReliability;
+		bounds.minTime = init.minTime;
+		bounds.maxTime = init.maxTime;
+		bounds.minCost = init.minCost;
+		bounds.maxCost = init.maxCost;
+		return bounds;
+	}
+
+	/**
+	 * Reads the candidates written to a dump file.
+	 *
+	 * @param file
+	 * @param bounds receives the bounds of the last generation in the file
+	 * @param compositions receives the composition of each candidate
+	 * @return a candidate holding the QoS attributes of each line
+	 * @throws IOException
+	 */
+	public static List<GraphIndividual> readDump(File file, QosSummary bounds, List<String> compositions) throws IOException {
+		List<GraphIndividual> candidates = new ArrayList<GraphIndividual>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0)
+					continue;
+				if (line.startsWith("#")) {
+					String[] tokens = line.split("\\s+");
+					if (tokens.length != 12 || !tokens[3].equals("bounds"))
+						throw new IOException("Invalid bounds line: " + line);
+					bounds.minAvailability = Double.parseDouble(tokens[4]);
+					bounds.maxAvailability = Double.parseDouble(tokens[5]);
+					bounds.minReliability = Double.parseDouble(tokens[6]);
+					bounds.maxReliability = Double.parseDouble(tokens[7]);
+					bounds.minTime = Double.parseDouble(tokens[8]);
+					bounds.maxTime = Double.parseDouble(tokens[9]);
+					bounds.minCost = Double.parseDouble(tokens[10]);
+					bounds.maxCost = Double.parseDouble(tokens[11]);
+				}
+				else {
+					// The composition may contain spaces, so it is the rest of the line
+					String[] tokens = line.split("\\s+", 5);
+					if (tokens.length != 5)
+						throw new IOException("Invalid candidate line: " + line);
+					GraphIndividual ind = new GraphIndividual();
+					ind.availability = Double.parseDouble(tokens[0]);
+					ind.reliability = Double.parseDouble(tokens[1]);
+					ind.time = Double.parseDouble(tokens[2]);
+					ind.cost = Double.parseDouble(tokens[3]);
+					candidates.add(ind);
+					compositions.add(tokens[4]);
+				}
+			}
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("Invalid number in " + file + ": " + e.getMessage());
+		}
+		finally {
+			reader.close();
+		}
+		return candidates;
+	}
+
+	/**
+	 * Sweeps the candidates of a dump file offline, under the profiles and the
+	 * weight-sweep.dump file given by the usual ECJ arguments (e.g. "-file
+	 * graph-evol.params -p weight-sweep.vector.0=...").
+	 */
+	public static void main(String[] args) {
+		ParameterDatabase parameters = Evolve.loadParameterDatabase(args);
+		EvolutionState state = Evolve.initialize(parameters, 0);
+		Parameter base = new Parameter("weight-sweep");
+		WeightSweep sweep = new WeightSweep(state, base);
+		if (sweep.dumpFile == null)
+			state.output.fatal("No dump file to sweep", base.push("dump"));
+
+		QosSummary bounds = new QosSummary();
+		List<GraphIndividual> candidates = null;
+		List<String> compositions = new ArrayList<String>();
+		try {
+			candidates = readDump(sweep.dumpFile, bounds, compositions);
+		}
+		catch (IOException e) {
+			state.output.fatal("Could not read " + sweep.dumpFile + ": " + e.getMessage());
+		}
+		System.out.println(String.format("%d candidates", candidates.size()));
+		if (!candidates.isEmpty()) {
+			double[] scores = new double[sweep.size()];
+			int[] best = sweep.findBestIndices(candidates, bounds, scores);
+			for (int i = 0; i < best.length; i++) {
+				double[] w = sweep.weights[i];
+				GraphIndividual ind = candidates.get(best[i]);
+				System.out.println(String.format("Weights %s %s %s %s (%s normalisation): fitness %s, A: %s, R: %s, T: %s, C: %s",
+						w[0], w[1], w[2], w[3], sweep.normalisations[i], scores[i],
+						ind.availability, ind.reliability, ind.time, ind.cost));
+				System.out.println(compositions.get(best[i]));
+			}
+		}
+		Evolve.cleanup(state);
+	}
+
+	/**
+	 * @return the fitness of a candidate under the given weights and
+	 * normalisation bounds, as GraphEvol.calculateFitness computes it
+	 */
+	public static double score(GraphIndividual ind, double[] w, QosSummary bounds) {
+		double a = normalise(ind.availability, bounds.minAvailability, bounds.maxAvailability, false);
+		double r = normalise(ind.reliability, bounds.minReliability, bounds.maxReliability, false);
+		double t = normalise(ind.time, bounds.minTime, bounds.maxTime, true);
+		double c = normalise(ind.cost, bounds.minCost, bounds.maxCost, true);
+		return w[0] * a + w[1] * r + w[2] * t + w[3] * c;
+	}
+
+	private static double normalise(double value, double min, double max, boolean lowerIsBetter) {
+		if (max - min == 0.0)
+			return 1.0;
+		else if (lowerIsBetter)
+			return (max - value) / (max - min);
+		else
+			return (value - min) / (max - min);
+	}
+}